@@ -1,5 +1,6 @@
 package com.filesharingapp.core;
 
+import com.filesharingapp.security.AuthUtil;
 import com.filesharingapp.transfer.TargetConfig;
 import com.filesharingapp.transfer.TransferFactory;
 import com.filesharingapp.transfer.TransferMethod;
@@ -61,6 +62,13 @@ public class Receiver {
             String saveFolder = askSaveFolder(in);
             if (saveFolder == null) return;
 
+            // -------------------------------
+            // 3b) AES password, agreed with the sender out of band (never sent over the network)
+            // -------------------------------
+            String aesPassword = AuthUtil.askAesPassword();
+            TransferContext.setAesPassword(aesPassword);
+            TransferContext.setEncryptionEnabled(aesPassword != null);
+
             // -------------------------------
             // 4) Perform handshake (get metadata: name, size, checksum)
             // -------------------------------
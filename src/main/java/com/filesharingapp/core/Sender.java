@@ -2,10 +2,12 @@ package com.filesharingapp.core;
 
 import com.filesharingapp.security.AesUtil;
 import com.filesharingapp.security.AuthUtil; // FIX: Added missing import
+import com.filesharingapp.transfer.SendPipeline;
 import com.filesharingapp.transfer.TargetConfig;
 import com.filesharingapp.transfer.TransferFactory;
 import com.filesharingapp.transfer.TransferMethod;
 import com.filesharingapp.utils.ActivityLogger;
+import com.filesharingapp.utils.AppConfig;
 import com.filesharingapp.utils.HashUtil;
 import com.filesharingapp.utils.LoggerUtil;
 import com.filesharingapp.utils.NetworkUtil;
@@ -25,9 +27,17 @@ import java.util.Scanner;
  * Baby-English:
  * - This class talks to the human on the Sender side.
  * - It orchestrates file preparation and the transfer process.
+ * - Methods that can stream (HTTP) may get a SendPipeline: zip, encrypt and hash
+ *   run while the bytes go out, with no temp files (send.pipeline.enabled).
+ * - Streaming is OFF by default: it is one POST of unknown length, so it cannot
+ *   resume, is not retried and uses one stream. The default chunked upload keeps
+ *   resume, parallel streams and per-chunk checks.
  */
 public class Sender {
 
+    /** true → stream through SendPipeline when the transfer method supports it (no resume). */
+    private static final boolean PIPELINE_ENABLED = AppConfig.getBoolean("send.pipeline.enabled", false);
+
     /** The current transfer handler (HTTP / ZeroTier / S3). */
     private TransferMethod currentTransferHandler;
 
@@ -78,6 +88,18 @@ public class Sender {
                 return;
             }
 
+            // -------------------------------
+            // 5b) Streaming method → one pass, no temp files
+            // -------------------------------
+            if (useStreaming(currentTransferHandler)) {
+                String outName = SendPipeline.outputName(originalFile, targetConfig.getAesPassword());
+                if (!confirmReady(in, outName)) return;
+                LoggerUtil.info("🚀 Starting streaming transfer using " + mode.toUpperCase(Locale.ROOT) + " …");
+                sendStreaming(userName, currentTransferHandler, originalFile, targetConfig,
+                        mode.toUpperCase(Locale.ROOT));
+                return;
+            }
+
             // -------------------------------
             // 6) Prepare file (Zip/Encrypt)
             // -------------------------------
@@ -116,7 +138,8 @@ public class Sender {
             }
 
             long durationMs = System.currentTimeMillis() - start;
-            logAuditTrail(mode, targetConfig.getTargetHost(), fileToSend, durationMs, success);
+            logAuditTrail(mode, targetConfig.getTargetHost(), fileToSend.getName(), fileToSend.length(),
+                    durationMs, success);
 
         } catch (Exception e) {
             LoggerUtil.error("Sender interactive flow crashed", e);
@@ -146,6 +169,12 @@ public class Sender {
                 return;
             }
 
+            // Streaming method → one pass, no temp files
+            if (useStreaming(handler)) {
+                sendStreaming(userName, handler, file, config, config.getMode());
+                return;
+            }
+
             // Prepare File
             File fileToSend = prepareFileForTransfer(file, config);
             if (fileToSend == null) return;
@@ -172,7 +201,8 @@ public class Sender {
             }
 
             long durationMs = System.currentTimeMillis() - start;
-            logAuditTrail(config.getMode(), config.getTargetHost(), fileToSend, durationMs, success);
+            logAuditTrail(config.getMode(), config.getTargetHost(), fileToSend.getName(), fileToSend.length(),
+                    durationMs, success);
 
         } catch (Exception e) {
             LoggerUtil.error("Sender UI flow crashed", e);
@@ -180,6 +210,45 @@ public class Sender {
     }
 
 
+    // ============================================
+    // Streaming send (SendPipeline)
+    // ============================================
+    private boolean useStreaming(TransferMethod handler) {
+        return PIPELINE_ENABLED && handler.supportsStreamingSend();
+    }
+
+    /**
+     * Baby-English:
+     * - Start the pipeline (read → zip → encrypt → hash) and let the handler
+     *   send its output while it is being made.
+     * - The checksum comes back from the handler once the last byte is out.
+     */
+    private void sendStreaming(String userName, TransferMethod handler, File originalFile,
+                               TargetConfig config, String mode) {
+        long start = System.currentTimeMillis();
+        boolean success = false;
+        String outName = SendPipeline.outputName(originalFile, config.getAesPassword());
+        long bytesSent = 0L;
+
+        TransferContext.setIncomingName(outName);
+        TransferContext.setActiveMethod(mode);
+        TransferContext.setLastSenderIp(config.getTargetHost());
+        TransferContext.setEncryptionEnabled(config.getAesPassword() != null);
+
+        try (SendPipeline pipeline = SendPipeline.start(originalFile, config.getAesPassword(), null)) {
+            String checksum = handler.sendStream(userName, pipeline, config);
+            TransferContext.setExpectedChecksum(checksum);
+            bytesSent = pipeline.getBytesOut();
+            success = true;
+            LoggerUtil.success("🎉 File sent successfully (streamed, SHA-256 " + checksum + ").");
+        } catch (Exception e) {
+            LoggerUtil.error("Sender streaming flow failed", e);
+        }
+
+        long durationMs = System.currentTimeMillis() - start;
+        logAuditTrail(mode, config.getTargetHost(), outName, bytesSent, durationMs, success);
+    }
+
     // ============================================
     // File Preparation (Zip/Encrypt)
     // ============================================
@@ -203,7 +272,7 @@ public class Sender {
             File encryptedFile = new File(fileToSend.getAbsolutePath() + ".enc");
             try {
                 // FIX: Use correct AesUtil signature for File encryption (requires SecretKey)
-                AesUtil.encryptFile(fileToSend, encryptedFile, AesUtil.buildKeyFromPassword(aesPassword));
+                AesUtil.encryptFile(fileToSend, encryptedFile, aesPassword);
                 fileToSend = encryptedFile;
             } catch (Exception e) {
                 LoggerUtil.error("Failed to encrypt file.", e);
@@ -334,13 +403,14 @@ public class Sender {
     // ============================================
     // Log audit trail
     // ============================================
-    private void logAuditTrail(String mode, String targetHost, File file, long durationMs, boolean success) {
+    private void logAuditTrail(String mode, String targetHost, String fileName, long sizeBytes,
+                               long durationMs, boolean success) {
         ActivityLogger.logTransfer(
                 mode,
                 NetworkUtil.findLocalIp(),
                 targetHost,
-                file.getName(),
-                file.length(),
+                fileName,
+                sizeBytes,
                 durationMs,
                 success ? "SUCCESS" : "FAIL",
                 success ? "Transfer finished OK" : "Transfer failed or canceled"
@@ -6,8 +6,13 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * TransferContext
@@ -39,6 +44,7 @@ public final class TransferContext {
     private static volatile String s3DownloadLocation;
     private static volatile boolean encryptionEnabled;
     private static volatile String aesKeyFingerprint;
+    private static volatile String aesPassword;
 
     // ================================
     // 📊 Progress tracking
@@ -59,13 +65,101 @@ public final class TransferContext {
     // ================================
     // 🧩 Chunk state for safe merge
     // ================================
+
+    /**
+     * ChunkState
+     * ----------
+     * Baby-English:
+     * - One bit per chunk, 64 chunks per long (a 10k-chunk file needs 157 longs).
+     * - Bits are set with compare-and-set → no lock, many writers at once.
+     * - "remaining" counts down to 0 → "are all chunks here?" is one read.
+     */
     private static final class ChunkState {
-        final boolean[] received;
-        final Object mergeLock = new Object();
+        final int chunkCount;
+        final int chunkSize;
+        final AtomicLongArray bits;
+        final AtomicInteger remaining;
+        final ReentrantLock mergeLock = new ReentrantLock();
+
+        ChunkState(int chunkCount, int chunkSize) {
+            this.chunkCount = chunkCount;
+            this.chunkSize = chunkSize;
+            this.bits = new AtomicLongArray((chunkCount + 63) >>> 6);
+            this.remaining = new AtomicInteger(chunkCount);
+        }
+
+        /** @return true if this call flipped the bit from 0 to 1. */
+        boolean set(int index) {
+            int word = index >>> 6;
+            long mask = 1L << (index & 63);
+            while (true) {
+                long cur = bits.get(word);
+                if ((cur & mask) != 0) return false;
+                if (bits.compareAndSet(word, cur, cur | mask)) {
+                    remaining.decrementAndGet();
+                    return true;
+                }
+            }
+        }
+
+        boolean isSet(int index) {
+            return (bits.get(index >>> 6) & (1L << (index & 63))) != 0;
+        }
+
+        /**
+         * Runs of chunks whose bit equals {@code wanted}, as [from, to) pairs.
+         * Whole words of 0s or 1s are skipped 64 chunks at a time.
+         */
+        List<ChunkRange> ranges(boolean wanted) {
+            List<ChunkRange> out = new ArrayList<>();
+            int runStart = -1;
+            int words = bits.length();
+            for (int w = 0; w < words; w++) {
+                long word = bits.get(w);
+                long match = wanted ? word : ~word;
+                int base = w << 6;
+                int limit = Math.min(64, chunkCount - base);
+                if (limit < 64) match &= (1L << limit) - 1;
+
+                if (match == -1L) {                 // all 64 match → run continues
+                    if (runStart < 0) runStart = base;
+                    continue;
+                }
+                if (match == 0L) {                  // none match → run (if any) ends here
+                    if (runStart >= 0) { out.add(new ChunkRange(runStart, base)); runStart = -1; }
+                    continue;
+                }
+                for (int b = 0; b < limit; b++) {
+                    boolean hit = (match & (1L << b)) != 0;
+                    if (hit && runStart < 0) runStart = base + b;
+                    if (!hit && runStart >= 0) { out.add(new ChunkRange(runStart, base + b)); runStart = -1; }
+                }
+            }
+            if (runStart >= 0) out.add(new ChunkRange(runStart, chunkCount));
+            return out;
+        }
+    }
 
-        ChunkState(int totalChunks) {
-            this.received = new boolean[totalChunks];
+    /**
+     * ChunkRange
+     * ----------
+     * Baby-English:
+     * - A run of chunk indexes: from (inclusive) → to (exclusive).
+     * - "3-7" means chunks 3, 4, 5, 6.
+     */
+    public static final class ChunkRange {
+        public final int from;
+        public final int to;
+
+        public ChunkRange(int from, int to) {
+            this.from = from;
+            this.to = to;
         }
+
+        public int size() { return to - from; }
+
+        @Override
+        public String toString() { return from + "-" + to; }
     }
 
     private static final Map<String, ChunkState> CHUNK_STATE_MAP = new ConcurrentHashMap<>();
@@ -131,8 +225,11 @@ public final class TransferContext {
     public static void setS3DownloadLocation(String path) { s3DownloadLocation = path; }
     public static String getS3DownloadLocation() { return s3DownloadLocation; }
 
-    // FIX: Added missing getter for AES Password (used by handlers)
-    public static String getAesPassword() { return aesKeyFingerprint; }
+    /** The AES password, kept apart from the key fingerprint (that one is safe to log, this one is not). */
+    public static String getAesPassword() { return aesPassword; }
+
+    /** Receiver side: the password shared out of band; /upload opens encrypted chunks with it. */
+    public static void setAesPassword(String password) { aesPassword = password; }
 
     public static void setEncryptionEnabled(boolean enabled) { encryptionEnabled = enabled; }
     public static boolean isEncryptionEnabled() { return encryptionEnabled; }
@@ -162,36 +259,75 @@ public final class TransferContext {
     // ============================================================
     // 🧩 Chunk tracking
     // ============================================================
-    public static synchronized void initChunkState(String transferId, int chunkCount) {
+    public static synchronized void initChunkState(String transferId, int chunkCount, int chunkSize) {
         if (transferId == null || chunkCount <= 0) return;
-        CHUNK_STATE_MAP.put(transferId, new ChunkState(chunkCount));
+        CHUNK_STATE_MAP.put(transferId, new ChunkState(chunkCount, chunkSize));
         setTotalChunks(chunkCount);
         setCompletedChunks(0);
     }
 
-    public static void markChunkReceived(String transferId, int index) {
+    /**
+     * Like initChunkState, but keeps an existing state (chunks may arrive in any order).
+     */
+    public static void ensureChunkState(String transferId, int chunkCount, int chunkSize) {
+        if (transferId == null || chunkCount <= 0 || CHUNK_STATE_MAP.containsKey(transferId)) return;
+        CHUNK_STATE_MAP.computeIfAbsent(transferId, k -> new ChunkState(chunkCount, chunkSize));
+    }
+
+    /** Number of chunks expected for this transfer (0 if unknown). */
+    public static int getChunkCount(String transferId) {
         ChunkState state = CHUNK_STATE_MAP.get(transferId);
-        if (state == null || index < 0 || index >= state.received.length) return;
-        synchronized (state) {
-            if (!state.received[index]) {
-                state.received[index] = true;
-                completedChunks++;
-                Progress p = PROGRESS_MAP.get(transferId);
-                if (p != null) p.completedChunks = completedChunks;
-            }
-        }
+        return (state != null) ? state.chunkCount : 0;
     }
 
+    /** Declared chunk size in bytes for this transfer (0 if unknown). */
+    public static int getChunkSize(String transferId) {
+        ChunkState state = CHUNK_STATE_MAP.get(transferId);
+        return (state != null) ? state.chunkSize : 0;
+    }
+
+    /**
+     * Marks one chunk as received (lock-free).
+     *
+     * @return true only the first time this chunk is marked (duplicates return false)
+     */
+    public static boolean markChunkReceived(String transferId, int index) {
+        ChunkState state = CHUNK_STATE_MAP.get(transferId);
+        if (state == null || index < 0 || index >= state.chunkCount) return false;
+        if (!state.set(index)) return false;
+
+        int done = state.chunkCount - state.remaining.get();
+        completedChunks = done;
+        Progress p = PROGRESS_MAP.get(transferId);
+        if (p != null) p.completedChunks = done;
+        return true;
+    }
+
+    public static boolean isChunkReceived(String transferId, int index) {
+        ChunkState state = CHUNK_STATE_MAP.get(transferId);
+        return state != null && index >= 0 && index < state.chunkCount && state.isSet(index);
+    }
+
+    /** O(1): one atomic read of the remaining-count. */
     public static boolean areAllChunksReceived(String transferId) {
         ChunkState state = CHUNK_STATE_MAP.get(transferId);
-        if (state == null) return false;
-        synchronized (state) {
-            for (boolean b : state.received) if (!b) return false;
-            return true;
-        }
+        return state != null && state.remaining.get() == 0;
+    }
+
+    /** Received chunks as compact [from, to) runs (empty if unknown transfer). */
+    public static List<ChunkRange> getReceivedChunkRanges(String transferId) {
+        ChunkState state = CHUNK_STATE_MAP.get(transferId);
+        return (state != null) ? state.ranges(true) : new ArrayList<>();
+    }
+
+    /** Missing chunks as compact [from, to) runs (empty if unknown transfer). */
+    public static List<ChunkRange> getMissingChunkRanges(String transferId) {
+        ChunkState state = CHUNK_STATE_MAP.get(transferId);
+        return (state != null) ? state.ranges(false) : new ArrayList<>();
     }
 
-    public static Object getMergeLock(String transferId) {
+    /** Lock (not a monitor) so a long merge on a virtual thread does not pin its carrier. */
+    public static ReentrantLock getMergeLock(String transferId) {
         ChunkState state = CHUNK_STATE_MAP.get(transferId);
         return (state != null) ? state.mergeLock : null;
     }
@@ -234,6 +370,7 @@ public final class TransferContext {
         s3DownloadLocation = null;
         encryptionEnabled = false;
         aesKeyFingerprint = null;
+        aesPassword = null;
         PROGRESS_MAP.clear();
         CHUNK_STATE_MAP.clear();
     }
@@ -0,0 +1,284 @@
+package com.filesharingapp.security;
+
+import com.filesharingapp.utils.AppConfig;
+import com.filesharingapp.utils.LoggerUtil;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * CipherSuites
+ * ------------
+ * Baby-English:
+ *   ✔ The AEAD ciphers an FSG1 container may use (header byte 5):
+ *       1 = AES-256-GCM        → very fast where the CPU has AES instructions
+ *       2 = ChaCha20-Poly1305  → faster on small ARM / older x86 boxes without them
+ *   ✔ At startup we seal 64 KiB segments with each one for a moment (crypto.benchmark.millis)
+ *     and remember the MB/s; the faster one is our preferred suite.
+ *   ✔ Sender and receiver agree on a suite before an HTTP upload:
+ *       GET /status?ciphers=true → the receiver's suites and MB/s
+ *       → we take the common suite whose SLOWER side is fastest.
+ *       Old receivers (no list) only know AES-256-GCM.
+ *   ✔ Files with no receiver to ask (S3, stream pipeline) use our preferred suite;
+ *     every receiver of this version opens both.
+ *
+ * Config (application.properties):
+ *   crypto.suite            → auto (benchmark) | aes-256-gcm | chacha20-poly1305
+ *   crypto.benchmark.millis → measuring time per suite
+ */
+public final class CipherSuites {
+
+    public static final byte AES_256_GCM = 1;
+    public static final byte CHACHA20_POLY1305 = 2;
+
+    private static final byte[] ALL = {AES_256_GCM, CHACHA20_POLY1305};
+
+    /** Checked once: ChaCha20-Poly1305 needs Java 11+ (AES-GCM is always there). */
+    private static final boolean CHACHA_AVAILABLE = available(CHACHA20_POLY1305);
+
+    private static final String PINNED = AppConfig.get("crypto.suite", "auto").trim().toLowerCase(Locale.ROOT);
+    private static final int BENCHMARK_MS = Math.max(20, AppConfig.getInt("crypto.benchmark.millis", 200));
+    private static final int BENCHMARK_BYTES = 64 * 1024;
+
+    private static final Pattern REMOTE_SUITE =
+            Pattern.compile("\\{\"name\":\"([a-z0-9-]+)\",\"mbps\":([0-9.]+)}");
+
+    private static CompletableFuture<List<Result>> benchmark;
+
+    private CipherSuites() {
+        // Utility class – no objects.
+    }
+
+    /** One measured suite. */
+    public static final class Result {
+        private final byte suite;
+        private final double mbps;
+
+        Result(byte suite, double mbps) {
+            this.suite = suite;
+            this.mbps = mbps;
+        }
+
+        public byte suite()    { return suite; }
+        public String name()   { return CipherSuites.name(suite); }
+        public double mbps()   { return mbps; }
+    }
+
+    // ============================
+    // ✅ Names and JCE details
+    // ============================
+
+    public static String name(byte suite) {
+        switch (suite) {
+            case AES_256_GCM:       return "aes-256-gcm";
+            case CHACHA20_POLY1305: return "chacha20-poly1305";
+            default:                return "unknown-" + suite;
+        }
+    }
+
+    /** Suite for a name, or -1. */
+    public static byte fromName(String name) {
+        for (byte s : ALL) {
+            if (name(s).equalsIgnoreCase(name)) return s;
+        }
+        return -1;
+    }
+
+    /** True when this JVM can run the suite. */
+    public static boolean isSupported(byte suite) {
+        return suite == AES_256_GCM || suite == CHACHA20_POLY1305 && CHACHA_AVAILABLE;
+    }
+
+    private static boolean available(byte suite) {
+        try {
+            newCipher(suite);
+            return true;
+        } catch (GeneralSecurityException e) {
+            return false;
+        }
+    }
+
+    static Cipher newCipher(byte suite) throws GeneralSecurityException {
+        return Cipher.getInstance(suite == CHACHA20_POLY1305 ? "ChaCha20-Poly1305" : "AES/GCM/NoPadding");
+    }
+
+    static String keyAlgorithm(byte suite) {
+        return suite == CHACHA20_POLY1305 ? "ChaCha20" : "AES";
+    }
+
+    /** 12-byte nonce → cipher parameters (both suites use a 16-byte tag). */
+    static AlgorithmParameterSpec params(byte suite, byte[] nonce) {
+        return suite == CHACHA20_POLY1305 ? new IvParameterSpec(nonce) : new GCMParameterSpec(128, nonce);
+    }
+
+    // ============================
+    // ✅ Startup benchmark
+    // ============================
+
+    /**
+     * benchmarkAsync
+     * --------------
+     * Baby-English:
+     *   ✔ Starts the measurement once, on a background thread (server start calls this,
+     *     so the first transfer does not wait for it).
+     */
+    public static synchronized CompletableFuture<List<Result>> benchmarkAsync() {
+        if (benchmark == null) {
+            CompletableFuture<List<Result>> f = new CompletableFuture<>();
+            Thread t = new Thread(() -> f.complete(runBenchmark()), "cipher-benchmark");
+            t.setDaemon(true);
+            t.start();
+            benchmark = f;
+        }
+        return benchmark;
+    }
+
+    /** Measured suites, fastest first (waits for the benchmark the first time). */
+    public static List<Result> results() {
+        return benchmarkAsync().join();
+    }
+
+    /** Our preferred suite: crypto.suite when pinned, else the fastest one measured. */
+    public static byte preferred() {
+        byte pinned = fromName(PINNED);
+        if (pinned > 0 && isSupported(pinned)) return pinned;
+        List<Result> r = results();
+        return r.isEmpty() ? AES_256_GCM : r.get(0).suite();
+    }
+
+    private static List<Result> runBenchmark() {
+        List<Result> results = new ArrayList<>();
+        for (byte suite : ALL) {
+            try {
+                measure(suite, BENCHMARK_MS / 4);            // warm-up (JIT, intrinsics)
+                results.add(new Result(suite, measure(suite, BENCHMARK_MS)));
+            } catch (GeneralSecurityException | RuntimeException e) {
+                LoggerUtil.warn("[Crypto] " + name(suite) + " not available: " + e.getMessage());
+            }
+        }
+        results.sort((a, b) -> Double.compare(b.mbps, a.mbps));
+
+        StringBuilder sb = new StringBuilder("[Crypto] Cipher benchmark:");
+        for (Result r : results) sb.append(' ').append(r.name()).append('=').append(format(r.mbps)).append(" MB/s");
+        if (!results.isEmpty()) sb.append(" → prefer ").append(results.get(0).name());
+        LoggerUtil.info(sb.toString());
+        return Collections.unmodifiableList(results);
+    }
+
+    /** Seal 64 KiB segments for about "millis" ms; returns MB/s. */
+    private static double measure(byte suite, int millis) throws GeneralSecurityException {
+        byte[] key = new byte[32];
+        byte[] nonce = new byte[12];
+        new SecureRandom().nextBytes(key);
+        SecretKeySpec k = new SecretKeySpec(key, keyAlgorithm(suite));
+        byte[] in = new byte[BENCHMARK_BYTES];
+        byte[] out = new byte[BENCHMARK_BYTES + SegmentedGcm.TAG_BYTES];
+        Cipher c = newCipher(suite);
+
+        long bytes = 0;
+        long counter = 0;
+        long start = System.nanoTime();
+        long deadline = start + millis * 1_000_000L;
+        long now;
+        do {
+            counter++;
+            for (int i = 0; i < 8; i++) nonce[i] = (byte) (counter >>> (8 * i)); // never the same nonce twice
+            c.init(Cipher.ENCRYPT_MODE, k, params(suite, nonce));
+            c.doFinal(in, 0, in.length, out, 0);
+            bytes += in.length;
+            now = System.nanoTime();
+        } while (now < deadline);
+        return bytes / ((now - start) / 1e9) / 1e6;
+    }
+
+    // ============================
+    // ✅ Negotiation
+    // ============================
+
+    /**
+     * negotiate
+     * ---------
+     * Baby-English:
+     *   ✔ remoteJson = the receiver's /status?ciphers=true answer (null = no answer).
+     *   ✔ crypto.suite pinned and the receiver has it → that one.
+     *   ✔ Otherwise: of the suites both sides have, the one where min(our MB/s, their MB/s)
+     *     is highest (the slower box decides how fast the transfer can go).
+     *   ✔ No list (older receiver) or nothing in common → AES-256-GCM.
+     */
+    public static byte negotiate(String remoteJson) {
+        List<Result> remote = parseRemote(remoteJson);
+        if (remote.isEmpty()) return AES_256_GCM;
+
+        byte pinned = fromName(PINNED);
+        for (Result r : remote) {
+            if (r.suite() == pinned && isSupported(pinned)) return pinned;
+        }
+
+        byte best = -1;
+        double bestMbps = -1;
+        for (Result ours : results()) {
+            for (Result theirs : remote) {
+                if (theirs.suite() != ours.suite()) continue;
+                double slower = Math.min(ours.mbps(), theirs.mbps());
+                if (slower > bestMbps) {
+                    bestMbps = slower;
+                    best = ours.suite();
+                }
+            }
+        }
+        if (best < 0) {
+            LoggerUtil.warn("[Crypto] No cipher suite in common with the receiver; using aes-256-gcm.");
+            return AES_256_GCM;
+        }
+        return best;
+    }
+
+    private static List<Result> parseRemote(String json) {
+        List<Result> out = new ArrayList<>();
+        if (json == null) return out;
+        Matcher m = REMOTE_SUITE.matcher(json);
+        while (m.find()) {
+            byte s = fromName(m.group(1));
+            if (s < 0) continue;
+            try {
+                out.add(new Result(s, Double.parseDouble(m.group(2))));
+            } catch (NumberFormatException ignored) {
+                // skip a bad number
+            }
+        }
+        return out;
+    }
+
+    /**
+     * JSON for /status?ciphers=true:
+     * {"preferred":"aes-256-gcm","suites":[{"name":"aes-256-gcm","mbps":1834.2},...]}
+     * (fastest first).
+     */
+    public static String toJson() {
+        StringBuilder sb = new StringBuilder(128);
+        sb.append("{\"preferred\":\"").append(name(preferred())).append("\",\"suites\":[");
+        List<Result> r = results();
+        for (int i = 0; i < r.size(); i++) {
+            if (i > 0) sb.append(',');
+            sb.append("{\"name\":\"").append(r.get(i).name()).append("\",\"mbps\":")
+                    .append(format(r.get(i).mbps())).append('}');
+        }
+        return sb.append("]}").toString();
+    }
+
+    private static String format(double mbps) {
+        return String.format(Locale.ROOT, "%.1f", mbps);
+    }
+}
@@ -0,0 +1,276 @@
+package com.filesharingapp.security;
+
+import com.filesharingapp.utils.AppConfig;
+import com.filesharingapp.utils.HashUtil;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CryptoSession
+ * -------------
+ * Baby-English:
+ *   ✔ Everything one transfer needs to encrypt or decrypt, set up ONCE:
+ *       - its cipher suite (AES-256-GCM or ChaCha20-Poly1305, see CipherSuites);
+ *       - the 256-bit key, stretched from the password with PBKDF2-HMAC-SHA256
+ *         (2^cost rounds, slow on purpose) and the session's random 16-byte salt;
+ *       - a nonce generator: every new container of the session gets the next
+ *         nonce prefix (a counter) → no SecureRandom per chunk, never a repeat;
+ *       - one Cipher per thread and suite, re-initialised per segment, never shared.
+ *   ✔ Every chunk (and every resend) of a transfer is its own small container with
+ *     the same salt and a new prefix, so a resent segment never reuses a nonce.
+ *   ✔ Receivers find the session again from any header of the transfer:
+ *     same suite + salt + password → cache hit, no key stretching per chunk.
+ *   ✔ One session = one suite, so a key never serves two different ciphers.
+ *   ✔ Older FSG1 files (kdf 1) → key = HKDF-SHA256(AesUtil password bytes, salt).
+ *   ✔ Headers arrive unauthenticated, so a receiver never stretches harder than its own
+ *     crypto.kdf.cost, and many first chunks of one transfer wait for ONE stretching.
+ *
+ * Config (application.properties):
+ *   crypto.kdf.cost                → PBKDF2 rounds = 2^cost for new sessions (default 18);
+ *                                    also the highest cost a received header may ask for
+ *   crypto.sessionCache.maxEntries → sessions kept by receivers (least recently used fall out)
+ */
+public final class CryptoSession {
+
+    static final byte KDF_HKDF_SHA256 = 1;
+    static final byte KDF_PBKDF2_SHA256 = 2;
+
+    static final int SALT_BYTES = 16;
+    static final int PREFIX_BYTES = 7;
+
+    private static final int MIN_COST = 10;
+    private static final int MAX_COST = 24;
+    /**
+     * Our cost, and the highest we accept from a header: a hostile header cannot make us
+     * burn more CPU than one of our own sessions (raise it on receivers before senders).
+     */
+    private static final int COST = Math.min(MAX_COST, Math.max(MIN_COST, AppConfig.getInt("crypto.kdf.cost", 18)));
+    private static final int MAX_ENTRIES = Math.max(1, AppConfig.getInt("crypto.sessionCache.maxEntries", 256));
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /** Thread-confined ciphers, indexed by suite: getInstance once per thread, init once per segment. */
+    private static final ThreadLocal<Cipher[]> CIPHERS = ThreadLocal.withInitial(() -> new Cipher[3]);
+
+    /** Access-ordered → iteration starts at the least recently used session. */
+    private static final LinkedHashMap<String, CryptoSession> SESSIONS = new LinkedHashMap<>(64, 0.75f, true);
+
+    /** Key stretchings running right now, by session id: a second caller waits for the first. */
+    private static final ConcurrentHashMap<String, CompletableFuture<CryptoSession>> DERIVING =
+            new ConcurrentHashMap<>();
+
+    private final byte suite;
+    private final byte kdf;
+    private final int cost;
+    private final byte[] salt;
+    private final byte[] fingerprint;   // SHA-256(salt || password): sessions of other passwords stay apart
+    private final SecretKey key;
+    private final AtomicLong nextPrefix = new AtomicLong();
+
+    private CryptoSession(byte suite, byte kdf, int cost, byte[] salt, String password, byte[] fingerprint) {
+        this.suite = suite;
+        this.kdf = kdf;
+        this.cost = cost;
+        this.salt = salt;
+        this.fingerprint = fingerprint;
+        this.key = new SecretKeySpec(deriveKey(kdf, cost, salt, password), CipherSuites.keyAlgorithm(suite));
+    }
+
+    // ============================
+    // ✅ Create / find
+    // ============================
+
+    /** New session with our preferred suite (no receiver to agree with). */
+    public static CryptoSession create(String password) {
+        return create(password, CipherSuites.preferred());
+    }
+
+    /** New session for a sender: this suite, fresh salt, key stretched once (crypto.kdf.cost). */
+    public static CryptoSession create(String password, byte suite) {
+        if (!CipherSuites.isSupported(suite)) {
+            throw new IllegalArgumentException("Cipher suite not available: " + CipherSuites.name(suite));
+        }
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        CryptoSession s = new CryptoSession(suite, KDF_PBKDF2_SHA256, COST, salt, password,
+                fingerprint(salt, password));
+        remember(s);
+        return s;
+    }
+
+    /**
+     * forHeader
+     * ---------
+     * Baby-English:
+     *   ✔ Session of a container we received (suite, kdf, cost and salt come from its header).
+     *   ✔ Seen before with the same password → the cached one (no key stretching).
+     *   ✔ Being stretched right now by another request → wait for that one, do not start another.
+     *   ✔ Cost above our crypto.kdf.cost → refused before any work.
+     */
+    static CryptoSession forHeader(String password, byte suite, byte kdf, int cost, byte[] salt)
+            throws IOException {
+        if (!CipherSuites.isSupported(suite)) throw new IOException("Unsupported cipher suite " + suite);
+        if (kdf == KDF_PBKDF2_SHA256) {
+            if (cost < MIN_COST || cost > COST) {
+                throw new IOException("Key derivation cost " + cost + " outside " + MIN_COST + ".." + COST
+                        + " (crypto.kdf.cost)");
+            }
+        } else if (kdf == KDF_HKDF_SHA256) {
+            if (cost != 0) throw new IOException("Unsupported key derivation cost " + cost);
+        } else {
+            throw new IOException("Unsupported key derivation " + kdf);
+        }
+
+        byte[] fp = fingerprint(salt, password);
+        String id = idOf(suite, kdf, cost, salt, fp);
+        CryptoSession hit = cached(id);
+        if (hit != null) return hit;
+
+        CompletableFuture<CryptoSession> mine = new CompletableFuture<>();
+        CompletableFuture<CryptoSession> running = DERIVING.putIfAbsent(id, mine);
+        if (running != null) return await(running);
+        try {
+            CryptoSession s = cached(id); // finished between our cache check and putIfAbsent?
+            if (s == null) {
+                s = new CryptoSession(suite, kdf, cost, salt.clone(), password, fp);
+                remember(s);
+            }
+            mine.complete(s);
+            return s;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            DERIVING.remove(id, mine);
+        }
+    }
+
+    private static CryptoSession cached(String id) {
+        synchronized (SESSIONS) {
+            return SESSIONS.get(id);
+        }
+    }
+
+    private static CryptoSession await(CompletableFuture<CryptoSession> running) throws IOException {
+        try {
+            return running.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new IOException("Key derivation failed", e.getCause());
+        }
+    }
+
+    // ============================
+    // ✅ What containers need
+    // ============================
+
+    byte suite()    { return suite; }
+    byte kdf()      { return kdf; }
+    int cost()      { return cost; }
+    byte[] salt()   { return salt.clone(); }
+
+    /** Next nonce prefix of this session (7 bytes, big-endian counter). */
+    byte[] nextNoncePrefix() {
+        long n = nextPrefix.getAndIncrement();
+        if (n >>> (8 * PREFIX_BYTES) != 0) throw new IllegalStateException("Nonce prefixes used up");
+        byte[] p = new byte[PREFIX_BYTES];
+        for (int i = PREFIX_BYTES - 1; i >= 0; i--, n >>>= 8) p[i] = (byte) n;
+        return p;
+    }
+
+    /** This thread's cipher of the session's suite, ready for one segment under its key. */
+    Cipher cipher(int mode, byte[] nonce) throws GeneralSecurityException {
+        Cipher[] mine = CIPHERS.get();
+        Cipher c = mine[suite];
+        if (c == null) {
+            c = CipherSuites.newCipher(suite);
+            mine[suite] = c;
+        }
+        try {
+            c.init(mode, key, CipherSuites.params(suite, nonce));
+        } catch (InvalidKeyException e) {
+            // ChaCha20 refuses the key + nonce of its previous init even for opening
+            // (same segment read twice) → a fresh cipher. Sealing keeps the refusal.
+            if (mode != Cipher.DECRYPT_MODE) throw e;
+            c = CipherSuites.newCipher(suite);
+            mine[suite] = c;
+            c.init(mode, key, CipherSuites.params(suite, nonce));
+        }
+        return c;
+    }
+
+    // ============================
+    // ✅ Helpers
+    // ============================
+
+    /** 32 key bytes for this kdf. */
+    private static byte[] deriveKey(byte kdf, int cost, byte[] salt, String password) {
+        if (password == null) password = "";
+        try {
+            if (kdf == KDF_HKDF_SHA256) {
+                return hkdf(AesUtil.buildKeyFromPassword(password).getEncoded(), salt);
+            }
+            PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, 1 << cost, 256);
+            try {
+                return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+            } finally {
+                spec.clearPassword();
+            }
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Key derivation not available", e);
+        }
+    }
+
+    /** HKDF-SHA256 (RFC 5869), one output block. */
+    private static byte[] hkdf(byte[] ikm, byte[] salt) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(salt, "HmacSHA256"));
+        byte[] prk = mac.doFinal(ikm);
+        mac.init(new SecretKeySpec(prk, "HmacSHA256"));
+        mac.update("FSG1 segment key".getBytes(StandardCharsets.US_ASCII));
+        mac.update((byte) 1);
+        return mac.doFinal();
+    }
+
+    private static byte[] fingerprint(byte[] salt, String password) {
+        MessageDigest md = HashUtil.sha256Digest();
+        md.update(salt);
+        md.update((password == null ? "" : password).getBytes(StandardCharsets.UTF_8));
+        return md.digest();
+    }
+
+    /** The fingerprint is part of the id: a wrong password never pushes out the right session. */
+    private static String idOf(byte suite, byte kdf, int cost, byte[] salt, byte[] fingerprint) {
+        Base64.Encoder b64 = Base64.getEncoder();
+        return suite + ":" + kdf + ":" + cost + ":" + b64.encodeToString(salt) + ":" + b64.encodeToString(fingerprint);
+    }
+
+    private static void remember(CryptoSession s) {
+        synchronized (SESSIONS) {
+            SESSIONS.put(idOf(s.suite, s.kdf, s.cost, s.salt, s.fingerprint), s);
+            Iterator<String> it = SESSIONS.keySet().iterator();
+            while (SESSIONS.size() > MAX_ENTRIES && it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,630 @@
+package com.filesharingapp.security;
+
+import com.filesharingapp.utils.AppConfig;
+import com.filesharingapp.utils.BufferPool;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.LongStream;
+
+/**
+ * SegmentedGcm
+ * ------------
+ * Baby-English:
+ *   ✔ Our encrypted container ("FSG1"): a small header, then the data cut into
+ *     segments, and every segment sealed on its own with an AEAD cipher
+ *     (suite 1 = AES-256-GCM, suite 2 = ChaCha20-Poly1305; see CipherSuites).
+ *   ✔ Layout:
+ *       header (36 bytes):
+ *         "FSG1" | version | suite | kdf | cost | segmentBytes (int) | salt (16) | nonce prefix (7) | 0
+ *       segment 0 .. n-1: ciphertext (segmentBytes; only the last may be shorter) + 16-byte tag
+ *   ✔ Nonce of segment i = prefix || i (4 bytes) || "last" flag (1 byte).
+ *     → segments are sealed and opened in any order, on all cores.
+ *     → cutting segments off the end is caught (the new end has no "last" flag).
+ *   ✔ The suite is the session's: both use a 12-byte nonce and a 16-byte tag,
+ *     so the layout is the same for every suite.
+ *   ✔ Key = PBKDF2-HMAC-SHA256(password, salt, 2^cost rounds), worked out ONCE per
+ *     transfer by its CryptoSession. All containers of a session share the salt and
+ *     get the next nonce prefix, so a nonce is never used twice under one key.
+ *     (kdf 1 = older containers: HKDF-SHA256(password key, salt), one per container.)
+ *   ✔ The header is authenticated data of every segment (it cannot be swapped).
+ *   ✔ Segment i always starts at header + i × (segmentBytes + 16):
+ *     → resume or seek at any segment boundary without reading what comes before.
+ *     → readSegment(...) decrypts just the segments under a byte range (HTTP Range downloads).
+ *   ✔ ByteBuffer entry points (sealSegment / openSegment / ...InPlace) work on pooled
+ *     direct buffers, so the upload and download paths make no garbage per chunk.
+ *   ✔ An empty input is one empty (tag-only) segment.
+ *
+ * Config (application.properties):
+ *   crypto.segmentBytes → plain bytes per segment (default 64 KiB)
+ *   crypto.parallelism  → threads for whole-file encrypt/decrypt (0 = one per core)
+ */
+public final class SegmentedGcm {
+
+    public static final int HEADER_BYTES = 36;
+    public static final int TAG_BYTES = 16;
+    public static final int DEFAULT_SEGMENT_BYTES =
+            Math.max(1024, AppConfig.getInt("crypto.segmentBytes", 64 * 1024));
+
+    private static final byte[] MAGIC = {'F', 'S', 'G', '1'};
+    private static final byte VERSION = 1;
+    private static final int SALT_BYTES = CryptoSession.SALT_BYTES;
+    private static final int PREFIX_BYTES = CryptoSession.PREFIX_BYTES;
+    private static final int NONCE_BYTES = 12;
+    private static final long MAX_SEGMENTS = 0xFFFFFFFFL;
+
+    /** Segments per parallel task (~1 MiB of work each). */
+    private static final int BATCH_BYTES = 1024 * 1024;
+
+    private static final int PARALLELISM = AppConfig.getInt("crypto.parallelism", 0);
+    private static final ForkJoinPool POOL = new ForkJoinPool(
+            PARALLELISM > 0 ? PARALLELISM : Runtime.getRuntime().availableProcessors());
+
+    private final byte[] header;
+    private final int segmentBytes;
+    private final byte[] noncePrefix;
+    private final CryptoSession session;
+
+    private SegmentedGcm(byte[] header, CryptoSession session) {
+        this.header = header;
+        this.segmentBytes = ByteBuffer.wrap(header, 8, 4).getInt();
+        this.noncePrefix = Arrays.copyOfRange(header, 28, 28 + PREFIX_BYTES);
+        this.session = session;
+    }
+
+    /**
+     * Thrown when a segment does not authenticate (damaged bytes or wrong password).
+     */
+    public static final class BadSegmentException extends IOException {
+        public BadSegmentException(String message) {
+            super(message);
+        }
+    }
+
+    // ============================
+    // ✅ Create / open
+    // ============================
+
+    /** New container of this session: its salt, the session's next nonce prefix. */
+    public static SegmentedGcm create(CryptoSession session, int segmentBytes) {
+        if (segmentBytes <= 0) throw new IllegalArgumentException("segmentBytes must be > 0");
+        byte[] h = new byte[HEADER_BYTES];
+        System.arraycopy(MAGIC, 0, h, 0, MAGIC.length);
+        h[4] = VERSION;
+        h[5] = session.suite();
+        h[6] = session.kdf();
+        h[7] = (byte) session.cost();
+        ByteBuffer.wrap(h, 8, 4).putInt(segmentBytes);
+        System.arraycopy(session.salt(), 0, h, 12, SALT_BYTES);
+        System.arraycopy(session.nextNoncePrefix(), 0, h, 12 + SALT_BYTES, PREFIX_BYTES);
+        return new SegmentedGcm(h, session);
+    }
+
+    /** New container with a session of its own (one-off files). */
+    public static SegmentedGcm create(String password, int segmentBytes) {
+        return create(CryptoSession.create(password), segmentBytes);
+    }
+
+    /**
+     * open
+     * ----
+     * Baby-English:
+     *   ✔ Existing container, from its 36 header bytes.
+     *   ✔ The key comes from CryptoSession's cache when another container of the same
+     *     transfer was opened before (same salt, same password) → no key stretching.
+     */
+    public static SegmentedGcm open(String password, byte[] header) throws IOException {
+        if (header == null || header.length < HEADER_BYTES || !isContainer(header, header.length)) {
+            throw new IOException("Not an FSG1 container");
+        }
+        if (header[4] != VERSION) throw new IOException("Unsupported container version " + header[4]);
+        byte[] h = Arrays.copyOf(header, HEADER_BYTES);
+        if (ByteBuffer.wrap(h, 8, 4).getInt() <= 0) throw new IOException("Invalid segment size");
+        CryptoSession session = CryptoSession.forHeader(password, h[5], h[6], h[7] & 0xff,
+                Arrays.copyOfRange(h, 12, 12 + SALT_BYTES));
+        return new SegmentedGcm(h, session);
+    }
+
+    /** True when these first bytes start with the "FSG1" magic. */
+    public static boolean isContainer(byte[] head, int len) {
+        if (head == null || len < MAGIC.length) return false;
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (head[i] != MAGIC[i]) return false;
+        }
+        return true;
+    }
+
+    /** True when this file is an FSG1 container (old files are plain AES/CBC). */
+    public static boolean isContainer(File file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer b = ByteBuffer.allocate(MAGIC.length);
+            while (b.hasRemaining() && ch.read(b) >= 0) {
+                // keep reading
+            }
+            return isContainer(b.array(), b.position());
+        }
+    }
+
+    // ============================
+    // ✅ Sizes and positions
+    // ============================
+
+    public byte[] header()      { return header.clone(); }
+    public int segmentBytes()   { return segmentBytes; }
+
+    /** Segments needed for plainSize bytes (an empty input still has one). */
+    public long segmentCount(long plainSize) {
+        return Math.max(1L, (plainSize + segmentBytes - 1) / segmentBytes);
+    }
+
+    /** Container size for plainSize plain bytes. */
+    public long cipherSize(long plainSize) {
+        return HEADER_BYTES + plainSize + segmentCount(plainSize) * TAG_BYTES;
+    }
+
+    /** Plain size inside a container of cipherSize bytes. */
+    public long plainSize(long cipherSize) throws IOException {
+        long body = cipherSize - HEADER_BYTES;
+        long full = (long) segmentBytes + TAG_BYTES;
+        long n = Math.max(1L, (body + full - 1) / full);
+        long lastLen = body - (n - 1) * full;
+        if (body < TAG_BYTES || lastLen < TAG_BYTES) throw new IOException("Truncated container (" + cipherSize + " bytes)");
+        return body - n * TAG_BYTES;
+    }
+
+    /** Where segment i starts inside the container. */
+    public long cipherOffsetOf(long index) {
+        return HEADER_BYTES + index * ((long) segmentBytes + TAG_BYTES);
+    }
+
+    // ============================
+    // ✅ One segment
+    // ============================
+
+    /**
+     * Seal segment "index": len plain bytes → len + 16 bytes at out[outOff].
+     *
+     * @return bytes written
+     */
+    public int sealSegment(long index, boolean last, byte[] in, int off, int len, byte[] out, int outOff)
+            throws IOException {
+        try {
+            Cipher c = cipher(Cipher.ENCRYPT_MODE, index, last);
+            return c.doFinal(in, off, len, out, outOff);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Segment " + index + " could not be sealed", e);
+        }
+    }
+
+    /**
+     * Open segment "index": len sealed bytes (ciphertext + tag) → len - 16 plain bytes.
+     *
+     * @return plain bytes written
+     * @throws BadSegmentException when the segment does not authenticate
+     */
+    public int openSegment(long index, boolean last, byte[] in, int off, int len, byte[] out, int outOff)
+            throws IOException {
+        if (len < TAG_BYTES) throw new BadSegmentException("Segment " + index + " is shorter than its tag");
+        try {
+            Cipher c = cipher(Cipher.DECRYPT_MODE, index, last);
+            return c.doFinal(in, off, len, out, outOff);
+        } catch (AEADBadTagException e) {
+            throw new BadSegmentException("Segment " + index + " failed authentication");
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Segment " + index + " could not be opened", e);
+        }
+    }
+
+    // ============================
+    // ✅ ByteBuffer to ByteBuffer (no garbage)
+    // ============================
+
+    /**
+     * sealSegment (buffers)
+     * ---------------------
+     * Baby-English:
+     *   ✔ Seal all of in's remaining bytes as segment "index" into out (ciphertext + tag).
+     *   ✔ No byte[] in between: pooled direct buffers stay off-heap the whole way.
+     *   ✔ in and out may be two views of the SAME memory, as long as out starts
+     *     at or before in (that is how we seal in place).
+     *   ✔ in's position moves to its limit, out's position past what was written.
+     *
+     * @return bytes written (in's remaining + 16)
+     */
+    public int sealSegment(long index, boolean last, ByteBuffer in, ByteBuffer out) throws IOException {
+        try {
+            return cipher(Cipher.ENCRYPT_MODE, index, last).doFinal(in, out);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Segment " + index + " could not be sealed", e);
+        }
+    }
+
+    /**
+     * Open segment "index": all of in's remaining sealed bytes → plain bytes into out.
+     * Same rules as sealSegment(index, last, in, out); in and out may share memory.
+     *
+     * @return plain bytes written (in's remaining - 16)
+     * @throws BadSegmentException when the segment does not authenticate
+     */
+    public int openSegment(long index, boolean last, ByteBuffer in, ByteBuffer out) throws IOException {
+        if (in.remaining() < TAG_BYTES) throw new BadSegmentException("Segment " + index + " is shorter than its tag");
+        try {
+            return cipher(Cipher.DECRYPT_MODE, index, last).doFinal(in, out);
+        } catch (AEADBadTagException e) {
+            throw new BadSegmentException("Segment " + index + " failed authentication");
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Segment " + index + " could not be opened", e);
+        }
+    }
+
+    /**
+     * Open buf's remaining sealed bytes in place.
+     * Afterwards buf's remaining bytes (same position) are the plain text.
+     */
+    public void openInPlace(long index, boolean last, ByteBuffer buf) throws IOException {
+        int start = buf.position();
+        int n = openSegment(index, last, buf, buf.duplicate());
+        buf.limit(start + n).position(start);
+    }
+
+    /**
+     * Seal buf's remaining plain bytes in place (needs 16 free bytes after the limit).
+     * Afterwards buf's remaining bytes (same position) are the sealed segment.
+     */
+    public void sealInPlace(long index, boolean last, ByteBuffer buf) throws IOException {
+        int start = buf.position();
+        int end = buf.limit() + TAG_BYTES;
+        if (end > buf.capacity()) throw new IOException("No room for the tag of segment " + index);
+        ByteBuffer out = buf.duplicate();
+        out.limit(end);
+        int n = sealSegment(index, last, buf, out);
+        buf.limit(start + n).position(start);
+    }
+
+    /** Sealed size of a run of segments holding plainLen bytes (one tag per segment). */
+    public int sealedLength(int plainLen) {
+        return plainLen + Math.max(1, (plainLen + segmentBytes - 1) / segmentBytes) * TAG_BYTES;
+    }
+
+    /**
+     * sealSegments
+     * ------------
+     * Baby-English:
+     *   ✔ Seal plain's remaining bytes as consecutive segments firstIndex, firstIndex+1, ...
+     *     into out (sealedLength(plain bytes) of room).
+     *   ✔ lastIndex = index of the container's final segment (gets the "last" flag).
+     *   ✔ Used for upload chunks: every chunk is a run of whole segments.
+     *   ✔ In place too: put the plain bytes sealedLength(len) - len bytes after the
+     *     start of out in the same buffer; every segment is written before the next is read.
+     *
+     * @return bytes written
+     */
+    public int sealSegments(ByteBuffer plain, long firstIndex, long lastIndex, ByteBuffer out) throws IOException {
+        int len = plain.remaining();
+        int n = Math.max(1, (len + segmentBytes - 1) / segmentBytes);
+        int end = plain.limit();
+        int written = 0;
+        for (int s = 0; s < n; s++) {
+            plain.limit(Math.min(end, plain.position() + segmentBytes));
+            long index = firstIndex + s;
+            written += sealSegment(index, index == lastIndex, plain, out);
+        }
+        plain.limit(end);
+        return written;
+    }
+
+    // ============================
+    // ✅ Streams
+    // ============================
+
+    /**
+     * Sealer
+     * ------
+     * Baby-English:
+     *   ✔ Seals a stream of unknown length, piece by piece.
+     *   ✔ One full segment is held back until more bytes come, so we know which one is last.
+     */
+    public final class Sealer {
+        private final byte[] plain = new byte[segmentBytes];
+        private final byte[] sealed = new byte[segmentBytes + TAG_BYTES];
+        private int fill;
+        private long index;
+        private boolean headerOut;
+
+        public void update(byte[] b, int off, int len, OutputStream out) throws IOException {
+            writeHeader(out);
+            while (len > 0) {
+                if (fill == segmentBytes) flushSegment(false, out);
+                int n = Math.min(len, segmentBytes - fill);
+                System.arraycopy(b, off, plain, fill, n);
+                fill += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        /** Seal what is left as the last segment. */
+        public void finish(OutputStream out) throws IOException {
+            writeHeader(out);
+            flushSegment(true, out);
+        }
+
+        private void writeHeader(OutputStream out) throws IOException {
+            if (!headerOut) {
+                headerOut = true;
+                out.write(header);
+            }
+        }
+
+        private void flushSegment(boolean last, OutputStream out) throws IOException {
+            if (index > MAX_SEGMENTS) throw new IOException("Too many segments");
+            int n = sealSegment(index++, last, plain, 0, fill, sealed, 0);
+            out.write(sealed, 0, n);
+            fill = 0;
+        }
+    }
+
+    public Sealer sealer() {
+        return new Sealer();
+    }
+
+    /**
+     * openingStream
+     * -------------
+     * Baby-English:
+     *   ✔ Reads the header from "in", then hands out plain bytes segment by segment.
+     *   ✔ Every segment is checked before any of its bytes are handed out.
+     */
+    public static InputStream openingStream(InputStream in, String password) throws IOException {
+        byte[] h = in.readNBytes(HEADER_BYTES);
+        if (h.length < HEADER_BYTES) throw new EOFException("Missing container header");
+        return open(password, h).new OpeningStream(in);
+    }
+
+    private final class OpeningStream extends InputStream {
+        private final PushbackInputStream in;
+        private final byte[] sealed = new byte[segmentBytes + TAG_BYTES];
+        private final byte[] plain = new byte[segmentBytes];
+        private int pos;
+        private int limit;
+        private long index;
+        private boolean done;
+
+        OpeningStream(InputStream in) {
+            this.in = new PushbackInputStream(in, 1);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) return -1;
+            return plain[pos++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (!fill()) return -1;
+            int n = Math.min(len, limit - pos);
+            System.arraycopy(plain, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        /** Next segment when the current one is used up; false at the end. */
+        private boolean fill() throws IOException {
+            while (pos == limit) {
+                if (done) return false;
+                int got = in.readNBytes(sealed, 0, sealed.length);
+                if (got == 0 && index > 0) throw new BadSegmentException("Container ends without its last segment");
+                boolean last = got < sealed.length;
+                if (!last) {
+                    int next = in.read();
+                    if (next < 0) last = true;
+                    else in.unread(next);
+                }
+                limit = openSegment(index++, last, sealed, 0, got, plain, 0);
+                pos = 0;
+                done = last;
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    // ============================
+    // ✅ Random access
+    // ============================
+
+    /**
+     * openFile
+     * --------
+     * Baby-English:
+     *   ✔ Read the header of an encrypted file; null when it is not a container (older AES/CBC).
+     *   ✔ Segment 0 is opened once, so a wrong password is caught before anything is sent.
+     */
+    public static SegmentedGcm openFile(Path file, String password) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (ch.size() < HEADER_BYTES) return null;
+            ByteBuffer h = ByteBuffer.allocate(HEADER_BYTES);
+            readFully(ch, h, 0);
+            if (!isContainer(h.array(), HEADER_BYTES)) return null;
+
+            SegmentedGcm gcm = open(password, h.array());
+            long plainSize = gcm.plainSize(ch.size());
+            ByteBuffer buf = BufferPool.acquire(gcm.sealedSegmentBytes());
+            try {
+                gcm.readSegment(ch, plainSize, 0, buf);
+            } finally {
+                BufferPool.release(buf);
+            }
+            return gcm;
+        }
+    }
+
+    /** Room one sealed segment needs (segment + tag): the buffer size for readSegment. */
+    public int sealedSegmentBytes() {
+        return segmentBytes + TAG_BYTES;
+    }
+
+    /**
+     * readSegment
+     * -----------
+     * Baby-English:
+     *   ✔ Read segment "index" of the container in "ch" (plainSize plain bytes) into buf
+     *     and open it in place; afterwards buf holds its plain bytes (position 0).
+     *   ✔ Segment i sits at cipherOffsetOf(i), so no earlier byte is touched:
+     *     a byte range costs only the segments under it, each one checked.
+     *   ✔ buf needs sealedSegmentBytes() of capacity (a pooled direct buffer is best).
+     *
+     * @return plain bytes in buf
+     */
+    public int readSegment(FileChannel ch, long plainSize, long index, ByteBuffer buf) throws IOException {
+        long count = segmentCount(plainSize);
+        if (index < 0 || index >= count) throw new IOException("No segment " + index + " (" + count + " in file)");
+        int len = (int) Math.min(segmentBytes, plainSize - index * segmentBytes) + TAG_BYTES;
+        buf.clear().limit(len);
+        readFully(ch, buf, cipherOffsetOf(index));
+        buf.flip();
+        openInPlace(index, index == count - 1, buf);
+        return buf.remaining();
+    }
+
+    // ============================
+    // ✅ Whole files, on all cores
+    // ============================
+
+    /** Encrypt a whole file into a new container; segments are sealed in parallel. */
+    public static void encryptFile(File input, File output, String password) throws IOException {
+        SegmentedGcm gcm = create(password, DEFAULT_SEGMENT_BYTES);
+        try (FileChannel src = FileChannel.open(input.toPath(), StandardOpenOption.READ);
+             FileChannel dst = FileChannel.open(output.toPath(), StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long plainSize = src.size();
+            long count = gcm.segmentCount(plainSize);
+            if (count > MAX_SEGMENTS + 1) throw new IOException("File too large for segment size");
+            writeFully(dst, ByteBuffer.wrap(gcm.header), 0);
+
+            gcm.forEachBatch(count, (from, to) -> {
+                ByteBuffer buf = BufferPool.acquire(gcm.sealedSegmentBytes());
+                try {
+                    for (long i = from; i < to; i++) {
+                        long pos = i * gcm.segmentBytes;
+                        buf.clear().limit((int) Math.min(gcm.segmentBytes, plainSize - pos));
+                        readFully(src, buf, pos);
+                        buf.flip();
+                        gcm.sealInPlace(i, i == count - 1, buf);
+                        writeFully(dst, buf, gcm.cipherOffsetOf(i));
+                    }
+                } finally {
+                    BufferPool.release(buf);
+                }
+            });
+        }
+    }
+
+    /** Decrypt a whole container; segments are opened (and checked) in parallel. */
+    public static void decryptFile(File input, File output, String password) throws IOException {
+        try (FileChannel src = FileChannel.open(input.toPath(), StandardOpenOption.READ);
+             FileChannel dst = FileChannel.open(output.toPath(), StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer h = ByteBuffer.allocate(HEADER_BYTES);
+            readFully(src, h, 0);
+            SegmentedGcm gcm = open(password, h.array());
+            long plainSize = gcm.plainSize(src.size());
+            long count = gcm.segmentCount(plainSize);
+
+            gcm.forEachBatch(count, (from, to) -> {
+                ByteBuffer buf = BufferPool.acquire(gcm.sealedSegmentBytes());
+                try {
+                    for (long i = from; i < to; i++) {
+                        gcm.readSegment(src, plainSize, i, buf);
+                        writeFully(dst, buf, i * gcm.segmentBytes);
+                    }
+                } finally {
+                    BufferPool.release(buf);
+                }
+            });
+        }
+    }
+
+    @FunctionalInterface
+    private interface Batch {
+        void run(long from, long to) throws IOException;
+    }
+
+    /** Split [0, count) into ~1 MiB batches and run them on the crypto pool. */
+    private void forEachBatch(long count, Batch batch) throws IOException {
+        long perBatch = Math.max(1, BATCH_BYTES / segmentBytes);
+        long batches = (count + perBatch - 1) / perBatch;
+        try {
+            POOL.submit(() -> LongStream.range(0, batches).parallel().forEach(b -> {
+                try {
+                    batch.run(b * perBatch, Math.min(count, (b + 1) * perBatch));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            })).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) throw ((UncheckedIOException) cause).getCause();
+            throw new IOException(cause);
+        }
+    }
+
+    // ============================
+    // ✅ Helpers
+    // ============================
+
+    private Cipher cipher(int mode, long index, boolean last) throws GeneralSecurityException {
+        if (index < 0 || index > MAX_SEGMENTS) throw new GeneralSecurityException("Segment index out of range: " + index);
+        byte[] nonce = new byte[NONCE_BYTES];
+        System.arraycopy(noncePrefix, 0, nonce, 0, PREFIX_BYTES);
+        nonce[7] = (byte) (index >>> 24);
+        nonce[8] = (byte) (index >>> 16);
+        nonce[9] = (byte) (index >>> 8);
+        nonce[10] = (byte) index;
+        nonce[11] = (byte) (last ? 1 : 0);
+
+        Cipher c = session.cipher(mode, nonce);   // this thread's cipher, no getInstance per segment
+        c.updateAAD(header);
+        return c;
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer dst, long position) throws IOException {
+        long pos = position;
+        while (dst.hasRemaining()) {
+            int n = ch.read(dst, pos);
+            if (n < 0) throw new EOFException("Unexpected end of file at " + pos);
+            pos += n;
+        }
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer src, long position) throws IOException {
+        long pos = position;
+        while (src.hasRemaining()) {
+            pos += ch.write(src, pos);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.filesharingapp.server;
+
+import com.filesharingapp.utils.LoggerUtil;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * AsyncChunkReader
+ * ----------------
+ * Baby-English:
+ *   ✔ Non-blocking reader for ONE chunk upload (server.io.mode=async).
+ *   ✔ Jetty calls onDataAvailable() only when bytes are waiting on the socket.
+ *   ✔ We read what is there, hand it to the ChunkWriter, and give the thread back.
+ *   ✔ A slow client therefore costs a small buffer, not a whole thread.
+ *   ✔ onAllDataRead() → finish the chunk and answer with the usual JSON.
+ *   ✔ A chunk that fails (I/O error, dropped connection) fails only this request:
+ *     its claimed blocks are given back and the transfer stays IN_PROGRESS, so the
+ *     sender can resend just this chunk.
+ */
+final class AsyncChunkReader implements ReadListener {
+
+    private static final int READ_BUFFER = 8 * 1024;
+
+    private final AsyncContext async;
+    private final ServletInputStream in;
+    private final ChunkUploadService.ChunkWriter writer;
+    private final TransferStatusRegistry.Entry status;
+    private final String transferId;
+    private final String fileName;
+    private final long resumeOffset;
+    private final byte[] buf = new byte[READ_BUFFER];
+    private boolean done;
+
+    AsyncChunkReader(AsyncContext async,
+                     ServletInputStream in,
+                     ChunkUploadService.ChunkWriter writer,
+                     TransferStatusRegistry.Entry status,
+                     String transferId,
+                     String fileName,
+                     long resumeOffset) {
+        this.async = async;
+        this.in = in;
+        this.writer = writer;
+        this.status = status;
+        this.transferId = transferId;
+        this.fileName = fileName;
+        this.resumeOffset = resumeOffset;
+    }
+
+    @Override
+    public void onDataAvailable() throws IOException {
+        int len;
+        // isReady() false → Jetty calls us again when more bytes arrive.
+        while (in.isReady() && (len = in.read(buf)) != -1) {
+            writer.write(ByteBuffer.wrap(buf, 0, len));
+        }
+    }
+
+    @Override
+    public void onAllDataRead() throws IOException {
+        if (done) return;
+        done = true;
+
+        HttpServletResponse resp = (HttpServletResponse) async.getResponse();
+        try {
+            String result = writer.finish();
+            boolean merged = "MERGED".equalsIgnoreCase(result);
+            if (merged) {
+                status.complete(Path.of("received", fileName).toAbsolutePath().toString());
+            }
+            resp.setStatus(HttpServletResponse.SC_OK);
+            resp.getWriter().write(UploadServlet.chunkResponseJson(merged, status, resumeOffset, transferId));
+        } catch (ChunkUploadService.CorruptChunkException ex) {
+            resp.setStatus(UploadServlet.SC_UNPROCESSABLE_ENTITY);
+            resp.getWriter().write(UploadServlet.corruptChunkJson(ex, transferId));
+        } catch (ChunkUploadService.CorruptFileException ex) {
+            resp.setStatus(HttpServletResponse.SC_CONFLICT);
+            resp.getWriter().write(UploadServlet.corruptFileJson(ex, transferId));
+        } catch (Exception ex) {
+            LoggerUtil.warn("[Async] Chunk failed, waiting for a resend: " + ex.getMessage(), transferId);
+            resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            resp.getWriter().write(UploadServlet.chunkFailedJson(transferId));
+        } finally {
+            writer.close();
+            async.complete();
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        if (done) return;
+        done = true;
+
+        LoggerUtil.warn("[Async] Chunk upload failed, waiting for a resend: " + t.getMessage(), transferId);
+        try {
+            writer.close(); // not finished → nothing marked; its claimed blocks are free again
+            HttpServletResponse resp = (HttpServletResponse) async.getResponse();
+            if (!resp.isCommitted()) {
+                resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                resp.getWriter().write(UploadServlet.chunkFailedJson(transferId));
+            }
+        } catch (IOException | RuntimeException e) {
+            LoggerUtil.warn("[Async] Could not report upload error: " + e.getMessage(), transferId);
+        } finally {
+            async.complete();
+        }
+    }
+}
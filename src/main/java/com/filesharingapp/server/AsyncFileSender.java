@@ -0,0 +1,92 @@
+package com.filesharingapp.server;
+
+import com.filesharingapp.core.TransferContext;
+import com.filesharingapp.utils.LoggerUtil;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import org.eclipse.jetty.server.HttpOutput;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * AsyncFileSender
+ * ---------------
+ * Baby-English:
+ *   ✔ Non-blocking file download (server.io.mode=async).
+ *   ✔ Jetty calls onWritePossible() when the socket can take more bytes.
+ *   ✔ We write while isReady() says yes, then give the thread back.
+ *   ✔ A slow reader therefore costs a small buffer, not a whole thread.
+ *   ✔ Bytes are read with positional reads, from "start" to the end of the file.
+ *   ✔ Zero-copy (download.zeroCopy.enabled): mapped file windows go straight to
+ *     Jetty's output, no byte[] copy at all.
+ */
+final class AsyncFileSender implements WriteListener {
+
+    private static final int WRITE_BUFFER = 32 * 1024;
+
+    private final AsyncContext async;
+    private final ServletOutputStream out;
+    private final FileChannel file;
+    private final String transferId;
+    private final long end;
+    private final boolean zeroCopy;
+    private final byte[] buf;
+    private long position;
+
+    AsyncFileSender(AsyncContext async, ServletOutputStream out, FileChannel file,
+                    String transferId, long start, long end) {
+        this.async = async;
+        this.out = out;
+        this.file = file;
+        this.transferId = transferId;
+        this.position = start;
+        this.end = end;
+        this.zeroCopy = DownloadService.isZeroCopy(out);
+        this.buf = zeroCopy ? null : new byte[WRITE_BUFFER];
+    }
+
+    @Override
+    public void onWritePossible() throws IOException {
+        while (out.isReady()) {
+            if (position >= end) {
+                file.close();
+                LoggerUtil.success("[Download] File fully delivered (" + end + " bytes)", transferId);
+                async.complete();
+                return;
+            }
+
+            if (zeroCopy) {
+                MappedByteBuffer window = DownloadService.mapWindow(file, position, end);
+                int n = window.remaining();
+                ((HttpOutput) out).write(window);
+                position += n;
+                TransferContext.addReceivedBytes(transferId, n);
+                continue;
+            }
+
+            ByteBuffer bb = ByteBuffer.wrap(buf, 0, (int) Math.min(buf.length, end - position));
+            int n = file.read(bb, position);
+            if (n < 0) throw new IOException("File shrank during download at offset " + position);
+
+            out.write(buf, 0, n);
+            position += n;
+            TransferContext.addReceivedBytes(transferId, n);
+        }
+        // isReady() false → Jetty calls us again when the client has drained the socket.
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        LoggerUtil.error("Async download failed at offset " + position, t, transferId);
+        try {
+            file.close();
+        } catch (IOException e) {
+            LoggerUtil.warn("[Async] Could not close file: " + e.getMessage(), transferId);
+        }
+        async.complete();
+    }
+}
@@ -1,13 +1,30 @@
 package com.filesharingapp.server;
 
 import com.filesharingapp.core.TransferContext;
-import com.filesharingapp.security.AesUtil;
+import com.filesharingapp.security.SegmentedGcm;
+import com.filesharingapp.utils.AppConfig;
+import com.filesharingapp.utils.BufferPool;
+import com.filesharingapp.utils.HashUtil;
 import com.filesharingapp.utils.LoggerUtil;
+import com.filesharingapp.utils.TreeHash;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Arrays;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
 
 /**
  * ChunkUploadService
@@ -18,19 +35,96 @@ import java.util.Arrays;
  *       1) handleStream(...) → ONE big HTTP stream (supports resume).
  *       2) handleChunk(...) → Many small pieces (chunks).
  *
+ *   ✔ Chunks are addressed by index (fixed chunkSize) or by byte offset
+ *     (handleChunkAt: any whole number of chunkSize blocks, so senders can adapt).
+ *
+ *   ✔ Chunk placement (upload.chunk.placement):
+ *       - "positional" (default) → each chunk is written straight into a
+ *         preallocated ".part" file at chunkIndex * chunkSize, then renamed.
+ *       - "staged" → each chunk is its own file, merged at the end.
+ *         Also used when the client does not send a chunkSize.
+ *
  *   ✔ Folders:
  *       - "received" → final files ready for download.
- *       - "tmp/uploads" → temporary chunks before merge.
+ *       - "tmp/uploads" → ".part" files and temporary chunks before merge.
+ *
+ *   ✔ Journal (upload.journal.enabled):
+ *       - Every chunked upload keeps "tmp/uploads/<transferId>.journal" (see UploadJournal).
+ *       - On server start, recoverFromJournals() rebuilds the chunk maps, so senders
+ *         can resume right away instead of re-uploading the whole file.
  *
  *   ✔ AES:
  *       - If sender encrypted → decrypt before writing (optional).
+ *       - Both stream and chunk bodies use the SegmentedGcm format: every
+ *         segment is authenticated, so damage or a wrong key is caught per segment.
  *       - If AES disabled → raw copy.
+ *
+ *   ✔ CRC32C (X-Chunk-CRC32C):
+ *       - Checked over the bytes as they came off the wire, before anything is marked.
+ *       - Mismatch → CorruptChunkException (422): only that chunk is sent again.
+ *
+ *   ✔ Block hashes (upload.chunk.verify):
+ *       - A chunk that brings X-Chunk-Hash is hashed per block (TreeHash leaf rule) while
+ *         it is written and must match, or CorruptChunkException (same as above).
+ *       - Other positional chunks are hashed in the background once accepted (off the request path).
+ *       - At the end the Merkle root comes from the kept block hashes (/status "blockRoot").
+ *         X-Checksum a tree digest with bigger blocks (4 MiB)? Those tree blocks are hashed in
+ *         the background as they fill up, so the root is still "hash the hashes".
+ *       - Any other X-Checksum (plain SHA-256, ...) needs a file read: it runs in the background,
+ *         the transfer says VERIFYING meanwhile, never on the request that brought the last chunk.
+ *       - A file that does not match X-Checksum is thrown away (409, transfer FAILED,
+ *         every block missing again) instead of being renamed into place.
+ *       - A chunk writes only the blocks that are not received yet and that no other request is
+ *         writing (PositionalUpload.claim); the rest of its body is read and checked, not written.
+ *         → a resent or re-carved chunk, even a damaged one, can never overwrite good data.
  */
 public final class ChunkUploadService {
 
     private static final Path TMP_DIR = Path.of("tmp", "uploads");
     private static final Path RECEIVED_DIR = Path.of("received");
 
+    /** True → write chunks in place; false → legacy tmp chunk files + merge. */
+    private static final boolean POSITIONAL_PLACEMENT =
+            !"staged".equalsIgnoreCase(AppConfig.get("upload.chunk.placement", "positional"));
+
+    /** Open positional uploads, one per transferId. */
+    private static final Map<String, PositionalUpload> POSITIONAL_UPLOADS = new ConcurrentHashMap<>();
+
+    /** Crash-safe chunk journals, one per unfinished chunked upload. */
+    private static final boolean JOURNAL_ENABLED = AppConfig.getBoolean("upload.journal.enabled", true);
+    private static final boolean JOURNAL_FSYNC = AppConfig.getBoolean("upload.journal.fsync", false);
+    private static final Map<String, UploadJournal> JOURNALS = new ConcurrentHashMap<>();
+
+    /** Hash positional chunks block by block (check X-Chunk-Hash, build the final root). */
+    private static final boolean VERIFY_BLOCKS = AppConfig.getBoolean("upload.chunk.verify", true);
+
+    /**
+     * CorruptChunkException
+     * ---------------------
+     * Baby-English:
+     *   ✔ The chunk's bytes do not match the CRC32C or hash the sender sent with it.
+     *   ✔ Nothing was marked as received; the sender just resends this one chunk.
+     */
+    public static final class CorruptChunkException extends IOException {
+        public CorruptChunkException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * CorruptFileException
+     * --------------------
+     * Baby-English:
+     *   ✔ Every chunk came in, but the whole file does not match X-Checksum (tree root or SHA-256).
+     *   ✔ The ".part" file, its journal and its chunk map are gone; the transfer is FAILED with
+     *     zero bytes, and /status reports every block missing → the sender sends it again.
+     */
+    public static final class CorruptFileException extends IOException {
+        public CorruptFileException(String message) {
+            super(message);
+        }
+    }
+
     static {
         try {
             Files.createDirectories(TMP_DIR);
@@ -52,7 +146,11 @@ public final class ChunkUploadService {
      * Baby-English:
      *   ✔ We get ONE long stream of bytes from HTTP.
      *   ✔ If file exists → resume from offset.
-     *   ✔ If AES enabled → decrypt before writing.
+     *   ✔ If AES enabled → the body is a SegmentedGcm container: every segment is
+     *     checked and decrypted before it is written (a new container → start fresh).
+     *   ✔ Unknown length (-1, a sender pipeline still producing bytes):
+     *       → start fresh (nothing to resume), and SHA-256 what we write,
+     *         so the sender can compare it with its own digest.
      *
      * @param transferId unique transfer ID
      * @param fileName   final file name
@@ -71,56 +169,59 @@ public final class ChunkUploadService {
         if (fileName == null || fileName.isBlank()) throw new IOException("Missing fileName");
 
         Path outPath = RECEIVED_DIR.resolve(fileName);
-        long already = Files.exists(outPath) ? Files.size(outPath) : 0L;
+        boolean unknownLength = totalBytes < 0;
+        boolean fresh = unknownLength || aesPassword != null;
+        long already = (!fresh && Files.exists(outPath)) ? Files.size(outPath) : 0L;
+        MessageDigest sha = unknownLength ? HashUtil.sha256Digest() : null;
 
         LoggerUtil.info("[UploadStream] Saving to: " + outPath + " (resume offset=" + already + ")");
 
-        TransferStatusRegistry.begin(transferId, fileName, totalBytes);
+        TransferStatusRegistry.Entry status = TransferStatusRegistry.open(transferId, fileName, totalBytes);
         TransferContext.setFinalOutputPath(outPath.toString());
         TransferContext.setResumeOffsetBytes(already);
 
         try (OutputStream out = new BufferedOutputStream(
                 Files.newOutputStream(outPath,
                         java.nio.file.StandardOpenOption.CREATE,
-                        java.nio.file.StandardOpenOption.APPEND))) {
+                        fresh ? java.nio.file.StandardOpenOption.TRUNCATE_EXISTING
+                                : java.nio.file.StandardOpenOption.APPEND,
+                        java.nio.file.StandardOpenOption.WRITE))) {
+
+            // AES decrypt if enabled (segment by segment, each one authenticated)
+            InputStream src = (aesPassword != null)
+                    ? SegmentedGcm.openingStream(input, aesPassword)
+                    : input;
 
             byte[] buffer = new byte[8192];
             long written = already;
             int len;
 
-            while ((len = input.read(buffer)) != -1) {
-                byte[] toWrite = buffer;
-                int writeLen = len;
-
-                // AES decrypt if enabled
-                if (aesPassword != null) {
-                    try {
-                        byte[] chunk = Arrays.copyOf(buffer, len);
-                        toWrite = AesUtil.decrypt(chunk, aesPassword);
-                        writeLen = toWrite.length;
-                    } catch (Exception e) {
-                        LoggerUtil.error("[AES] Decryption failed during stream upload.", e);
-                        throw new IOException("AES decryption error");
-                    }
-                }
-
-                out.write(toWrite, 0, writeLen);
-                written += writeLen;
+            while ((len = src.read(buffer)) != -1) {
+                out.write(buffer, 0, len);
+                if (sha != null) sha.update(buffer, 0, len);
+                written += len;
 
-                TransferStatusRegistry.progress(written);
-                TransferContext.addReceivedBytes(transferId, writeLen);
+                status.progress(written);
+                TransferContext.addReceivedBytes(transferId, len);
 
                 if (written % (512 * 1024) < buffer.length) {
                     LoggerUtil.info("[UploadStream] Written " + written + " bytes so far.");
                 }
             }
             out.flush();
+        } catch (SegmentedGcm.BadSegmentException e) {
+            LoggerUtil.error("[AES] Decryption failed during stream upload: " + e.getMessage(), transferId);
+            status.fail("Stream upload error: " + e.getMessage());
+            throw e;
         } catch (IOException e) {
-            TransferStatusRegistry.fail("Stream upload error: " + e.getMessage());
+            status.fail("Stream upload error: " + e.getMessage());
             throw e;
         }
 
-        TransferStatusRegistry.complete(outPath.toAbsolutePath().toString());
+        if (sha != null && (status.getChecksum() == null || status.getChecksum().isEmpty())) {
+            status.setChecksum(HashUtil.bytesToHex(sha.digest()));
+        }
+        status.complete(outPath.toAbsolutePath().toString());
         LoggerUtil.success("[UploadStream] Finished. Total bytes now on disk=" + Files.size(outPath));
         TransferContext.setIncomingName(fileName);
 
@@ -135,93 +236,892 @@ public final class ChunkUploadService {
      * handleChunk
      * -----------
      * Baby-English:
-     *   ✔ Save each chunk in tmp/uploads.
-     *   ✔ If AES enabled → decrypt before saving.
-     *   ✔ When all chunks arrive → merge into final file.
+     *   ✔ Same as the stream version below, for callers that already hold the bytes.
+     */
+    public static String handleChunk(String transferId,
+                                     String fileName,
+                                     int chunkIndex,
+                                     int chunkSize,
+                                     int chunkCount,
+                                     long totalBytes,
+                                     byte[] body,
+                                     SegmentedGcm aes) throws IOException {
+        if (body == null) throw new IOException("Missing chunk body");
+        return handleChunk(transferId, fileName, chunkIndex, chunkSize, chunkCount, totalBytes,
+                new ByteArrayInputStream(body), aes, null);
+    }
+
+    /**
+     * handleChunk
+     * -----------
+     * Baby-English:
+     *   ✔ Blocking version: pull the body through one pooled buffer into a ChunkWriter.
+     *   ✔ The chunk body is streamed, never held whole on the heap.
      *
+     * @param chunkSize  plain-text size of every chunk except the last (0 if not declared)
+     * @param chunkCount number of chunks the sender will send (0 if not declared)
+     * @param body       request body (the caller closes it)
+     * @param aes        container the body's segments were sealed under (null = plain)
+     * @param crc32c     CRC32C of the body as sent (null = not checked)
      * @return "CHUNK-STORED" or "MERGED"
+     * @throws CorruptChunkException when the body does not match crc32c
      */
     public static String handleChunk(String transferId,
                                      String fileName,
                                      int chunkIndex,
+                                     int chunkSize,
+                                     int chunkCount,
                                      long totalBytes,
-                                     byte[] body,
-                                     String aesPassword) throws IOException {
+                                     InputStream body,
+                                     SegmentedGcm aes,
+                                     Integer crc32c) throws IOException {
+        if (body == null) throw new IOException("Missing chunk body");
+        try (ChunkWriter writer = openChunk(transferId, fileName, chunkIndex, chunkSize, chunkCount,
+                totalBytes, aes, crc32c)) {
+            return pump(body, writer);
+        }
+    }
 
-        // NOTE: RECEIVED_DIR and TMP_DIR must be correctly defined class-level static variables
-        // as per the rest of your ChunkUploadService.java file.
+    /**
+     * handleChunkAt
+     * -------------
+     * Baby-English:
+     *   ✔ Offset-addressed chunk: "these chunkLength bytes start at chunkOffset".
+     *   ✔ Chunks may be any whole number of blocks (blockSize = the declared chunkSize),
+     *     so a sender can grow or shrink its chunks mid-transfer.
+     *   ✔ Always positional; the bitmap, journal and /status still count blocks.
+     *
+     * @param chunkOffset byte offset of the first plain-text byte
+     * @param chunkLength plain-text bytes in this chunk
+     * @param blockSize   tracking unit (chunk offsets/lengths are multiples of it)
+     * @param aes         container the body's segments were sealed under (null = plain)
+     * @param chunkHash   hex TreeHash.chunkHash of the plain-text blocks (null = not checked)
+     * @param crc32c      CRC32C of the body as sent (null = not checked)
+     * @return "CHUNK-STORED" or "MERGED"
+     * @throws CorruptChunkException when the bytes do not match crc32c or chunkHash
+     */
+    public static String handleChunkAt(String transferId,
+                                       String fileName,
+                                       long chunkOffset,
+                                       long chunkLength,
+                                       int blockSize,
+                                       long totalBytes,
+                                       InputStream body,
+                                       SegmentedGcm aes,
+                                       String chunkHash,
+                                       Integer crc32c) throws IOException {
+        if (body == null) throw new IOException("Missing chunk body");
+        try (ChunkWriter writer = openChunkAt(transferId, fileName, chunkOffset, chunkLength, blockSize,
+                totalBytes, aes, chunkHash, crc32c)) {
+            return pump(body, writer);
+        }
+    }
+
+    /** Pull a blocking body through one pooled buffer into the writer. */
+    private static String pump(InputStream body, ChunkWriter writer) throws IOException {
+        ReadableByteChannel src = Channels.newChannel(body);
+        ByteBuffer buf = BufferPool.acquire();
+        try {
+            while (true) {
+                buf.clear();
+                if (src.read(buf) < 0) break;
+                buf.flip();
+                writer.write(buf);
+            }
+            return writer.finish();
+        } finally {
+            BufferPool.release(buf);
+        }
+    }
+
+    /**
+     * openChunk
+     * ---------
+     * Baby-English:
+     *   ✔ Get ready to receive one chunk, piece by piece (push style).
+     *   ✔ Used by the blocking handleChunk above and by the async upload path,
+     *     which feeds bytes whenever the socket has some.
+     *   ✔ Positional mode (chunkSize known) → bytes go straight to their place in the ".part" file.
+     *   ✔ Staged mode → bytes go to tmp/uploads/<id>.<n>.chunk.
+     */
+    static ChunkWriter openChunk(String transferId,
+                                 String fileName,
+                                 int chunkIndex,
+                                 int chunkSize,
+                                 int chunkCount,
+                                 long totalBytes,
+                                 SegmentedGcm aes,
+                                 Integer crc32c) throws IOException {
 
         if (transferId == null || transferId.isBlank()) throw new IOException("Missing transferId");
         if (fileName == null || fileName.isBlank()) throw new IOException("Missing fileName");
-        if (body == null) throw new IOException("Missing chunk body");
+        if (chunkSize > 0 && chunkCount > 0 && chunkCount != expectedChunkCount(totalBytes, chunkSize)) {
+            throw new IOException("chunkCount " + chunkCount + " does not match totalBytes/chunkSize");
+        }
+        checkAesLayout(aes, chunkSize);
+
+        TransferStatusRegistry.Entry status = TransferStatusRegistry.open(transferId, fileName, totalBytes);
+
+        if (POSITIONAL_PLACEMENT && chunkSize > 0) {
+            PositionalUpload upload = openPositional(transferId, fileName, chunkSize, totalBytes, status);
+            if (upload == null) {
+                // Late duplicate of a chunk after the file was already finished.
+                return new ChunkWriter(transferId, fileName, chunkIndex, chunkSize, chunkCount, totalBytes,
+                        status, null, null, aes).expect(null, crc32c);
+            }
+            upload.checkIndex(chunkIndex);
+            return new ChunkWriter(transferId, fileName, chunkIndex, chunkSize, chunkCount, totalBytes,
+                    status, upload, null, aes).expect(null, crc32c);
+        }
+
+        FileChannel staged = FileChannel.open(chunkFile(transferId, chunkIndex), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        return new ChunkWriter(transferId, fileName, chunkIndex, chunkSize, chunkCount, totalBytes,
+                status, null, staged, aes).expect(null, crc32c);
+    }
+
+    /**
+     * openChunkAt
+     * -----------
+     * Baby-English:
+     *   ✔ Push-style version of handleChunkAt (used by the async path too).
+     *   ✔ Offset chunks always go to the preallocated ".part" file,
+     *     even when upload.chunk.placement=staged (staged files are per index).
+     */
+    static ChunkWriter openChunkAt(String transferId,
+                                   String fileName,
+                                   long chunkOffset,
+                                   long chunkLength,
+                                   int blockSize,
+                                   long totalBytes,
+                                   SegmentedGcm aes,
+                                   String chunkHash,
+                                   Integer crc32c) throws IOException {
+
+        if (transferId == null || transferId.isBlank()) throw new IOException("Missing transferId");
+        if (fileName == null || fileName.isBlank()) throw new IOException("Missing fileName");
+        if (blockSize <= 0) throw new IOException("Offset chunks need a chunkSize (block size)");
+        checkAesLayout(aes, blockSize);
+
+        TransferStatusRegistry.Entry status = TransferStatusRegistry.open(transferId, fileName, totalBytes);
+        PositionalUpload upload = openPositional(transferId, fileName, blockSize, totalBytes, status);
+        if (upload == null) {
+            return new ChunkWriter(transferId, fileName, 0, blockSize, 0, totalBytes,
+                    status, null, null, aes).expect(null, crc32c);
+        }
+        int[] blocks = upload.blocksFor(chunkOffset, chunkLength);
+        return new ChunkWriter(transferId, fileName, blocks[0], blocks[1], chunkOffset, chunkLength,
+                upload.chunkCount, totalBytes, status, upload, aes).expect(chunkHash, crc32c);
+    }
+
+    /** AES chunks carry one SegmentedGcm segment per block, so both sizes must match. */
+    private static void checkAesLayout(SegmentedGcm aes, int chunkSize) throws IOException {
+        if (aes != null && aes.segmentBytes() != chunkSize) {
+            throw new IOException("AES segment size " + aes.segmentBytes() + " does not match chunkSize " + chunkSize);
+        }
+    }
+
+    /**
+     * expectedChunkCount
+     * ------------------
+     * Baby-English:
+     *   ✔ ceil(totalBytes / chunkSize), done in whole numbers (no float rounding).
+     *   ✔ An empty file is still one (empty) chunk.
+     */
+    public static int expectedChunkCount(long totalBytes, int chunkSize) {
+        return PositionalUpload.chunkCountFor(totalBytes, chunkSize);
+    }
+
+    /**
+     * openPositional
+     * --------------
+     * Baby-English:
+     *   ✔ First chunk to arrive (any index) opens the preallocated ".part" file.
+     *   ✔ Returns null when the upload is already finished (nothing left to write).
+     */
+    private static PositionalUpload openPositional(String transferId,
+                                                   String fileName,
+                                                   int chunkSize,
+                                                   long totalBytes,
+                                                   TransferStatusRegistry.Entry status) throws IOException {
+        if (status.getState() == TransferStatusRegistry.State.COMPLETED
+                && !POSITIONAL_UPLOADS.containsKey(transferId)) {
+            return null;
+        }
+
+        PositionalUpload upload;
+        try {
+            upload = POSITIONAL_UPLOADS.computeIfAbsent(transferId, id -> {
+                try {
+                    PositionalUpload u = PositionalUpload.open(id, fileName, totalBytes, chunkSize,
+                            TMP_DIR.resolve(id + ".part"), RECEIVED_DIR.resolve(fileName));
+                    if (VERIFY_BLOCKS) u.keepTreeLeaves(TreeHash.blockBytesOf(status.getChecksum()));
+                    TransferContext.initChunkState(id, u.chunkCount, u.chunkSize);
+                    TransferContext.setFinalOutputPath(u.finalFile.toString());
+                    openJournal(id, fileName, totalBytes, u.chunkSize, u.chunkCount, false, status.getChecksum());
+                    status.reopen(); // a file thrown away after a failed check is being sent again
+                    return u;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        if (upload.chunkSize != chunkSize || upload.totalBytes != totalBytes) {
+            throw new IOException("Chunk layout changed mid-transfer (chunkSize/totalBytes mismatch)");
+        }
+        return upload;
+    }
 
-        if (chunkIndex == 0) {
-            TransferStatusRegistry.begin(transferId, fileName, totalBytes);
-            TransferContext.initChunkState(transferId, (int) Math.ceil(totalBytes / (1024 * 1024))); // rough chunk count
-            TransferContext.setFinalOutputPath(RECEIVED_DIR.resolve(fileName).toString());
+    /**
+     * Check the whole file against X-Checksum, then rename the finished ".part" file into place.
+     * Only one request gets past claimFinish(); the others return before hashing anything.
+     * A mismatch → the file is thrown away (CorruptFileException).
+     *
+     * @return "MERGED", "VERIFYING" (a file read runs in the background) or "CHUNK-STORED"
+     */
+    private static String finishPositional(PositionalUpload upload, TransferStatusRegistry.Entry status)
+            throws IOException {
+        if (!upload.claimFinish()) return "CHUNK-STORED";
+        try {
+            status.reopen(); // a background check that could not run is tried again
+            String expected = status.getChecksum();
+            boolean noCheck = expected == null || expected.isBlank();
+            if (noCheck || TreeHash.blockBytesOf(expected) == upload.rootBlockBytes()) {
+                upload.awaitBlockHashes(); // at most the last few blocks are still being hashed
+                String blockRoot = upload.blockRootTag();
+                if (noCheck || blockRoot != null) {
+                    settlePositional(upload, status, blockRoot, noCheck ? null : blockRoot);
+                    return "MERGED";
+                }
+            }
+            verifyPositionalLater(upload, status, expected);
+            return "VERIFYING";
+        } catch (CorruptFileException e) {
+            throw e; // thrown away: nothing is left to finish
+        } catch (IOException | RuntimeException e) {
+            upload.unclaimFinish(); // failed half-way: a resent chunk may finish it later
+            throw e;
         }
+    }
 
-        byte[] plain = body;
-        if (aesPassword != null) {
+    /**
+     * verifyPositionalLater
+     * ---------------------
+     * Baby-English:
+     *   ✔ The kept hashes cannot answer X-Checksum (plain SHA-256, or a block was not hashed):
+     *     read the ".part" file on a background thread, never on the request path.
+     *   ✔ Meanwhile /status says VERIFYING; then COMPLETED, or FAILED with the file thrown away.
+     */
+    private static void verifyPositionalLater(PositionalUpload upload, TransferStatusRegistry.Entry status,
+                                              String expected) {
+        String transferId = upload.transferId;
+        status.verifying();
+        LoggerUtil.info("[UploadChunk] Every chunk is in; checking the whole file in the background.", transferId);
+        CompletableFuture.runAsync(() -> {
             try {
-                plain = AesUtil.decrypt(body, aesPassword);
-            } catch (Exception e) {
-                LoggerUtil.error("[AES] Chunk decryption failed.", e);
-                throw new IOException("AES decryption error");
+                upload.awaitBlockHashes(); // they read the ".part" file that finish() closes
+                String actual = HashUtil.digestLike(upload.partFile.toFile(), expected);
+                settlePositional(upload, status, upload.blockRootTag(), actual);
+            } catch (CorruptFileException e) {
+                // already FAILED and reset by settlePositional
+            } catch (IOException | RuntimeException e) {
+                LoggerUtil.error("[UploadChunk] Whole-file check could not run", e, transferId);
+                upload.unclaimFinish(); // a resent chunk may finish it later
+                status.fail("Whole-file check could not run: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Runs in the one finisher: rename the file into place, or throw it away.
+     *
+     * @param actual the file's digest in X-Checksum's form (null = nothing to compare)
+     */
+    private static void settlePositional(PositionalUpload upload, TransferStatusRegistry.Entry status,
+                                         String blockRoot, String actual) throws IOException {
+        String transferId = upload.transferId;
+        String expected = status.getChecksum();
+        if (actual != null && !expected.equalsIgnoreCase(actual)) {
+            upload.discard();
+            POSITIONAL_UPLOADS.remove(transferId, upload);
+            closeJournal(transferId);
+            TransferContext.clearTransfer(transferId);
+            String msg = "Whole-file check failed (" + actual + " != " + expected + "); upload reset, send it again";
+            status.resetBytes();
+            status.fail(msg);
+            throw new CorruptFileException(msg);
+        }
+
+        upload.finish();
+        POSITIONAL_UPLOADS.remove(transferId);
+        closeJournal(transferId);
+        if (blockRoot != null) status.setBlockRoot(blockRoot);
+        status.complete(upload.finalFile.toAbsolutePath().toString());
+        TransferContext.setIncomingName(upload.fileName);
+        TransferContext.clearTransfer(transferId);
+
+        LoggerUtil.success("[UploadChunk] All " + upload.chunkCount + " chunks placed; renamed to "
+                + upload.finalFile, transferId);
+    }
+
+    /**
+     * ChunkWriter
+     * -----------
+     * Baby-English:
+     *   ✔ Receives ONE chunk in pieces: write(...) as often as bytes arrive, then finish().
+     *   ✔ AES → the body is SegmentedGcm segments (one per block): each one is
+     *     checked and decrypted as soon as it is whole; a bad one → 422, resend.
+     *   ✔ finish() checks the length, marks the chunk (journal + bitmap) and
+     *     completes the file when it was the last missing chunk.
+     *   ✔ close() without finish() → the chunk is simply not counted (sender resends it).
+     *   ✔ Positional: each block is claimed when its first byte arrives; blocks already
+     *     received or claimed by another request are skipped, not written, and not marked.
+     *   ✔ Not thread-safe: one request owns one writer.
+     */
+    static final class ChunkWriter implements Closeable {
+
+        private static final byte MINE = 1;      // claimed by this request: written here, marked here
+        private static final byte NOT_MINE = 2;  // received already / another request's: read, not written
+
+        private final String transferId;
+        private final String fileName;
+        private final int chunkIndex;            // first block this chunk fills
+        private final int endIndex;              // one past the last block
+        private final int chunkSize;
+        private final int chunkCount;
+        private final long totalBytes;
+        private final TransferStatusRegistry.Entry status;
+        private final PositionalUpload upload;   // positional mode (null otherwise)
+        private final FileChannel stagedFile;    // staged mode (null otherwise)
+        private final SegmentedGcm aes;          // AES: segments to open (null = plain)
+
+        private final long start;
+        private final long expected;             // -1 when unknown (staged)
+        private long written;
+
+        private ByteBuffer sealed;               // AES: pooled; collects one segment, then opened in place
+        private String badSegment;               // AES: why a segment failed (reported by finish)
+        private boolean finished;
+
+        private final byte[] blockState;         // positional: per block, 0 = not reached, MINE or NOT_MINE
+        private String expectedChunkHash;        // hex from X-Chunk-Hash (null = not checked)
+        private MessageDigest blockDigest;       // leaf digest of the block being written (inline check only)
+        private List<byte[]> blockHashes;        // finished block hashes of this chunk
+        private Integer expectedCrc;             // from X-Chunk-CRC32C (null = not checked)
+        private CRC32C wireCrc;                  // CRC32C of the bytes as they arrive
+
+        private ChunkWriter(String transferId, String fileName, int chunkIndex, int chunkSize, int chunkCount,
+                            long totalBytes, TransferStatusRegistry.Entry status, PositionalUpload upload,
+                            FileChannel stagedFile, SegmentedGcm aes) {
+            this(transferId, fileName, chunkIndex, chunkIndex + 1, chunkSize, chunkCount, totalBytes, status,
+                    upload, stagedFile, aes,
+                    (upload != null) ? upload.offsetOf(chunkIndex) : 0L,
+                    (upload != null) ? upload.expectedLength(chunkIndex) : -1L);
+        }
+
+        /** Offset-addressed chunk covering blocks [firstBlock, endBlock). */
+        private ChunkWriter(String transferId, String fileName, int firstBlock, int endBlock, long start,
+                            long length, int blockCount, long totalBytes, TransferStatusRegistry.Entry status,
+                            PositionalUpload upload, SegmentedGcm aes) {
+            this(transferId, fileName, firstBlock, endBlock, upload.chunkSize, blockCount, totalBytes, status,
+                    upload, null, aes, start, length);
+        }
+
+        private ChunkWriter(String transferId, String fileName, int chunkIndex, int endIndex, int chunkSize,
+                            int chunkCount, long totalBytes, TransferStatusRegistry.Entry status,
+                            PositionalUpload upload, FileChannel stagedFile, SegmentedGcm aes,
+                            long start, long expected) {
+            this.transferId = transferId;
+            this.fileName = fileName;
+            this.chunkIndex = chunkIndex;
+            this.endIndex = endIndex;
+            this.chunkSize = chunkSize;
+            this.chunkCount = chunkCount;
+            this.totalBytes = totalBytes;
+            this.status = status;
+            this.upload = upload;
+            this.stagedFile = stagedFile;
+            this.aes = aes;
+            this.start = start;
+            this.expected = expected;
+            if (aes != null) {
+                this.sealed = BufferPool.acquire(aes.sealedSegmentBytes());
+            }
+            this.blockState = (upload != null) ? new byte[endIndex - chunkIndex] : null;
+        }
+
+        /**
+         * What the sender says this chunk must hash to.
+         *
+         * @param chunkHash hex TreeHash.chunkHash of its plain-text blocks (null = none)
+         * @param crc32c    CRC32C of the body as sent (null = none)
+         */
+        ChunkWriter expect(String chunkHash, Integer crc32c) {
+            if (crc32c != null) {
+                this.expectedCrc = crc32c;
+                this.wireCrc = new CRC32C();
+            }
+            if (chunkHash != null && VERIFY_BLOCKS && upload != null) {
+                this.expectedChunkHash = chunkHash;
+                this.blockDigest = TreeHash.newLeafDigest();
+                this.blockHashes = new ArrayList<>(endIndex - chunkIndex);
+            }
+            return this;
+        }
+
+        /** "Chunk 7", or "Chunk @1048576" for offset-addressed chunks spanning several blocks. */
+        private String label() {
+            return (endIndex - chunkIndex == 1) ? "Chunk " + chunkIndex : "Chunk @" + start;
+        }
+
+        /** Take all remaining bytes of src (as sent on the wire). */
+        void write(ByteBuffer src) throws IOException {
+            if (wireCrc != null) wireCrc.update(src.duplicate());
+            if (aes == null || (upload == null && stagedFile == null)) {
+                writePlain(src); // plain, or a late duplicate that is dropped anyway
+                return;
+            }
+
+            // Collect one sealed segment (one block) at a time; open it once it is whole.
+            while (src.hasRemaining() && badSegment == null) {
+                int end = src.limit();
+                src.limit(src.position() + Math.min(src.remaining(), sealed.remaining()));
+                sealed.put(src);
+                src.limit(end);
+                if (!sealed.hasRemaining()) openSegment();
+            }
+            if (badSegment != null) src.position(src.limit()); // finish() turns this into a 422
+        }
+
+        /**
+         * Check and decrypt the collected segment, then write its plain bytes.
+         * Segment index = block index; the file's final block carries the "last" flag.
+         * The plain bytes stay in the same (direct) buffer: no copy, no garbage.
+         */
+        private void openSegment() throws IOException {
+            long index = chunkIndex + written / chunkSize;
+            boolean last = index == aes.segmentCount(totalBytes) - 1;
+            sealed.flip();
+            try {
+                aes.openInPlace(index, last, sealed);
+                writePlain(sealed);
+            } catch (SegmentedGcm.BadSegmentException e) {
+                badSegment = e.getMessage();
+            } finally {
+                sealed.clear().limit(aes.sealedSegmentBytes());
+            }
+        }
+
+        private void writePlain(ByteBuffer b) throws IOException {
+            int n = b.remaining();
+            if (upload != null) {
+                if (written + n > expected) {
+                    throw new IOException(label() + " is longer than " + expected + " bytes");
+                }
+                if (blockDigest != null) hashBlocks(b.duplicate());
+                long pos = start + written;
+                while (b.hasRemaining()) {
+                    int block = (int) (pos / chunkSize);
+                    int take = (int) Math.min(b.remaining(), Math.min((block + 1L) * chunkSize, totalBytes) - pos);
+                    int end = b.limit();
+                    b.limit(b.position() + take);
+                    if (owns(block)) {
+                        upload.writeAt(b, pos);
+                    } else {
+                        b.position(b.limit()); // not ours: checked with the rest, never written
+                    }
+                    b.limit(end);
+                    pos += take;
+                }
+            } else if (stagedFile != null) {
+                while (b.hasRemaining()) stagedFile.write(b);
+            } else {
+                b.position(b.limit()); // finished upload: drop the duplicate
+            }
+            written += n;
+        }
+
+        /**
+         * Decide once per block, when its first byte arrives: ours to write, or skip it.
+         * Received blocks are never claimed; the second look catches a block that was
+         * marked (and released) between our first look and our claim.
+         */
+        private boolean owns(int block) {
+            int k = block - chunkIndex;
+            if (blockState[k] == 0) {
+                boolean mine = !TransferContext.isChunkReceived(transferId, block) && upload.claim(block);
+                if (mine && TransferContext.isChunkReceived(transferId, block)) {
+                    upload.release(block);
+                    mine = false;
+                }
+                blockState[k] = mine ? MINE : NOT_MINE;
+            }
+            return blockState[k] == MINE;
+        }
+
+        /** Give back every block we claimed (after marking them, or because the chunk failed). */
+        private void releaseClaims() {
+            if (blockState == null) return;
+            for (int k = 0; k < blockState.length; k++) {
+                if (blockState[k] == MINE) {
+                    upload.release(chunkIndex + k);
+                    blockState[k] = NOT_MINE;
+                }
+            }
+        }
+
+        /**
+         * Feed plain bytes into the block digest; close a block hash at every block end.
+         * (Chunks start on a block boundary, so block ends are multiples of chunkSize.)
+         */
+        private void hashBlocks(ByteBuffer v) {
+            long pos = start + written;
+            while (v.hasRemaining()) {
+                long blockEnd = Math.min((pos / chunkSize + 1) * chunkSize, upload.totalBytes);
+                int take = (int) Math.min(v.remaining(), blockEnd - pos);
+                ByteBuffer part = v.slice();
+                part.limit(take);
+                blockDigest.update(part);
+                v.position(v.position() + take);
+                pos += take;
+                if (pos == blockEnd) {
+                    blockHashes.add(blockDigest.digest());
+                    blockDigest = TreeHash.newLeafDigest();
+                }
+            }
+        }
+
+        /**
+         * @return "CHUNK-STORED" or "MERGED"
+         */
+        String finish() throws IOException {
+            if (finished) throw new IllegalStateException("Chunk already finished");
+
+            // Cheapest check first: a chunk damaged on the way fails here, before decrypt or marking.
+            if (wireCrc != null && (int) wireCrc.getValue() != expectedCrc) {
+                LoggerUtil.warn("[UploadChunk] " + label() + " failed its CRC32C check; waiting for a resend.",
+                        transferId);
+                throw new CorruptChunkException(label() + " failed its CRC32C check");
+            }
+
+            if (aes != null && sealed.position() > 0) openSegment(); // the shorter final segment
+            if (badSegment != null) {
+                LoggerUtil.warn("[UploadChunk] " + label() + ": " + badSegment + "; waiting for a resend.",
+                        transferId);
+                throw new CorruptChunkException(label() + " failed AES-GCM authentication");
+            }
+            finished = true;
+
+            if (upload != null) return finishPositionalChunk();
+            if (stagedFile != null) return finishStagedChunk();
+            return "MERGED";
+        }
+
+        private String finishPositionalChunk() throws IOException {
+            if (written != expected) {
+                throw new IOException(label() + " has " + written + " bytes, expected " + expected);
+            }
+            try {
+                boolean any = false;
+                for (int idx = chunkIndex; idx < endIndex; idx++) {
+                    any |= owns(idx); // an empty chunk never reached its block in writePlain
+                }
+                if (!any) return finishIfComplete(); // every block already in (or being written by another request)
+                if (blockHashes != null) {
+                    checkBlockHashes();
+                } else if (VERIFY_BLOCKS && !upload.keepsTreeLeaves()) {
+                    hashOwnBlocksLater(); // tree leaves are hashed per tree block instead
+                }
+                if (JOURNAL_FSYNC) upload.sync();
+
+                // One bit per block we wrote: an offset chunk may fill several at once.
+                for (int idx = chunkIndex; idx < endIndex; idx++) {
+                    if (blockState[idx - chunkIndex] != MINE) continue;
+                    journalMark(transferId, idx);
+                    if (TransferContext.markChunkReceived(transferId, idx)) {
+                        status.addBytes(upload.expectedLength(idx));
+                        upload.blockReceived(idx);
+                    }
+                }
+            } finally {
+                releaseClaims(); // after marking: nobody can claim a block between its write and its mark
+            }
+            return finishIfComplete();
+        }
+
+        /**
+         * Every block in → try to finish the file. A resend of a chunk that is already in lands
+         * here too, so a finisher that failed half-way is retried by the sender's next attempt.
+         */
+        private String finishIfComplete() throws IOException {
+            if (!TransferContext.areAllChunksReceived(transferId)) {
+                return "CHUNK-STORED";
+            }
+            return finishPositional(upload, status);
+        }
+
+        /**
+         * Compare with X-Chunk-Hash (if sent), then keep the block hashes for the final root.
+         * A mismatch marks nothing: the sender resends just this chunk.
+         */
+        private void checkBlockHashes() throws CorruptChunkException {
+            byte[][] hashes = blockHashes.toArray(new byte[0][]);
+            if (expectedChunkHash != null) {
+                String actual = HashUtil.bytesToHex(TreeHash.chunkHash(hashes, 0, hashes.length));
+                if (!actual.equalsIgnoreCase(expectedChunkHash)) {
+                    LoggerUtil.warn("[UploadChunk] " + label() + " failed its hash check (expected "
+                            + expectedChunkHash + ", got " + actual + "); waiting for a resend.", transferId);
+                    throw new CorruptChunkException(label() + " failed its hash check");
+                }
+            }
+            for (int k = 0; k < hashes.length; k++) {
+                if (blockState[k] == MINE) upload.recordBlockHashes(chunkIndex + k, new byte[][]{hashes[k]});
+            }
+        }
+
+        /** Background block hashes for the runs of blocks this request wrote. */
+        private void hashOwnBlocksLater() {
+            int k = 0;
+            while (k < blockState.length) {
+                if (blockState[k] != MINE) {
+                    k++;
+                    continue;
+                }
+                int from = k;
+                while (k < blockState.length && blockState[k] == MINE) k++;
+                upload.hashBlocksLater(chunkIndex + from, chunkIndex + k);
             }
         }
 
-        Path chunkFile = TMP_DIR.resolve(transferId + "." + chunkIndex + ".chunk");
-        Files.write(chunkFile, plain);
-        LoggerUtil.info("[UploadChunk] Stored chunk " + chunkIndex + " (" + plain.length + " bytes)");
+        /**
+         * Staged chunk:
+         *   ✔ Count bytes and chunks in memory (never list the folder).
+         *   ✔ When all chunks arrive → merge into final file.
+         */
+        private String finishStagedChunk() throws IOException {
+            if (JOURNAL_FSYNC) stagedFile.force(false);
+            stagedFile.close();
+            LoggerUtil.info("[UploadChunk] Stored chunk " + chunkIndex + " (" + written + " bytes)");
 
-        TransferContext.markChunkReceived(transferId, chunkIndex);
-        TransferContext.addReceivedBytes(transferId, plain.length);
+            // Chunk layout comes from what the client declared; older clients only tell us
+            // implicitly, through the size of chunk 0.
+            int sizeHint = (chunkSize > 0) ? chunkSize : (chunkIndex == 0 ? (int) written : 0);
+            int count = (chunkCount > 0) ? chunkCount
+                    : (sizeHint > 0 ? expectedChunkCount(totalBytes, sizeHint) : 0);
+            if (count > 0) {
+                TransferContext.ensureChunkState(transferId, count, sizeHint);
+                TransferContext.setFinalOutputPath(RECEIVED_DIR.resolve(fileName).toString());
+                if (!JOURNALS.containsKey(transferId)) {
+                    openJournal(transferId, fileName, totalBytes, sizeHint, count, true, status.getChecksum());
+                }
+            }
 
-        long sum = Files.list(TMP_DIR)
-                .filter(p -> p.getFileName().toString().startsWith(transferId + "."))
-                .mapToLong(p -> {
-                    try { return Files.size(p); } catch (IOException e) { return 0L; }
-                }).sum();
+            journalMark(transferId, chunkIndex);
 
-        TransferStatusRegistry.progress(sum);
+            if (TransferContext.markChunkReceived(transferId, chunkIndex)) {
+                status.addBytes(written);
+                TransferContext.addReceivedBytes(transferId, written);
+            }
+
+            if (!TransferContext.areAllChunksReceived(transferId)) {
+                return "CHUNK-STORED";
+            }
+            return mergeStaged(transferId, fileName, status);
+        }
+
+        @Override
+        public void close() throws IOException {
+            releaseClaims(); // not finished → nothing was marked; the blocks are free for a resend
+            if (sealed != null) {
+                BufferPool.release(sealed);
+                sealed = null;
+            }
+            if (stagedFile != null && stagedFile.isOpen()) stagedFile.close();
+        }
+    }
+
+    /**
+     * mergeStaged
+     * -----------
+     * Baby-English:
+     *   ✔ Copy chunk 0..N-1 into the final file, then delete the chunk files.
+     *   ✔ Runs under the transfer's merge lock, so it happens once.
+     */
+    private static String mergeStaged(String transferId, String fileName, TransferStatusRegistry.Entry status)
+            throws IOException {
+        ReentrantLock mergeLock = TransferContext.getMergeLock(transferId);
+        if (mergeLock == null) return "CHUNK-STORED";
+
+        mergeLock.lock();
+        try {
+            // Another thread may have merged (and cleared the state) while we waited.
+            int mergeCount = TransferContext.getChunkCount(transferId);
+            if (mergeCount == 0) return "MERGED";
 
-        if (totalBytes > 0 && sum >= totalBytes && TransferContext.areAllChunksReceived(transferId)) {
             Path out = RECEIVED_DIR.resolve(fileName);
-            LoggerUtil.info("[UploadChunk] All chunks received. Merging into " + out);
+            LoggerUtil.info("[UploadChunk] All " + mergeCount + " chunks received. Merging into " + out);
 
             try (OutputStream outStream = Files.newOutputStream(out)) {
-                int idx = 0;
-                while (true) {
-                    Path cf = TMP_DIR.resolve(transferId + "." + idx + ".chunk");
-                    if (!Files.exists(cf)) break;
-                    Files.copy(cf, outStream);
-                    idx++;
+                for (int idx = 0; idx < mergeCount; idx++) {
+                    Files.copy(chunkFile(transferId, idx), outStream);
                 }
             }
 
-            Files.list(TMP_DIR)
-                    .filter(p -> p.getFileName().toString().startsWith(transferId + "."))
-                    .forEach(p -> {
-                        try { Files.deleteIfExists(p); } catch (IOException e) {
-                            LoggerUtil.warn("[UploadChunk] Failed to delete chunk " + p);
-                        }
-                    });
+            for (int idx = 0; idx < mergeCount; idx++) {
+                Path cf = chunkFile(transferId, idx);
+                try { Files.deleteIfExists(cf); } catch (IOException e) {
+                    LoggerUtil.warn("[UploadChunk] Failed to delete chunk " + cf);
+                }
+            }
 
-            // FIX: Replaced undefined 'safeFileName' with the correct input parameter 'fileName'
-            TransferStatusRegistry.complete(Path.of("received", fileName).toAbsolutePath().toString());
+            closeJournal(transferId);
+            status.complete(out.toAbsolutePath().toString());
 
             TransferContext.setIncomingName(fileName);
             TransferContext.clearTransfer(transferId);
+        } finally {
+            mergeLock.unlock();
+        }
 
-            LoggerUtil.success("[UploadChunk] Merge complete for " + transferId);
-            return "MERGED";
+        LoggerUtil.success("[UploadChunk] Merge complete for " + transferId);
+        return "MERGED";
+    }
+
+    private static Path chunkFile(String transferId, int chunkIndex) {
+        return TMP_DIR.resolve(transferId + "." + chunkIndex + ".chunk");
+    }
+
+    // ============================================================
+    // 3️⃣ Journal: survive a server restart
+    // ============================================================
+
+    private static void openJournal(String transferId, String fileName, long totalBytes,
+                                    int chunkSize, int chunkCount, boolean staged, String checksum) {
+        if (!JOURNAL_ENABLED) return;
+        JOURNALS.computeIfAbsent(transferId, id -> {
+            try {
+                return UploadJournal.create(UploadJournal.fileFor(TMP_DIR, id), id, fileName, totalBytes,
+                        chunkSize, chunkCount, staged, checksum, JOURNAL_FSYNC);
+            } catch (IOException e) {
+                // The upload still works; it just cannot survive a restart.
+                LoggerUtil.warn("[Journal] Could not create journal: " + e.getMessage(), id);
+                return null;
+            }
+        });
+    }
+
+    private static void journalMark(String transferId, int chunkIndex) {
+        UploadJournal journal = JOURNALS.get(transferId);
+        if (journal != null && chunkIndex >= 0 && chunkIndex < journal.chunkCount) journal.mark(chunkIndex);
+    }
+
+    private static void closeJournal(String transferId) {
+        UploadJournal journal = JOURNALS.remove(transferId);
+        if (journal != null) journal.delete();
+    }
+
+    /**
+     * recoverFromJournals
+     * -------------------
+     * Baby-English:
+     *   ✔ Called once when the server starts, before it accepts requests.
+     *   ✔ For every "*.journal" in tmp/uploads:
+     *       - rebuild the status entry and the chunk bitmap,
+     *       - re-open the ".part" file (positional) or check the chunk files (staged),
+     *       - if every chunk is already there → finish the file now.
+     *   ✔ Broken or orphaned journals are removed.
+     *
+     * @return number of uploads that can be resumed
+     */
+    public static int recoverFromJournals() {
+        if (!JOURNAL_ENABLED) return 0;
+
+        List<Path> journals = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(TMP_DIR, "*" + UploadJournal.SUFFIX)) {
+            for (Path p : ds) journals.add(p);
+        } catch (IOException e) {
+            LoggerUtil.error("[Journal] Could not scan " + TMP_DIR, e);
+            return 0;
         }
 
-        return "CHUNK-STORED";
+        int resumable = 0;
+        for (Path p : journals) {
+            UploadJournal journal = null;
+            try {
+                journal = UploadJournal.load(p, JOURNAL_FSYNC);
+                if (journal == null) {
+                    LoggerUtil.warn("[Journal] Dropping incomplete journal " + p);
+                    Files.deleteIfExists(p);
+                    continue;
+                }
+                if (recover(journal)) resumable++;
+            } catch (Exception e) {
+                LoggerUtil.error("[Journal] Could not recover " + p, e);
+                if (journal != null) JOURNALS.remove(journal.transferId, journal);
+            }
+        }
+
+        if (!journals.isEmpty()) {
+            LoggerUtil.info("[Journal] Recovered " + resumable + " of " + journals.size() + " unfinished uploads.");
+        }
+        return resumable;
+    }
+
+    /** @return true if the upload is still in progress and ready for resume */
+    private static boolean recover(UploadJournal journal) throws IOException {
+        String id = journal.transferId;
+        TransferStatusRegistry.Entry status = TransferStatusRegistry.open(id, journal.fileName, journal.totalBytes);
+        status.setProtocol("HTTP");
+        if (journal.checksum != null) status.setChecksum(journal.checksum);
+
+        TransferContext.initChunkState(id, journal.chunkCount, journal.chunkSize);
+        JOURNALS.put(id, journal);
+
+        if (!journal.staged) {
+            Path part = TMP_DIR.resolve(id + ".part");
+            if (!Files.exists(part)) {
+                LoggerUtil.warn("[Journal] " + part + " is gone; dropping journal.", id);
+                TransferContext.clearTransfer(id);
+                closeJournal(id);
+                return false;
+            }
+            PositionalUpload upload = PositionalUpload.open(id, journal.fileName, journal.totalBytes,
+                    journal.chunkSize, part, RECEIVED_DIR.resolve(journal.fileName));
+            if (VERIFY_BLOCKS) upload.keepTreeLeaves(TreeHash.blockBytesOf(journal.checksum));
+            for (int i = 0; i < journal.chunkCount; i++) {
+                if (journal.isMarked(i) && TransferContext.markChunkReceived(id, i)) {
+                    status.addBytes(upload.expectedLength(i));
+                    upload.blockReceived(i); // full tree blocks from before the restart are hashed again
+                }
+            }
+            POSITIONAL_UPLOADS.put(id, upload);
+            if (TransferContext.areAllChunksReceived(id)) {
+                finishPositional(upload, status);
+                return false;
+            }
+        } else {
+            for (int i = 0; i < journal.chunkCount; i++) {
+                Path cf = chunkFile(id, i);
+                if (journal.isMarked(i) && Files.exists(cf) && TransferContext.markChunkReceived(id, i)) {
+                    status.addBytes(Files.size(cf));
+                }
+            }
+            if (TransferContext.areAllChunksReceived(id)) {
+                mergeStaged(id, journal.fileName, status);
+                return false;
+            }
+        }
+
+        LoggerUtil.info("[Journal] Resumable upload " + journal.fileName + ": " + status.getBytesWritten()
+                + "/" + journal.totalBytes + " bytes on disk.", id);
+        return true;
     }
+
     // ============================================================
-    // 3️⃣ Helper: Resolve received file
+    // 4️⃣ Helper: Resolve received file
     // ============================================================
     public static Path getReceivedFile(String name) {
         return RECEIVED_DIR.resolve(name);
@@ -2,28 +2,60 @@ package com.filesharingapp.server;
 
 import com.filesharingapp.core.TransferContext;
 import com.filesharingapp.security.AesUtil;
+import com.filesharingapp.security.SegmentedGcm;
+import com.filesharingapp.utils.AppConfig;
 import com.filesharingapp.utils.LoggerUtil;
 import com.filesharingapp.utils.ValidationUtil;
+import jakarta.servlet.AsyncContext;
 import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 
-import javax.crypto.SecretKey;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
 
 /**
  * DownloadServlet
  * ---------------
  * Baby-English:
  * ✔ This servlet is the "door" for downloading a file.
+ * ✔ Byte ranges (RFC 7233): 206 + Content-Range, suffix ranges,
+ *   multipart/byteranges for several ranges, If-Range, 416 when unsatisfiable.
+ * ✔ server.io.mode=async → plain (not server-decrypted) downloads are written
+ *   with a WriteListener (AsyncFileSender), so slow readers do not pin a thread.
+ * ✔ X-AES-Password header → the server decrypts. SegmentedGcm files keep full Range
+ *   support (only the segments under a range are decrypted); older AES/CBC files are
+ *   sent whole, without ranges.
+ * ✔ The password is a secret, so:
+ *   - only in a header, never in the URL (query strings end up in access logs and
+ *     browser history) → ?aesPassword=... gets 400;
+ *   - only over TLS, or from this machine (local use) → otherwise 403.
  */
 public class DownloadServlet extends HttpServlet {
 
+    /** 0 = no async timeout; the connector idle timeout still drops dead clients. */
+    private static final long ASYNC_TIMEOUT_MS = AppConfig.getLong("server.async.timeoutMs", 0L);
+
+    private final boolean asyncIo;
+
+    public DownloadServlet() {
+        this(false);
+    }
+
+    public DownloadServlet(boolean asyncIo) {
+        this.asyncIo = asyncIo;
+    }
+
     @Override
     protected void doGet(HttpServletRequest req,
                          HttpServletResponse resp) throws ServletException, IOException {
@@ -57,36 +89,70 @@ public class DownloadServlet extends HttpServlet {
         // ------------------------------------------------------
         // 3) Handle AES decryption status
         // ------------------------------------------------------
-        String aesPassword = req.getParameter("aesPassword");
+        if (req.getParameter("aesPassword") != null) {
+            resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            resp.getWriter().write("Send the AES password in the X-AES-Password header, not in the URL");
+            return;
+        }
+        String aesPassword = req.getHeader("X-AES-Password");
         boolean decryptOnServer = aesPassword != null && !aesPassword.isBlank();
-        SecretKey aesKey = null;
+        if (decryptOnServer && !req.isSecure() && !isLocal(req.getRemoteAddr())) {
+            LoggerUtil.warn("[AES] Server-side decrypt refused: plain HTTP from " + req.getRemoteAddr(), transferId);
+            resp.setStatus(HttpServletResponse.SC_FORBIDDEN);
+            resp.getWriter().write("Server-side decryption needs HTTPS or a client on this machine");
+            return;
+        }
 
+        if (decryptOnServer) {
+            LoggerUtil.info("[AES] Decrypting on server.", transferId);
+        }
+
+        // SegmentedGcm files are seekable: ranges are served from the decrypted bytes.
+        // Older AES/CBC files (container == null) can only be decrypted from the start.
+        SegmentedGcm container = null;
         if (decryptOnServer) {
             try {
-                aesKey = AesUtil.buildKeyFromPassword(aesPassword);
-                LoggerUtil.info("[AES] Decrypting on server.", transferId);
-            } catch (Exception e) {
-                LoggerUtil.error("[AES] Invalid password for server-side decryption.", e, transferId);
+                container = SegmentedGcm.openFile(file, aesPassword);
+            } catch (SegmentedGcm.BadSegmentException e) {
+                LoggerUtil.warn("[AES] Wrong password or damaged file: " + name, transferId);
                 resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-                resp.getWriter().write("Invalid AES password for server decryption");
+                resp.getWriter().write("Wrong AES password or damaged encrypted file");
                 return;
             }
         }
+        boolean rangesAllowed = !decryptOnServer || container != null;
 
         // ------------------------------------------------------
-        // 4) Handle Range header for resume (Only for unencrypted files)
+        // 4) Handle Range / If-Range (stored bytes, or decrypted SegmentedGcm bytes)
         // ------------------------------------------------------
-        String rangeHeader = req.getHeader("Range");
-        long startByte = 0;
         long fileSize = Files.size(file);
+        long size = (container != null) ? container.plainSize(fileSize) : fileSize; // what the client gets
+        List<DownloadService.ByteRange> ranges = null;
+
+        if (rangesAllowed) {
+            long lastModified = Files.getLastModifiedTime(file).toMillis();
+            String etag = DownloadService.etagOf(size, lastModified);
+            resp.setHeader("Accept-Ranges", "bytes");
+            resp.setHeader("ETag", etag);
+            resp.setDateHeader("Last-Modified", lastModified);
 
-        if (!decryptOnServer && rangeHeader != null) {
-            // FIX: The method is now available in DownloadService
-            startByte = DownloadService.parseRange(rangeHeader, fileSize);
+            String rangeHeader = req.getHeader("Range");
+            if (rangeHeader != null
+                    && DownloadService.ifRangeMatches(req.getHeader("If-Range"), etag, lastModified)) {
+                ranges = DownloadService.parseRanges(rangeHeader, size);
+            }
+            if (ranges != null && ranges.isEmpty()) {
+                LoggerUtil.warn("[Range] Not satisfiable: " + rangeHeader + " (size " + size + ")", transferId);
+                resp.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                resp.setHeader("Content-Range", "bytes */" + size);
+                return;
+            }
+        } else {
+            resp.setHeader("Accept-Ranges", "none");
         }
 
         // ------------------------------------------------------
-        // 5) Set HTTP headers (simplified, letting DownloadService handle range)
+        // 5) Set HTTP headers
         // ------------------------------------------------------
         String contentType = Files.probeContentType(file);
         if (contentType == null || contentType.isBlank()) {
@@ -102,28 +168,78 @@ public class DownloadServlet extends HttpServlet {
             resp.setHeader("X-File-Checksum-SHA256", expectedChecksum);
         }
 
+        // Whole file, or the single range asked for
+        long start = 0;
+        long end = size;
+        if (ranges != null && ranges.size() == 1) {
+            DownloadService.ByteRange only = ranges.get(0);
+            start = only.start;
+            end = only.end;
+            resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            resp.setHeader("Content-Range", only.contentRange(size));
+        }
+
         // ------------------------------------------------------
-        // 6) Stream file with resume or streaming AES decrypt
+        // 6) Async mode: hand the socket to a WriteListener
+        // ------------------------------------------------------
+        boolean multiRange = ranges != null && ranges.size() > 1;
+        if (asyncIo && !decryptOnServer && !multiRange && req.isAsyncSupported()) {
+            TransferContext.getOrCreateProgress(transferId, fileSize);
+            resp.setContentLengthLong(end - start);
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+            AsyncContext async = req.startAsync();
+            async.setTimeout(ASYNC_TIMEOUT_MS);
+            ServletOutputStream out = resp.getOutputStream();
+            out.setWriteListener(new AsyncFileSender(async, out, channel, transferId, start, end));
+            return;
+        }
+
+        // ------------------------------------------------------
+        // 7) Stream file: ranges, whole file, or streaming AES decrypt
         // ------------------------------------------------------
         try (OutputStream out = resp.getOutputStream()) {
-            if (decryptOnServer) {
-                // **FIXED LOGIC: Use streaming decryption**
+            if (decryptOnServer && container == null) {
+                // Older AES/CBC file: no random access, decrypt everything from byte 0
                 resp.setStatus(HttpServletResponse.SC_OK);
-                // NOTE: AesUtil.IV_LENGTH must be publicly accessible (public static final)
-                resp.setContentLengthLong(fileSize - AesUtil.IV_LENGTH);
                 try (InputStream fileIn = Files.newInputStream(file)) {
-                    // This method reads the IV and decrypts the rest directly to 'out'
-                    AesUtil.decryptStream(fileIn, out, aesKey);
+                    AesUtil.decryptStream(fileIn, out, aesPassword);
                 } catch (Exception e) {
                     throw new RuntimeException(e);
                 }
+            } else if (multiRange) {
+                String boundary = DownloadService.newBoundary();
+                resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                resp.setContentType("multipart/byteranges; boundary=" + boundary);
+                resp.setContentLengthLong(DownloadService.multipartLength(ranges, contentType, boundary, size));
+                if (container != null) {
+                    DownloadService.sendDecryptedMultipart(transferId, file, container, ranges, contentType,
+                            boundary, out);
+                } else {
+                    DownloadService.sendMultipart(transferId, file, ranges, contentType, boundary, out);
+                }
             } else {
-                // Unencrypted download with full resume support handled by DownloadService
-                DownloadService.streamDownload(transferId, file, rangeHeader, out);
+                // A known length lets Jetty finish the response on the last zero-copy window
+                resp.setContentLengthLong(end - start);
+                if (container != null) {
+                    // Only the segments under [start, end) are read and decrypted
+                    DownloadService.sendDecryptedRegion(transferId, file, container, start, end, out);
+                } else {
+                    DownloadService.sendRegion(transferId, file, start, end, out);
+                }
             }
         } catch (IOException e) {
             // If the connection is cut during streaming, this catches it.
             LoggerUtil.error("Download stream failed for file: " + name, e, transferId);
         }
     }
-}
\ No newline at end of file
+
+    /** True for a client on this machine (loopback address; an IP literal, so no DNS lookup). */
+    private static boolean isLocal(String remoteAddr) {
+        if (remoteAddr == null || remoteAddr.isBlank()) return false;
+        try {
+            return InetAddress.getByName(remoteAddr).isLoopbackAddress();
+        } catch (UnknownHostException e) {
+            return false;
+        }
+    }
+}
@@ -1,12 +1,18 @@
 package com.filesharingapp.server;
 
+import com.filesharingapp.security.CipherSuites;
 import com.filesharingapp.utils.AppConfig;
 import com.filesharingapp.utils.LoggerUtil;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.handler.HandlerList;
 import org.eclipse.jetty.server.handler.ResourceHandler;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.VirtualThreads;
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
 /**
@@ -34,6 +40,9 @@ public final class FileSharingServer {
     /** Shared Jetty server instance for this JVM. */
     private static Server server;
 
+    /** Which threads run request handling ("virtual" / "platform"). */
+    private static volatile String executionMode;
+
     private FileSharingServer() {
         // Utility class – do not create objects.
     }
@@ -57,18 +66,15 @@ public final class FileSharingServer {
 
         try {
             // ------------------------------------------------------
-            // 1) Configure Jetty thread pool for better performance
+            // 1) Thread pool (platform or virtual threads) + connector
             // ------------------------------------------------------
-            QueuedThreadPool threadPool = new QueuedThreadPool(50, 10);
+            QueuedThreadPool threadPool = buildThreadPool();
             server = new Server(threadPool);
             server.setStopAtShutdown(true);
-            server.setConnectors(null); // Jetty will create default connector
-            server.setHandler(null);
             server.setStopTimeout(5000);
             server.setAttribute("org.eclipse.jetty.server.Request.maxFormContentSize", 50 * 1024 * 1024); // 50MB
 
-            // Create Jetty server on this port
-            server = new Server(port);
+            server.addConnector(buildConnector(server, port));
 
             // ------------------------------------------------------
             // 2) Servlet context for APIs
@@ -76,9 +82,15 @@ public final class FileSharingServer {
             ServletContextHandler context = new ServletContextHandler(ServletContextHandler.SESSIONS);
             context.setContextPath("/");
 
-            // Register servlets
-            context.addServlet(new ServletHolder(new UploadServlet()), "/upload");
-            context.addServlet(new ServletHolder(new DownloadServlet()), "/download");
+            // Register servlets (server.io.mode: blocking | async)
+            boolean asyncIo = "async".equalsIgnoreCase(AppConfig.get("server.io.mode", "blocking"));
+            ServletHolder upload = new ServletHolder(new UploadServlet(asyncIo));
+            ServletHolder download = new ServletHolder(new DownloadServlet(asyncIo));
+            upload.setAsyncSupported(asyncIo);
+            download.setAsyncSupported(asyncIo);
+            context.addServlet(upload, "/upload");
+            context.addServlet(download, "/download");
+            LoggerUtil.info("[FileSharingServer] Upload/download I/O mode: " + (asyncIo ? "async" : "blocking"));
             context.addServlet(new ServletHolder(new StatusServlet()), "/status");
             context.addServlet(new ServletHolder(new PromptServlet()), "/prompt");
 
@@ -100,7 +112,18 @@ public final class FileSharingServer {
             server.setHandler(handlers);
 
             // ------------------------------------------------------
-            // 5) Start Jetty
+            // 5) Pick up uploads that were in flight before a restart
+            // ------------------------------------------------------
+            ChunkUploadService.recoverFromJournals();
+
+            // ------------------------------------------------------
+            // 6) Measure AES-GCM vs ChaCha20-Poly1305 in the background
+            //    (answers /status?ciphers=true)
+            // ------------------------------------------------------
+            CipherSuites.benchmarkAsync();
+
+            // ------------------------------------------------------
+            // 7) Start Jetty
             // ------------------------------------------------------
             server.start();
             LoggerUtil.success("[FileSharingServer] Running at http://localhost:" + port);
@@ -112,6 +135,84 @@ public final class FileSharingServer {
         }
     }
 
+    /**
+     * buildThreadPool
+     * ---------------
+     * Baby-English:
+     *   ✔ server.execution.mode picks who runs request handling:
+     *       - "virtual"  → JDK 21 virtual threads. Each request (and the blocking file
+     *                      work it does in ChunkUploadService / DownloadService) gets
+     *                      its own cheap thread, so no thread-count tuning is needed.
+     *       - "platform" → classic pool of OS threads, sized by server.threads.*.
+     *       - "auto" (default) → virtual when the JVM supports it, else platform.
+     *   ✔ Jetty's own selector/acceptor threads always stay in the platform pool.
+     *   ✔ The active mode is written to the log at startup.
+     */
+    private static QueuedThreadPool buildThreadPool() {
+        int maxThreads = AppConfig.getInt("server.threads.max", 50);
+        int minThreads = AppConfig.getInt("server.threads.min", 10);
+        int idleTimeoutMs = AppConfig.getInt("server.threads.idleTimeoutMs", 60_000);
+        String mode = AppConfig.get("server.execution.mode", "auto").trim().toLowerCase();
+
+        QueuedThreadPool pool = new QueuedThreadPool(maxThreads, minThreads, idleTimeoutMs);
+        pool.setName("fsa-http");
+
+        boolean wantVirtual = "virtual".equals(mode) || "auto".equals(mode);
+        if (wantVirtual && VirtualThreads.areSupported()) {
+            pool.setVirtualThreadsExecutor(VirtualThreads.getDefaultVirtualThreadsExecutor());
+            executionMode = "virtual";
+            LoggerUtil.info("[FileSharingServer] Execution mode: virtual threads (Java "
+                    + Runtime.version().feature() + "); platform pool only for Jetty internals.");
+        } else {
+            if ("virtual".equals(mode)) {
+                LoggerUtil.warn("[FileSharingServer] Virtual threads need JDK 21+ (running Java "
+                        + Runtime.version().feature() + "). Falling back to the platform pool.");
+            }
+            executionMode = "platform";
+            LoggerUtil.info("[FileSharingServer] Execution mode: platform threads (max=" + maxThreads
+                    + ", min=" + minThreads + ").");
+        }
+        return pool;
+    }
+
+    /**
+     * buildConnector
+     * --------------
+     * Baby-English:
+     *   ✔ One port, two languages:
+     *       - HTTP/1.1 (browsers, old clients)
+     *       - HTTP/2 cleartext "h2c" (server.http2.enabled), reached either by
+     *         "Upgrade: h2c" or by talking HTTP/2 straight away.
+     *   ✔ With h2c, many chunk POSTs and /status polls share ONE connection
+     *     (multiplexed streams with flow control) instead of one request at a time.
+     *   ✔ Browsers only speak HTTP/2 over TLS, so they keep using HTTP/1.1 here.
+     */
+    private static ServerConnector buildConnector(Server server, int port) {
+        HttpConfiguration httpConfig = new HttpConfiguration();
+        httpConfig.setSendServerVersion(false);
+
+        ServerConnector connector;
+        if (AppConfig.getBoolean("server.http2.enabled", true)) {
+            HTTP2CServerConnectionFactory h2c = new HTTP2CServerConnectionFactory(httpConfig);
+            h2c.setMaxConcurrentStreams(AppConfig.getInt("server.http2.maxConcurrentStreams", 128));
+            // Windows large enough that a few in-flight chunks are not stalled by flow control.
+            h2c.setInitialStreamRecvWindow(AppConfig.getInt("server.http2.streamWindow", 4 * 1024 * 1024));
+            h2c.setInitialSessionRecvWindow(AppConfig.getInt("server.http2.sessionWindow", 16 * 1024 * 1024));
+            connector = new ServerConnector(server, new HttpConnectionFactory(httpConfig), h2c);
+            LoggerUtil.info("[FileSharingServer] Protocols: HTTP/1.1 + h2c (HTTP/2 cleartext).");
+        } else {
+            connector = new ServerConnector(server, new HttpConnectionFactory(httpConfig));
+            LoggerUtil.info("[FileSharingServer] Protocols: HTTP/1.1.");
+        }
+        connector.setPort(port);
+        return connector;
+    }
+
+    /** "virtual" or "platform" once the server has started (null before). */
+    public static String getExecutionMode() {
+        return executionMode;
+    }
+
     /**
      * Stop the Jetty server gracefully.
      *
@@ -0,0 +1,414 @@
+package com.filesharingapp.server;
+
+import com.filesharingapp.utils.AppConfig;
+import com.filesharingapp.utils.HashUtil;
+import com.filesharingapp.utils.LoggerUtil;
+import com.filesharingapp.utils.TreeHash;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.BitSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * PositionalUpload
+ * ----------------
+ * Baby-English:
+ *   ✔ One chunked upload that writes straight into its final file.
+ *   ✔ The ".part" file is made full-size up front (preallocated).
+ *   ✔ Chunk N lands at byte N * chunkSize, so chunks may come in any order.
+ *   ✔ Offset-addressed chunks may span several chunkSize blocks (adaptive senders).
+ *   ✔ When the last chunk lands → one atomic rename into "received/"
+ *     (or discard(), when the whole file does not match its checksum).
+ *   ✔ No chunk files, no merge copy: every byte is written exactly once.
+ *   ✔ Keeps the hash of every block it received (TreeHash leaf rule), so the
+ *     Merkle root of the whole file costs nothing extra at the end.
+ *   ✔ Chunks checked by CRC32C get their block hashes later, on background threads
+ *     (hashBlocksLater), so SHA-256 is not on the request path.
+ *   ✔ The sender's tree digest may use bigger blocks (hash.tree.blockBytes, e.g. 4 MiB) than
+ *     the upload (64 KiB). keepTreeLeaves(...) then hashes each tree block in the background
+ *     as soon as all its upload blocks are in, so the final check is still "hash the hashes".
+ *
+ * Thread-safety:
+ *   ✔ FileChannel positional writes are safe from many threads.
+ *   ✔ A block is written by ONE request at a time (claim / release); a resent or
+ *     re-carved chunk overlapping it skips it, so unchecked bytes never land on a
+ *     block that another request is writing or that is already received.
+ *   ✔ Only ONE request finishes the file, even if two "last" chunks race: it wins
+ *     claimFinish() before any hashing; the others just report their chunk stored.
+ */
+final class PositionalUpload implements Closeable {
+
+    /** Background SHA-256 of accepted blocks (0 = one thread per core). */
+    private static final int HASH_THREADS = AppConfig.getInt("upload.chunk.hashThreads", 0);
+    private static final ExecutorService HASHERS = Executors.newFixedThreadPool(
+            HASH_THREADS > 0 ? HASH_THREADS : Runtime.getRuntime().availableProcessors(), r -> {
+                Thread t = new Thread(r, "block-hasher");
+                t.setDaemon(true);
+                return t;
+            });
+
+    final String transferId;
+    final String fileName;
+    final long   totalBytes;
+    final int    chunkSize;
+    final int    chunkCount;
+    final Path   partFile;
+    final Path   finalFile;
+
+    private final FileChannel channel;
+    private final AtomicBoolean finished = new AtomicBoolean();
+    private final byte[][] blockHashes;      // one per data block; null until that block is verified
+    private final BitSet claimed;            // blocks a request is writing right now (guarded by itself)
+    private int hashing;                     // background hash jobs still running (guarded by this)
+
+    private int treeBlockBytes;              // block size of the sender's tree digest (0 = not kept)
+    private byte[][] treeLeaves;             // one per tree block; null until it is hashed
+    private int[] treeMissing;               // upload blocks still missing per tree block (guarded by itself)
+
+    private PositionalUpload(String transferId, String fileName, long totalBytes, int chunkSize,
+                             Path partFile, Path finalFile, FileChannel channel) {
+        this.transferId = transferId;
+        this.fileName   = fileName;
+        this.totalBytes = totalBytes;
+        this.chunkSize  = chunkSize;
+        this.chunkCount = chunkCountFor(totalBytes, chunkSize);
+        this.partFile   = partFile;
+        this.finalFile  = finalFile;
+        this.channel    = channel;
+        this.blockHashes = new byte[(int) ((totalBytes + chunkSize - 1) / chunkSize)][];
+        this.claimed = new BitSet(chunkCount);
+    }
+
+    /**
+     * open
+     * ----
+     * Baby-English:
+     *   ✔ Open (or re-open) the ".part" file and make it exactly totalBytes long.
+     */
+    static PositionalUpload open(String transferId, String fileName, long totalBytes, int chunkSize,
+                                 Path partFile, Path finalFile) throws IOException {
+        if (chunkSize <= 0) throw new IOException("Invalid chunkSize: " + chunkSize);
+        if (totalBytes < 0) throw new IOException("Invalid totalBytes: " + totalBytes);
+
+        FileChannel ch = FileChannel.open(partFile,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long size = ch.size();
+            if (size > totalBytes) {
+                ch.truncate(totalBytes);
+            } else if (size < totalBytes) {
+                // Writing the very last byte extends the file in one step (sparse where supported).
+                ch.write(ByteBuffer.wrap(new byte[1]), totalBytes - 1);
+            }
+        } catch (IOException e) {
+            ch.close();
+            throw e;
+        }
+
+        LoggerUtil.info("[UploadChunk] Preallocated " + partFile + " (" + totalBytes + " bytes, chunkSize="
+                + chunkSize + ")", transferId);
+        return new PositionalUpload(transferId, fileName, totalBytes, chunkSize, partFile, finalFile, ch);
+    }
+
+    /** Number of chunks a file of this size splits into (an empty file still has one, empty chunk). */
+    static int chunkCountFor(long totalBytes, int chunkSize) {
+        long count = (totalBytes + chunkSize - 1) / chunkSize;
+        if (count > Integer.MAX_VALUE) throw new IllegalArgumentException("Too many chunks: " + count);
+        return (int) Math.max(count, 1L);
+    }
+
+    /** Byte offset where this chunk starts. */
+    long offsetOf(int chunkIndex) {
+        return (long) chunkIndex * chunkSize;
+    }
+
+    /** How many bytes this chunk must carry (the last one may be short). */
+    long expectedLength(int chunkIndex) {
+        return Math.min(chunkSize, totalBytes - offsetOf(chunkIndex));
+    }
+
+    /** Reject chunk indexes outside this file's layout. */
+    void checkIndex(int chunkIndex) throws IOException {
+        if (chunkIndex < 0 || chunkIndex >= chunkCount) {
+            throw new IOException("chunkIndex " + chunkIndex + " out of range (chunks=" + chunkCount + ")");
+        }
+    }
+
+    /**
+     * blocksFor
+     * ---------
+     * Baby-English:
+     *   ✔ Offset-addressed chunk → which blocks (chunkSize units) it fills: {first, end}.
+     *   ✔ It must start on a block boundary and cover whole blocks
+     *     (only the chunk that reaches the end of the file may be short).
+     */
+    int[] blocksFor(long offset, long length) throws IOException {
+        if (offset < 0 || length < 0 || offset + length > totalBytes) {
+            throw new IOException("Chunk at " + offset + " (+" + length + ") outside file of " + totalBytes + " bytes");
+        }
+        if (offset % chunkSize != 0) {
+            throw new IOException("Chunk offset " + offset + " is not a multiple of " + chunkSize);
+        }
+        long end = offset + length;
+        if (end != totalBytes && length % chunkSize != 0) {
+            throw new IOException("Chunk length " + length + " is not a multiple of " + chunkSize);
+        }
+        int first = (int) (offset / chunkSize);
+        int last = (length == 0) ? first + 1 : (int) ((end + chunkSize - 1) / chunkSize);
+        checkIndex(first);
+        return new int[]{first, last};
+    }
+
+    /**
+     * claim
+     * -----
+     * Baby-English:
+     *   ✔ A request wants to write this block: true → it is the only writer until release().
+     *   ✔ false → another request is writing it; the caller skips the block.
+     *   ✔ The caller also skips blocks already received (and checks again after claiming:
+     *     the previous owner marks its blocks before it releases them).
+     */
+    boolean claim(int block) {
+        synchronized (claimed) {
+            if (claimed.get(block)) return false;
+            claimed.set(block);
+            return true;
+        }
+    }
+
+    /** The block is marked received, or its chunk failed: others may write it again. */
+    void release(int block) {
+        synchronized (claimed) {
+            claimed.clear(block);
+        }
+    }
+
+    /** Remember the hashes of blocks first, first+1, ... (only the blocks' owner records them, so no lock). */
+    void recordBlockHashes(int first, byte[][] hashes) {
+        System.arraycopy(hashes, 0, blockHashes, first, hashes.length);
+    }
+
+    /**
+     * keepTreeLeaves
+     * --------------
+     * Baby-English:
+     *   ✔ The sender's checksum is a tree digest with bigger blocks than ours (a whole multiple):
+     *     keep one leaf per TREE block, so the root needs no file read at the end.
+     *   ✔ Call once, right after open(), before any block is marked received.
+     *   ✔ Same block size as ours (blockHashes already match) or not a multiple → nothing to do.
+     */
+    void keepTreeLeaves(int blockBytes) {
+        if (blockBytes <= chunkSize || blockBytes % chunkSize != 0) return;
+        int perLeaf = blockBytes / chunkSize;
+        int blocks = blockHashes.length;
+        int leaves = (blocks + perLeaf - 1) / perLeaf;
+        int[] missing = new int[leaves];
+        for (int i = 0; i < leaves; i++) {
+            missing[i] = Math.min(perLeaf, blocks - i * perLeaf);
+        }
+        this.treeMissing = missing;
+        this.treeLeaves = new byte[leaves][];
+        this.treeBlockBytes = blockBytes;
+    }
+
+    /**
+     * blockReceived
+     * -------------
+     * Baby-English:
+     *   ✔ Called once per block when it is marked received.
+     *   ✔ Last missing block of a tree block → hash that tree block in the background.
+     */
+    void blockReceived(int block) {
+        if (treeLeaves == null || block >= blockHashes.length) return; // not kept, or the empty file's chunk
+        int leaf = block / (treeBlockBytes / chunkSize);
+        synchronized (treeMissing) {
+            if (--treeMissing[leaf] != 0) return;
+        }
+        hashLater("tree block " + leaf, () -> {
+            long pos = (long) leaf * treeBlockBytes;
+            long end = Math.min(pos + treeBlockBytes, totalBytes);
+            MessageDigest md = TreeHash.newLeafDigest();
+            ByteBuffer buf = ByteBuffer.allocate(chunkSize);
+            for (long p = pos; p < end; p += chunkSize) {
+                readBlock(buf, p, (int) Math.min(chunkSize, end - p));
+                md.update(buf);
+            }
+            treeLeaves[leaf] = md.digest();
+        });
+    }
+
+    /**
+     * hashBlocksLater
+     * ---------------
+     * Baby-English:
+     *   ✔ Hash blocks [first, end) from the ".part" file on a background thread
+     *     (they were just written, so they come from the page cache).
+     *   ✔ A failed read leaves the hashes empty → no root, the whole-file checksum still counts.
+     */
+    void hashBlocksLater(int first, int end) {
+        hashLater("blocks " + first + ".." + (end - 1), () -> {
+            ByteBuffer buf = ByteBuffer.allocate(chunkSize);
+            int last = Math.min(end, blockHashes.length); // an empty file is one chunk but no blocks
+            for (int i = first; i < last; i++) {
+                long pos = offsetOf(i);
+                readBlock(buf, pos, (int) Math.min(chunkSize, totalBytes - pos));
+                MessageDigest md = TreeHash.newLeafDigest();
+                md.update(buf);
+                blockHashes[i] = md.digest();
+            }
+        });
+    }
+
+    /** One background hash job; awaitBlockHashes() waits for all of them. */
+    private void hashLater(String what, IoJob job) {
+        synchronized (this) {
+            hashing++;
+        }
+        HASHERS.execute(() -> {
+            try {
+                job.run();
+            } catch (IOException e) {
+                LoggerUtil.warn("[UploadChunk] Could not hash " + what + ": " + e.getMessage(), transferId);
+            } finally {
+                synchronized (this) {
+                    if (--hashing == 0) notifyAll();
+                }
+            }
+        });
+    }
+
+    private interface IoJob {
+        void run() throws IOException;
+    }
+
+    /** Read len bytes at pos into buf, ready to be hashed (flipped). */
+    private void readBlock(ByteBuffer buf, long pos, int len) throws IOException {
+        buf.clear().limit(len);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, pos + buf.position()) < 0) throw new IOException("Short read at " + pos);
+        }
+        buf.flip();
+    }
+
+    /** Wait until every hashBlocksLater job is done (before the root is built and the file is closed). */
+    synchronized void awaitBlockHashes() throws InterruptedIOException {
+        while (hashing > 0) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while hashing blocks");
+            }
+        }
+    }
+
+    /**
+     * blockRootTag
+     * ------------
+     * Baby-English:
+     *   ✔ Merkle root of the file from the hashes we kept: "tree-sha256:&lt;blockBytes&gt;:&lt;root&gt;",
+     *     at the tree's block size when keepTreeLeaves(...) was used, else at chunkSize.
+     *   ✔ null when some block came in without a hash (e.g. a background read failed).
+     */
+    String blockRootTag() {
+        byte[][] leaves = (treeLeaves != null) ? treeLeaves : blockHashes;
+        for (byte[] h : leaves) {
+            if (h == null) return null;
+        }
+        int size = (treeLeaves != null) ? treeBlockBytes : chunkSize;
+        return TreeHash.tag(size, HashUtil.bytesToHex(TreeHash.root(leaves)));
+    }
+
+    /** Block size of blockRootTag(): a tree digest with this block size is checked without a file read. */
+    int rootBlockBytes() {
+        return (treeLeaves != null) ? treeBlockBytes : chunkSize;
+    }
+
+    /** True when keepTreeLeaves(...) took effect (the 64 KiB block hashes are then not needed). */
+    boolean keepsTreeLeaves() {
+        return treeLeaves != null;
+    }
+
+    /**
+     * writeAt
+     * -------
+     * Baby-English:
+     *   ✔ Write these bytes at their own position (no seek, no shared cursor).
+     *   ✔ Chunks are fed in pieces, so one chunk may be many writeAt calls.
+     */
+    void writeAt(ByteBuffer src, long position) throws IOException {
+        long pos = position;
+        while (src.hasRemaining()) {
+            pos += channel.write(src, pos);
+        }
+    }
+
+    /** Flush written chunks to the disk (used when the journal runs with fsync). */
+    void sync() throws IOException {
+        channel.force(false);
+    }
+
+    /**
+     * claimFinish
+     * -----------
+     * Baby-English:
+     *   ✔ true → this request is THE finisher: it checks the file, then calls finish() or discard().
+     *   ✔ false → another request is already finishing (or has finished) the file.
+     *   ✔ A finisher that fails half-way calls unclaimFinish(), so a later chunk can try again.
+     */
+    boolean claimFinish() {
+        return finished.compareAndSet(false, true);
+    }
+
+    /** The finisher failed before finish() / discard(): let the next request finish the file. */
+    void unclaimFinish() {
+        finished.set(false);
+    }
+
+    /**
+     * finish
+     * ------
+     * Baby-English:
+     *   ✔ Flush, close, and rename ".part" → final name in one atomic step.
+     *   ✔ Only the request that won claimFinish() calls it.
+     */
+    void finish() throws IOException {
+        channel.force(false);
+        channel.close();
+        try {
+            Files.move(partFile, finalFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            LoggerUtil.warn("[UploadChunk] Atomic rename not supported, falling back to plain move.", transferId);
+            Files.move(partFile, finalFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * discard
+     * -------
+     * Baby-English:
+     *   ✔ The file failed its whole-file check: close and delete the ".part" file
+     *     instead of renaming it. Only the request that won claimFinish() calls it.
+     */
+    void discard() throws IOException {
+        channel.close();
+        Files.deleteIfExists(partFile);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel.isOpen()) channel.close();
+    }
+}
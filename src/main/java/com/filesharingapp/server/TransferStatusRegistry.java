@@ -1,24 +1,33 @@
 package com.filesharingapp.server;
 
+import com.filesharingapp.utils.AppConfig;
 import com.filesharingapp.utils.LoggerUtil;
 
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * TransferStatusRegistry
  * ----------------------
  * Baby English:
- *   - This class remembers "how is my transfer doing right now?"
+ *   - This class remembers "how is each transfer doing right now?"
  *   - Server updates this during /upload.
  *   - /status servlet reads from here and sends JSON to the browser.
  *
  * Important notes:
- *   - We track ONE active transfer at a time (the latest one).
- *   - This is enough for your current app and UI.
- *   - If you ever want many transfers at once, you can wrap
- *     this logic in a Map<transferId, TransferStatusRegistry>.
+ *   - We track MANY transfers at once, one {@link Entry} per transferId.
+ *   - Byte counters are atomic per entry, so two uploads never fight
+ *     over one lock while they write.
+ *   - Old entries are swept out after a TTL, and the map never grows
+ *     past a fixed number of entries.
  */
 public final class TransferStatusRegistry {
 
@@ -27,289 +36,400 @@ public final class TransferStatusRegistry {
      * Baby English:
      *   - IDLE       → nothing is happening.
      *   - IN_PROGRESS→ upload or download is running.
+     *   - VERIFYING  → every byte is in; the whole file is being checked (off the request path).
      *   - COMPLETED  → file finished OK.
      *   - FAILED     → something bad happened.
      */
     public enum State {
         IDLE,
         IN_PROGRESS,
+        VERIFYING,
         COMPLETED,
         FAILED
     }
 
-    // ------------------------------
-    // Core transfer fields (existing)
-    // ------------------------------
-    private static String transferId;
-    private static String fileName;
-    private static long   totalBytes;
-    private static long   bytesWritten;
-    private static State  state        = State.IDLE;
-    private static String errorMessage;
-    private static LocalDateTime lastUpdated;
+    /** How long a finished (or silent) transfer stays visible in /status. */
+    private static final long TTL_MS =
+            AppConfig.getLong("status.registry.ttlSeconds", 3600L) * 1000L;
 
-    // ------------------------------
-    // New meta fields (as per analysis)
-    // ------------------------------
-    /** HTTP / S3 / ZEROTIER */
-    private static String protocol;
+    /** Hard cap on how many transfers we remember at once. */
+    private static final int MAX_ENTRIES =
+            Math.max(AppConfig.getInt("status.registry.maxEntries", 1024), 1);
 
-    /** Friendly user name, if known. */
-    private static String userName;
+    /** Do not sweep more often than this. */
+    private static final long SWEEP_INTERVAL_MS = 10_000L;
 
-    /** Expected checksum (SHA-256) for integrity. */
-    private static String checksum;
+    /** One entry per transferId. */
+    private static final Map<String, Entry> ENTRIES = new ConcurrentHashMap<>();
 
-    /** Where to resume from (byte offset). */
-    private static long resumeOffset;
-
-    /** Full path of final saved file (optional). */
-    private static String filePath;
-
-    /** True if AES encryption is enabled for this transfer. */
-    private static boolean aesEnabled;
-
-    /** When transfer started (for speed/ETA). */
-    private static long startedAtMs;
-
-    /** Last update timestamp in milliseconds. */
-    private static long lastUpdatedMs;
+    /** Last time we swept expired entries (ms). */
+    private static final AtomicLong LAST_SWEEP_MS = new AtomicLong();
 
     private TransferStatusRegistry() {
         // Utility class — no objects.
     }
 
     // ============================
-    // Start / Progress / Complete
+    // Entry (one transfer)
     // ============================
 
     /**
-     * Begin a new transfer.
+     * Entry
+     * -----
      * Baby English:
-     *   - We reset everything.
-     *   - We remember id, file name, and total size.
+     *   - The status of ONE transfer.
+     *   - bytesWritten is an AtomicLong → safe from many threads, no lock.
+     *   - Meta fields are volatile → readers always see the latest value.
      */
-    public static synchronized void begin(String id, String name, long total) {
-        transferId   = safe(id);
-        fileName     = safe(name);
-        totalBytes   = Math.max(total, 0);
-        bytesWritten = 0L;
-        state        = State.IN_PROGRESS;
-        errorMessage = null;
-        protocol     = null;
-        checksum     = null;
-        resumeOffset = 0L;
-        filePath     = null;
-        aesEnabled   = false;
-        startedAtMs  = System.currentTimeMillis();
-        lastUpdatedMs = startedAtMs;
-        lastUpdated   = LocalDateTime.now();
-        LoggerUtil.info("[Status] Begin transfer: " + transferId
-                + " (" + fileName + "), totalBytes=" + totalBytes);
-    }
+    public static final class Entry {
+
+        private final String transferId;
+        private final String fileName;
+        private final long   totalBytes;
+        private final long   startedAtMs;
+
+        private final AtomicLong bytesWritten = new AtomicLong();
+        private final AtomicReference<State> state = new AtomicReference<>(State.IN_PROGRESS);
+
+        private volatile String  errorMessage;
+        /** HTTP / S3 / ZEROTIER */
+        private volatile String  protocol;
+        /** Friendly user name, if known. */
+        private volatile String  userName;
+        /** Expected checksum (SHA-256) for integrity. */
+        private volatile String  checksum;
+
+        /** Merkle root built from verified block hashes ("tree-sha256:..."), empty if unknown. */
+        private volatile String  blockRoot;
+        /** Where to resume from (byte offset). */
+        private volatile long    resumeOffset;
+        /** Full path of final saved file (optional). */
+        private volatile String  filePath;
+        /** True if AES encryption is enabled for this transfer. */
+        private volatile boolean aesEnabled;
+        /** Last update timestamp in milliseconds. */
+        private volatile long    lastUpdatedMs;
+
+        private Entry(String transferId, String fileName, long totalBytes) {
+            this.transferId  = safe(transferId);
+            this.fileName    = safe(fileName);
+            this.totalBytes  = Math.max(totalBytes, 0L);
+            this.startedAtMs = System.currentTimeMillis();
+            this.lastUpdatedMs = startedAtMs;
+        }
 
-    /**
-     * Set which protocol we are using.
-     * Example: "HTTP", "S3", "ZEROTIER".
-     */
-    public static synchronized void setProtocol(String proto) {
-        protocol = safe(proto);
-    }
+        /** Update bytesWritten to a new absolute value. */
+        public void progress(long newBytesWritten) {
+            bytesWritten.set(Math.max(newBytesWritten, 0L));
+            lastUpdatedMs = System.currentTimeMillis();
+        }
 
-    /**
-     * Set display name of user (sender or receiver).
-     */
-    public static synchronized void setUserName(String name) {
-        userName = safe(name);
-    }
+        /**
+         * Add a delta of bytes to current bytesWritten.
+         * Baby English:
+         *   - Hot path: one atomic add, no lock.
+         *   - Reaching the total size does NOT complete the transfer: the file may
+         *     still be checked (and thrown away) before it is renamed into place.
+         *     Only complete(...) sets COMPLETED.
+         */
+        public void addBytes(long delta) {
+            if (delta <= 0) {
+                return;
+            }
+            bytesWritten.addAndGet(delta);
+            lastUpdatedMs = System.currentTimeMillis();
+        }
 
-    /**
-     * Set expected checksum string.
-     */
-    public static synchronized void setChecksum(String cs) {
-        checksum = safe(cs);
-    }
+        /**
+         * The server threw its bytes away (whole-file check failed): count again from zero.
+         * The state stays FAILED until a new upload of the file starts (reopen()).
+         */
+        public void resetBytes() {
+            bytesWritten.set(0);
+            blockRoot = null;
+            lastUpdatedMs = System.currentTimeMillis();
+        }
 
-    /**
-     * Set resume offset in bytes.
-     * This is where next upload chunk should start.
-     */
-    public static synchronized void setResumeOffset(long offset) {
-        resumeOffset = Math.max(offset, 0L);
-    }
+        /**
+         * Mark transfer as completed. Optionally set final file path.
+         * Baby English:
+         *   - Only a running (or VERIFYING) transfer can complete: a late call never
+         *     turns FAILED into COMPLETED (and a second call changes nothing).
+         *
+         * @return true if this call completed the transfer
+         */
+        public boolean complete(String finalPath) {
+            State before = state.getAndUpdate(
+                    s -> (s == State.IN_PROGRESS || s == State.VERIFYING) ? State.COMPLETED : s);
+            if (before != State.IN_PROGRESS && before != State.VERIFYING) {
+                if (before == State.FAILED) {
+                    LoggerUtil.warn("[Status] Late completion ignored, transfer already failed: " + fileName,
+                            transferId);
+                }
+                return false;
+            }
+            lastUpdatedMs = System.currentTimeMillis();
+            if (finalPath != null) {
+                filePath = safe(finalPath);
+            }
+            LoggerUtil.success("[Status] Transfer completed: " + fileName, transferId);
+            return true;
+        }
 
-    /**
-     * Save final file path for reference.
-     */
-    public static synchronized void setFilePath(String path) {
-        filePath = safe(path);
-    }
+        /** Every byte is in and the whole-file check runs in the background. */
+        public void verifying() {
+            if (state.compareAndSet(State.IN_PROGRESS, State.VERIFYING)) {
+                lastUpdatedMs = System.currentTimeMillis();
+            }
+        }
 
-    /**
-     * Mark whether AES encryption is enabled.
-     */
-    public static synchronized void setAesEnabled(boolean enabled) {
-        aesEnabled = enabled;
+        /** Mark transfer as failed with error message (a file already completed stays completed). */
+        public void fail(String msg) {
+            State before = state.getAndUpdate(s -> (s == State.COMPLETED) ? s : State.FAILED);
+            if (before == State.COMPLETED) {
+                LoggerUtil.warn("[Status] Late failure ignored, transfer already completed: " + msg, transferId);
+                return;
+            }
+            errorMessage  = safe(msg);
+            lastUpdatedMs = System.currentTimeMillis();
+            LoggerUtil.error("[Status] Transfer failed: " + msg, transferId);
+        }
+
+        /** A FAILED transfer is being sent again (a new upload of it started): back to IN_PROGRESS. */
+        public void reopen() {
+            if (state.compareAndSet(State.FAILED, State.IN_PROGRESS)) {
+                errorMessage  = null;
+                lastUpdatedMs = System.currentTimeMillis();
+                LoggerUtil.info("[Status] Transfer restarted: " + fileName, transferId);
+            }
+        }
+
+        public void setProtocol(String proto)   { protocol = safe(proto); }
+        public void setUserName(String name)    { userName = safe(name); }
+        public void setChecksum(String cs)      { checksum = safe(cs); }
+        public void setBlockRoot(String root)   { blockRoot = safe(root); }
+        public void setResumeOffset(long off)   { resumeOffset = Math.max(off, 0L); }
+        public void setFilePath(String path)    { filePath = safe(path); }
+        public void setAesEnabled(boolean on)   { aesEnabled = on; }
+
+        public String getTransferId()  { return transferId; }
+        public String getFileName()    { return fileName; }
+        public long   getTotalBytes()  { return totalBytes; }
+        public long   getBytesWritten(){ return bytesWritten.get(); }
+        public long   getResumeOffset(){ return resumeOffset; }
+        public State  getState()       { return state.get(); }
+        public String getChecksum()    { return checksum; }
+        public String getBlockRoot()   { return blockRoot; }
+        public long   getLastUpdatedMs(){ return lastUpdatedMs; }
+
+        /**
+         * Build small JSON string for /status response.
+         * Baby English:
+         *   - We do not use any JSON library.
+         *   - We just build a text string carefully.
+         *   - We read each field once, so the numbers agree with each other.
+         */
+        public String toJson() {
+            long written = bytesWritten.get();
+
+            // Compute progressPercent, speed, and ETA safely.
+            double percent = 0.0;
+            if (totalBytes > 0) {
+                percent = (written * 100.0) / totalBytes;
+            }
+
+            long   now     = System.currentTimeMillis();
+            long   elapsed = Math.max(now - startedAtMs, 1L); // ms
+            double speedBps = (written * 1000.0) / elapsed;   // bytes per second
+
+            long remainingBytes = (totalBytes > 0 && written <= totalBytes)
+                    ? (totalBytes - written)
+                    : 0L;
+
+            long etaSeconds = (speedBps > 1.0 && remainingBytes > 0)
+                    ? (long) (remainingBytes / speedBps)
+                    : 0L;
+
+            StringBuilder sb = new StringBuilder(512);
+            sb.append("{");
+            sb.append("\"transferId\":\"").append(transferId).append("\",");
+            sb.append("\"fileName\":\"").append(fileName).append("\",");
+            sb.append("\"protocol\":\"").append(safe(protocol)).append("\",");
+            sb.append("\"userName\":\"").append(safe(userName)).append("\",");
+            sb.append("\"totalBytes\":").append(totalBytes).append(",");
+            sb.append("\"bytesWritten\":").append(written).append(",");
+            sb.append("\"progressPercent\":").append(String.format("%.2f", percent)).append(",");
+            sb.append("\"resumeOffset\":").append(resumeOffset).append(",");
+            sb.append("\"state\":\"").append(state.get().name()).append("\",");
+            sb.append("\"error\":\"").append(safe(errorMessage)).append("\",");
+            sb.append("\"checksum\":\"").append(safe(checksum)).append("\",");
+            sb.append("\"blockRoot\":\"").append(safe(blockRoot)).append("\",");
+            sb.append("\"aesEnabled\":").append(aesEnabled).append(",");
+            sb.append("\"filePath\":\"").append(safe(filePath)).append("\",");
+            sb.append("\"speedBytesPerSecond\":").append(String.format("%.2f", speedBps)).append(",");
+            sb.append("\"estimatedEtaSeconds\":").append(etaSeconds).append(",");
+            sb.append("\"lastUpdated\":\"").append(toLocalDateTime(lastUpdatedMs)).append("\"");
+            sb.append("}");
+            return sb.toString();
+        }
     }
 
+    // ============================
+    // Start / Lookup
+    // ============================
+
     /**
-     * Update bytesWritten to a new absolute value.
+     * Begin a new transfer.
      * Baby English:
-     *   - newBytesWritten is "how many bytes total we have now".
+     *   - We make a fresh entry for this id (old one is replaced).
+     *   - We remember id, file name, and total size.
      */
-    public static synchronized void progress(long newBytesWritten) {
-        bytesWritten = Math.max(newBytesWritten, 0L);
-        lastUpdated  = LocalDateTime.now();
-        lastUpdatedMs = System.currentTimeMillis();
+    public static Entry begin(String id, String name, long total) {
+        sweepIfDue();
+        Entry entry = new Entry(id, name, total);
+        ENTRIES.put(entry.transferId, entry);
+        LoggerUtil.info("[Status] Begin transfer: " + entry.transferId
+                + " (" + entry.fileName + "), totalBytes=" + entry.totalBytes);
+        return entry;
     }
 
     /**
-     * Add a delta of bytes to current bytesWritten.
+     * Get the entry for this id, or begin one if it does not exist.
      * Baby English:
-     *   - We use this when we only know "we wrote X more bytes".
+     *   - Chunks can arrive in any order, so the "first" chunk
+     *     is whichever one gets here first.
      */
-    public static synchronized void addBytes(long delta) {
-        if (delta < 0) {
-            return;
-        }
-        bytesWritten += delta;
-        if (bytesWritten < 0) {
-            bytesWritten = 0;
-        }
-        lastUpdated   = LocalDateTime.now();
-        lastUpdatedMs = System.currentTimeMillis();
+    public static Entry open(String id, String name, long total) {
+        Entry entry = ENTRIES.get(safe(id));
+        if (entry != null) return entry;
+
+        sweepIfDue();
+        return ENTRIES.computeIfAbsent(safe(id), k -> {
+            LoggerUtil.info("[Status] Begin transfer: " + k + " (" + safe(name) + "), totalBytes=" + total);
+            return new Entry(k, name, total);
+        });
+    }
 
-        // If we know total size and reached it, we can auto-complete.
-        if (totalBytes > 0 && bytesWritten >= totalBytes && state == State.IN_PROGRESS) {
-            state = State.COMPLETED;
-            LoggerUtil.success("[Status] Transfer reached total bytes. Marking as COMPLETED.");
-        }
+    /** Returns the entry for this id, or null if unknown / evicted. */
+    public static Entry get(String id) {
+        return (id == null) ? null : ENTRIES.get(safe(id));
     }
 
-    /**
-     * Mark transfer as completed.
-     * Optionally set final file path.
-     */
-    public static synchronized void complete(String finalPath) {
-        state         = State.COMPLETED;
-        lastUpdated   = LocalDateTime.now();
-        lastUpdatedMs = System.currentTimeMillis();
-        if (finalPath != null) {
-            filePath = safe(finalPath);
-        }
-        LoggerUtil.success("[Status] Transfer completed: " + fileName);
+    /** Snapshot of all known entries (newest first). */
+    public static List<Entry> snapshot() {
+        List<Entry> list = new ArrayList<>(ENTRIES.values());
+        list.sort(Comparator.comparingLong((Entry e) -> e.startedAtMs).reversed());
+        return list;
     }
 
-    /**
-     * Mark transfer as failed with error message.
-     */
-    public static synchronized void fail(String msg) {
-        state         = State.FAILED;
-        errorMessage  = safe(msg);
-        lastUpdated   = LocalDateTime.now();
-        lastUpdatedMs = System.currentTimeMillis();
-        LoggerUtil.error("[Status] Transfer failed: " + msg);
+    // ============================
+    // Progress / Complete (by id)
+    // ============================
+
+    /** Update bytesWritten to a new absolute value. */
+    public static void progress(String id, long newBytesWritten) {
+        Entry entry = get(id);
+        if (entry != null) entry.progress(newBytesWritten);
     }
 
-    /**
-     * Reset everything back to IDLE.
-     */
-    public static synchronized void reset() {
-        transferId    = null;
-        fileName      = null;
-        totalBytes    = 0L;
-        bytesWritten  = 0L;
-        state         = State.IDLE;
-        errorMessage  = null;
-        protocol      = null;
-        userName      = null;
-        checksum      = null;
-        resumeOffset  = 0L;
-        filePath      = null;
-        aesEnabled    = false;
-        startedAtMs   = 0L;
-        lastUpdatedMs = 0L;
-        lastUpdated   = LocalDateTime.now();
-        LoggerUtil.info("[Status] Reset transfer status registry.");
+    /** Add a delta of bytes to current bytesWritten. */
+    public static void addBytes(String id, long delta) {
+        Entry entry = get(id);
+        if (entry != null) entry.addBytes(delta);
     }
 
-    // =============
-    // Public getters
-    // =============
+    /** Mark transfer as completed (only from IN_PROGRESS). Optionally set final file path. */
+    public static void complete(String id, String finalPath) {
+        Entry entry = get(id);
+        if (entry != null) entry.complete(finalPath);
+    }
 
-    public static synchronized long getBytesWritten() {
-        return bytesWritten;
+    /** Mark transfer as failed with error message. */
+    public static void fail(String id, String msg) {
+        Entry entry = get(id);
+        if (entry != null) {
+            entry.fail(msg);
+        } else {
+            LoggerUtil.error("[Status] Transfer failed: " + msg, id);
+        }
     }
 
-    public static synchronized long getTotalBytes() {
-        return totalBytes;
+    /** Forget one transfer. */
+    public static void remove(String id) {
+        if (id != null) ENTRIES.remove(safe(id));
     }
 
-    public static synchronized long getResumeOffset() {
-        return resumeOffset;
+    /**
+     * Reset everything.
+     */
+    public static void reset() {
+        ENTRIES.clear();
+        LoggerUtil.info("[Status] Reset transfer status registry.");
     }
 
-    public static synchronized String getTransferId() {
-        return transferId;
+    // ============================
+    // JSON builder for /status API
+    // ============================
+
+    /** JSON for one transfer, or null if unknown. */
+    public static String toJson(String id) {
+        Entry entry = get(id);
+        return (entry != null) ? entry.toJson() : null;
     }
 
-    public static synchronized String getFileName() {
-        return fileName;
+    /** JSON for all known transfers: {"transfers":[...]} */
+    public static String toJsonAll() {
+        StringBuilder sb = new StringBuilder("{\"transfers\":[");
+        boolean first = true;
+        for (Entry entry : snapshot()) {
+            if (!first) sb.append(',');
+            sb.append(entry.toJson());
+            first = false;
+        }
+        return sb.append("]}").toString();
     }
 
     // ============================
-    // JSON builder for /status API
+    // TTL eviction
     // ============================
 
     /**
-     * Build small JSON string for /status response.
+     * sweepIfDue
+     * ----------
      * Baby English:
-     *   - We do not use any JSON library.
-     *   - We just build a text string carefully.
+     *   - At most once per SWEEP_INTERVAL_MS, one caller cleans up.
+     *   - Everyone else skips (CAS), so no lock on the hot path.
      */
-    public static synchronized String toJson() {
-        // Compute progressPercent, speed, and ETA safely.
-        double percent = 0.0;
-        if (totalBytes > 0) {
-            percent = (bytesWritten * 100.0) / totalBytes;
+    private static void sweepIfDue() {
+        long now  = System.currentTimeMillis();
+        long last = LAST_SWEEP_MS.get();
+        boolean full = ENTRIES.size() >= MAX_ENTRIES;
+        if ((full || now - last >= SWEEP_INTERVAL_MS) && LAST_SWEEP_MS.compareAndSet(last, now)) {
+            evictExpired(now);
         }
+    }
 
-        long   now     = System.currentTimeMillis();
-        long   elapsed = (startedAtMs > 0) ? Math.max(now - startedAtMs, 1L) : 1L; // ms
-        double speedBps = (bytesWritten * 1000.0) / elapsed; // bytes per second
-
-        long remainingBytes = (totalBytes > 0 && bytesWritten <= totalBytes)
-                ? (totalBytes - bytesWritten)
-                : 0L;
-
-        long etaSeconds = (speedBps > 1.0 && remainingBytes > 0)
-                ? (long) (remainingBytes / speedBps)
-                : 0L;
-
-        String lastUpdatedStr = (lastUpdated != null)
-                ? lastUpdated.toString()
-                : "";
-
-        StringBuilder sb = new StringBuilder();
-        sb.append("{");
-        sb.append("\"transferId\":\"").append(safe(transferId)).append("\",");
-        sb.append("\"fileName\":\"").append(safe(fileName)).append("\",");
-        sb.append("\"protocol\":\"").append(safe(protocol)).append("\",");
-        sb.append("\"userName\":\"").append(safe(userName)).append("\",");
-        sb.append("\"totalBytes\":").append(totalBytes).append(",");
-        sb.append("\"bytesWritten\":").append(bytesWritten).append(",");
-        sb.append("\"progressPercent\":").append(String.format("%.2f", percent)).append(",");
-        sb.append("\"resumeOffset\":").append(resumeOffset).append(",");
-        sb.append("\"state\":\"").append(state.name()).append("\",");
-        sb.append("\"error\":\"").append(safe(errorMessage)).append("\",");
-        sb.append("\"checksum\":\"").append(safe(checksum)).append("\",");
-        sb.append("\"aesEnabled\":").append(aesEnabled).append(",");
-        sb.append("\"filePath\":\"").append(safe(filePath)).append("\",");
-        sb.append("\"speedBytesPerSecond\":").append(String.format("%.2f", speedBps)).append(",");
-        sb.append("\"estimatedEtaSeconds\":").append(etaSeconds).append(",");
-        sb.append("\"lastUpdated\":\"").append(lastUpdatedStr).append("\"");
-        sb.append("}");
-        return sb.toString();
+    /**
+     * evictExpired
+     * ------------
+     * Baby English:
+     *   - Drop entries that were silent for longer than TTL.
+     *   - If still too many → drop finished ones first, then the oldest.
+     */
+    static void evictExpired(long now) {
+        ENTRIES.values().removeIf(e -> now - e.lastUpdatedMs > TTL_MS);
+
+        int overflow = ENTRIES.size() - MAX_ENTRIES + 1; // leave room for the new one
+        if (overflow <= 0) return;
+
+        List<Entry> victims = new ArrayList<>(ENTRIES.values());
+        victims.sort(Comparator
+                .comparing((Entry e) -> e.getState() == State.IN_PROGRESS)
+                .thenComparingLong(e -> e.lastUpdatedMs));
+        for (int i = 0; i < overflow && i < victims.size(); i++) {
+            ENTRIES.remove(victims.get(i).transferId, victims.get(i));
+        }
+        LoggerUtil.warn("[Status] Registry full. Evicted " + Math.min(overflow, victims.size()) + " old transfers.");
     }
 
     // =============
@@ -322,8 +442,7 @@ public final class TransferStatusRegistry {
         return s.replace("\"", "'").trim();
     }
 
-    /** Optional helper to log a human-readable timestamp from millis. */
-    @SuppressWarnings("unused")
+    /** Helper to render a human-readable timestamp from millis. */
     private static String toLocalDateTime(long epochMs) {
         if (epochMs <= 0) return "";
         return LocalDateTime.ofInstant(
@@ -0,0 +1,221 @@
+package com.filesharingapp.server;
+
+import com.filesharingapp.utils.LoggerUtil;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * UploadJournal
+ * -------------
+ * Baby-English:
+ *   ✔ A tiny file next to the upload ("tmp/uploads/<transferId>.journal").
+ *   ✔ It remembers WHAT we are receiving (header) and WHICH chunks are safe on disk (bitmap).
+ *   ✔ The whole file is memory-mapped: marking a chunk is one atomic OR on a long.
+ *   ✔ If the server dies, the next start reads the journals and carries on.
+ *
+ * File layout (little-endian):
+ *   0     int    magic "FSJ1" (written last, so a half-written header is ignored)
+ *   4     int    version
+ *   8     long   totalBytes
+ *   16    int    chunkSize
+ *   20    int    chunkCount
+ *   24    byte   placement (0 = positional, 1 = staged)
+ *   28    int    fileName length, then up to 1024 bytes UTF-8
+ *   1056  int    checksum length, then up to 128 bytes
+ *   4096  long[] bitmap, one bit per chunk
+ *
+ * Rules:
+ *   ✔ A bit is set only AFTER its chunk bytes were written.
+ *   ✔ fsync=false → survives a crash or restart of the JVM (the OS keeps the pages).
+ *     fsync=true  → also survives power loss, at the cost of a flush per chunk.
+ */
+final class UploadJournal implements Closeable {
+
+    static final String SUFFIX = ".journal";
+
+    private static final int MAGIC = 0x46534A31; // "FSJ1"
+    private static final int VERSION = 1;
+    private static final int NAME_MAX = 1024;
+    private static final int CHECKSUM_MAX = 128;
+    private static final int OFF_NAME = 28;
+    private static final int OFF_CHECKSUM = OFF_NAME + 4 + NAME_MAX;
+    private static final int HEADER_SIZE = 4096;
+
+    /** Atomic OR on a long inside the mapped file (offsets are 8-byte aligned). */
+    private static final VarHandle WORD =
+            MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    final String  transferId;
+    final String  fileName;
+    final long    totalBytes;
+    final int     chunkSize;
+    final int     chunkCount;
+    final boolean staged;
+    final String  checksum;
+    final Path    file;
+
+    private final boolean fsync;
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+
+    private UploadJournal(String transferId, String fileName, long totalBytes, int chunkSize, int chunkCount,
+                          boolean staged, String checksum, Path file, boolean fsync,
+                          FileChannel channel, MappedByteBuffer map) {
+        this.transferId = transferId;
+        this.fileName   = fileName;
+        this.totalBytes = totalBytes;
+        this.chunkSize  = chunkSize;
+        this.chunkCount = chunkCount;
+        this.staged     = staged;
+        this.checksum   = checksum;
+        this.file       = file;
+        this.fsync      = fsync;
+        this.channel    = channel;
+        this.map        = map;
+    }
+
+    static Path fileFor(Path dir, String transferId) {
+        return dir.resolve(transferId + SUFFIX);
+    }
+
+    /**
+     * create
+     * ------
+     * Baby-English:
+     *   ✔ Start a fresh journal (all bits clear) for a new upload.
+     */
+    static UploadJournal create(Path file, String transferId, String fileName, long totalBytes,
+                                int chunkSize, int chunkCount, boolean staged, String checksum,
+                                boolean fsync) throws IOException {
+        byte[] name = fileName.getBytes(StandardCharsets.UTF_8);
+        byte[] sum = (checksum == null) ? new byte[0] : checksum.getBytes(StandardCharsets.UTF_8);
+        if (name.length > NAME_MAX) throw new IOException("File name too long for journal");
+        if (sum.length > CHECKSUM_MAX) sum = new byte[0];
+
+        FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_WRITE, 0, sizeFor(chunkCount));
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            map.putInt(4, VERSION);
+            map.putLong(8, totalBytes);
+            map.putInt(16, chunkSize);
+            map.putInt(20, chunkCount);
+            map.put(24, (byte) (staged ? 1 : 0));
+            map.putInt(OFF_NAME, name.length);
+            map.put(OFF_NAME + 4, name);
+            map.putInt(OFF_CHECKSUM, sum.length);
+            map.put(OFF_CHECKSUM + 4, sum);
+            map.force();
+            map.putInt(0, MAGIC);
+            map.force(0, 4);
+
+            return new UploadJournal(transferId, fileName, totalBytes, chunkSize, chunkCount, staged,
+                    checksum, file, fsync, ch, map);
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    /**
+     * load
+     * ----
+     * Baby-English:
+     *   ✔ Re-open a journal left behind by an earlier run.
+     *   ✔ Returns null when the file is not a complete journal (then it is safe to drop).
+     */
+    static UploadJournal load(Path file, boolean fsync) throws IOException {
+        String name = file.getFileName().toString();
+        if (!name.endsWith(SUFFIX)) return null;
+        String transferId = name.substring(0, name.length() - SUFFIX.length());
+
+        FileChannel ch = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long size = ch.size();
+            if (size < HEADER_SIZE) {
+                ch.close();
+                return null;
+            }
+            MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            map.order(ByteOrder.LITTLE_ENDIAN);
+
+            int chunkCount = map.getInt(20);
+            int nameLen = map.getInt(OFF_NAME);
+            int sumLen = map.getInt(OFF_CHECKSUM);
+            if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION
+                    || chunkCount <= 0 || size < sizeFor(chunkCount)
+                    || nameLen <= 0 || nameLen > NAME_MAX || sumLen < 0 || sumLen > CHECKSUM_MAX) {
+                ch.close();
+                return null;
+            }
+
+            byte[] nameBytes = new byte[nameLen];
+            map.get(OFF_NAME + 4, nameBytes);
+            byte[] sumBytes = new byte[sumLen];
+            map.get(OFF_CHECKSUM + 4, sumBytes);
+
+            return new UploadJournal(transferId,
+                    new String(nameBytes, StandardCharsets.UTF_8),
+                    map.getLong(8),
+                    map.getInt(16),
+                    chunkCount,
+                    map.get(24) == 1,
+                    (sumLen == 0) ? null : new String(sumBytes, StandardCharsets.UTF_8),
+                    file, fsync, ch, map);
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    private static long sizeFor(int chunkCount) {
+        return HEADER_SIZE + 8L * ((chunkCount + 63) >>> 6);
+    }
+
+    /**
+     * mark
+     * ----
+     * Baby-English:
+     *   ✔ "Chunk N is on disk." One atomic OR, safe from many threads.
+     */
+    void mark(int chunkIndex) {
+        int offset = HEADER_SIZE + 8 * (chunkIndex >>> 6);
+        WORD.getAndBitwiseOr(map, offset, 1L << (chunkIndex & 63));
+        if (fsync) map.force(offset, 8);
+    }
+
+    boolean isMarked(int chunkIndex) {
+        long word = (long) WORD.getVolatile(map, HEADER_SIZE + 8 * (chunkIndex >>> 6));
+        return (word & (1L << (chunkIndex & 63))) != 0;
+    }
+
+    boolean fsync() {
+        return fsync;
+    }
+
+    /** Close and remove the journal once the upload is finished. */
+    void delete() {
+        try {
+            close();
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LoggerUtil.warn("[Journal] Could not delete " + file + ": " + e.getMessage(), transferId);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel.isOpen()) channel.close();
+    }
+}
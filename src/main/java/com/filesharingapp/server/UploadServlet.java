@@ -1,17 +1,22 @@
 package com.filesharingapp.server;
 
 import com.filesharingapp.core.TransferContext;
-import com.filesharingapp.security.AesUtil;
+import com.filesharingapp.security.SegmentedGcm;
+import com.filesharingapp.utils.AppConfig;
+import com.filesharingapp.utils.HashUtil;
 import com.filesharingapp.utils.LoggerUtil;
+import jakarta.servlet.AsyncContext;
 import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletInputStream;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Base64;
 
 /**
  * UploadServlet
@@ -19,14 +24,45 @@ import java.nio.file.Path;
  * Baby-English:
  *   ✔ Browser or Sender POSTs file data to /upload.
  *   ✔ Supports:
- *       - Chunk mode (many small pieces)
+ *       - Chunk mode (many small pieces), by chunkIndex or by chunkOffset + chunkLength
  *       - Stream mode (one big upload)
  *       - Resume using Range or X-Resume-Offset
- *       - AES decrypt if enabled
+ *       - AES decrypt if enabled: X-AES-Password is only a flag, the password is the
+ *         receiver's own (asked on this side, never sent). Chunks also send X-AES-Header,
+ *         the SegmentedGcm header their segments were sealed under; a sender with another
+ *         password cannot produce segments that open here.
+ *       - Per-chunk CRC32C (X-Chunk-CRC32C) and hash (X-Chunk-Hash) checks;
+ *         a corrupt chunk gets 422 and is resent alone
+ *       - Whole-file check (X-Checksum) when the last chunk lands; a mismatch gets 409,
+ *         the file is thrown away and the sender uploads it again
+ *       - Any other chunk error gets 500 for that request only: the transfer stays
+ *         IN_PROGRESS and the sender resends the chunk
  *       - JSON response for UI
+ *
+ *   ✔ I/O mode (server.io.mode):
+ *       - blocking (default) → the request thread reads the whole chunk.
+ *       - async → chunk bodies are read with a ReadListener (AsyncChunkReader);
+ *         the thread is only busy while bytes are actually arriving.
+ *         Stream mode always stays blocking.
  */
 public class UploadServlet extends HttpServlet {
 
+    /** 0 = no async timeout; the connector idle timeout still drops dead clients. */
+    private static final long ASYNC_TIMEOUT_MS = AppConfig.getLong("server.async.timeoutMs", 0L);
+
+    /** 422: the chunk arrived whole but does not match X-Chunk-CRC32C / X-Chunk-Hash (servlet API has no constant). */
+    static final int SC_UNPROCESSABLE_ENTITY = 422;
+
+    private final boolean asyncIo;
+
+    public UploadServlet() {
+        this(false);
+    }
+
+    public UploadServlet(boolean asyncIo) {
+        this.asyncIo = asyncIo;
+    }
+
     @Override
     protected void doPost(HttpServletRequest req,
                           HttpServletResponse resp) throws ServletException, IOException {
@@ -39,10 +75,17 @@ public class UploadServlet extends HttpServlet {
         String transferId = firstNonBlank(req.getParameter("transferId"), req.getHeader("X-Transfer-Id"));
         String fileName = firstNonBlank(req.getParameter("fileName"), req.getHeader("X-File-Name"));
         String chunkIndexStr = firstNonBlank(req.getParameter("chunkIndex"), req.getHeader("X-Chunk-Index"));
+        String chunkOffsetStr = firstNonBlank(req.getParameter("chunkOffset"), req.getHeader("X-Chunk-Offset"));
+        String chunkLengthStr = firstNonBlank(req.getParameter("chunkLength"), req.getHeader("X-Chunk-Length"));
+        String chunkSizeStr = firstNonBlank(req.getParameter("chunkSize"), req.getHeader("X-Chunk-Size"));
+        String chunkCountStr = firstNonBlank(req.getParameter("chunkCount"), req.getHeader("X-Chunk-Count"));
+        String chunkHash = firstNonBlank(req.getParameter("chunkHash"), req.getHeader("X-Chunk-Hash"));
+        String chunkCrcStr = firstNonBlank(req.getParameter("chunkCrc32c"), req.getHeader("X-Chunk-CRC32C"));
         String totalBytesStr = firstNonBlank(req.getParameter("totalBytes"), req.getHeader("X-Total-Bytes"));
         String checksum = firstNonBlank(req.getParameter("checksum"), req.getHeader("X-Checksum"));
         String resumeOffsetStr = req.getHeader("X-Resume-Offset");
-        String aesPassword = req.getHeader("X-AES-Password"); // optional AES key
+        boolean aesEnabled = req.getHeader("X-AES-Password") != null; // flag only, never the key
+        String aesHeaderStr = req.getHeader("X-AES-Header");  // chunk mode: SegmentedGcm header (base64)
 
         // ------------------------------------------------------
         // 2) Validate required fields
@@ -53,10 +96,12 @@ public class UploadServlet extends HttpServlet {
             return;
         }
 
+        // Stream mode may say -1: a sender pipeline does not know the final size yet.
+        boolean streamMode = (chunkIndexStr == null && chunkOffsetStr == null);
         long totalBytes;
         try {
             totalBytes = Long.parseLong(totalBytesStr);
-            if (totalBytes < 0) throw new NumberFormatException("negative");
+            if (totalBytes < 0 && !(streamMode && totalBytes == -1)) throw new NumberFormatException("negative");
         } catch (NumberFormatException e) {
             resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
             resp.getWriter().write("{\"status\":\"error\",\"message\":\"Invalid totalBytes\"}");
@@ -86,15 +131,107 @@ public class UploadServlet extends HttpServlet {
             }
         }
 
-        boolean isChunkMode = (chunkIndexStr != null);
+        // Offset mode: variable-sized chunks addressed by byte offset (chunkSize = block unit).
+        boolean isOffsetMode = (chunkOffsetStr != null);
+        boolean isChunkMode = (chunkIndexStr != null) || isOffsetMode;
+        long chunkOffset = 0L;
+        long chunkLength = 0L;
         int chunkIndex = 0;
-        if (isChunkMode) {
+        int chunkSize = 0;  // 0 → not declared, server falls back to staged chunk files
+        int chunkCount = 0; // 0 → not declared, derived from totalBytes / chunkSize
+        if (isOffsetMode) {
             try {
-                chunkIndex = Integer.parseInt(chunkIndexStr);
-                if (chunkIndex < 0) throw new NumberFormatException("negative chunk index");
+                chunkOffset = Long.parseLong(chunkOffsetStr);
+                chunkLength = Long.parseLong(chunkLengthStr == null ? "" : chunkLengthStr);
+                if (chunkOffset < 0 || chunkLength < 0) throw new NumberFormatException("negative");
             } catch (NumberFormatException ex) {
                 resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-                resp.getWriter().write("{\"status\":\"error\",\"message\":\"Invalid chunkIndex\"}");
+                resp.getWriter().write("{\"status\":\"error\",\"message\":\"Invalid chunkOffset or chunkLength\"}");
+                return;
+            }
+            if (isBlank(chunkSizeStr)) {
+                resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                resp.getWriter().write("{\"status\":\"error\",\"message\":\"chunkOffset needs chunkSize (block size)\"}");
+                return;
+            }
+        }
+        if (isChunkMode) {
+            if (!isOffsetMode) {
+                try {
+                    chunkIndex = Integer.parseInt(chunkIndexStr);
+                    if (chunkIndex < 0) throw new NumberFormatException("negative chunk index");
+                } catch (NumberFormatException ex) {
+                    resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                    resp.getWriter().write("{\"status\":\"error\",\"message\":\"Invalid chunkIndex\"}");
+                    return;
+                }
+            }
+            if (!isBlank(chunkSizeStr)) {
+                try {
+                    chunkSize = Integer.parseInt(chunkSizeStr);
+                    if (chunkSize <= 0) throw new NumberFormatException("non-positive chunk size");
+                } catch (NumberFormatException ex) {
+                    resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                    resp.getWriter().write("{\"status\":\"error\",\"message\":\"Invalid chunkSize\"}");
+                    return;
+                }
+            }
+            if (!isBlank(chunkCountStr)) {
+                try {
+                    chunkCount = Integer.parseInt(chunkCountStr);
+                    if (chunkCount <= 0) throw new NumberFormatException("non-positive chunk count");
+                } catch (NumberFormatException ex) {
+                    resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                    resp.getWriter().write("{\"status\":\"error\",\"message\":\"Invalid chunkCount\"}");
+                    return;
+                }
+            }
+            // Sender and server must agree on the layout, or the bitmap never completes.
+            if (chunkSize > 0 && chunkCount > 0
+                    && chunkCount != ChunkUploadService.expectedChunkCount(totalBytes, chunkSize)) {
+                resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                resp.getWriter().write("{\"status\":\"error\",\"message\":\"chunkCount does not match totalBytes/chunkSize\"}");
+                return;
+            }
+            if (chunkCount > 0 && chunkIndex >= chunkCount) {
+                resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                resp.getWriter().write("{\"status\":\"error\",\"message\":\"chunkIndex out of range\"}");
+                return;
+            }
+        }
+        Integer chunkCrc = null; // CRC32C of the body as sent (base64 of 4 big-endian bytes)
+        if (isChunkMode && !isBlank(chunkCrcStr)) {
+            try {
+                chunkCrc = HashUtil.parseCrc32cHeader(chunkCrcStr);
+            } catch (IllegalArgumentException ex) {
+                resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                resp.getWriter().write("{\"status\":\"error\",\"message\":\"Invalid X-Chunk-CRC32C\"}");
+                return;
+            }
+        }
+        // The password is shared out of band: the receiver typed it in, the sender never sends it.
+        String aesPassword = null;
+        if (aesEnabled) {
+            aesPassword = TransferContext.getAesPassword();
+            if (isBlank(aesPassword)) {
+                LoggerUtil.warn("[AES] Encrypted upload refused: no AES password set on this receiver", transferId);
+                resp.setStatus(HttpServletResponse.SC_FORBIDDEN);
+                resp.getWriter().write("{\"status\":\"error\",\"message\":\"No AES password set on the receiver\"}");
+                return;
+            }
+        }
+        // AES chunks are SegmentedGcm segments (one per block), opened with the sender's header.
+        // Every chunk of one upload shares the salt → its key is stretched once, then cached.
+        SegmentedGcm aes = null;
+        if (isChunkMode && aesEnabled) {
+            try {
+                if (isBlank(aesHeaderStr) || chunkSize <= 0) throw new IOException("missing header or chunkSize");
+                aes = SegmentedGcm.open(aesPassword,
+                        Base64.getDecoder().decode(aesHeaderStr.trim()));
+                if (aes.segmentBytes() != chunkSize) throw new IOException("segment size is not the chunk size");
+            } catch (IOException | IllegalArgumentException ex) {
+                resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                resp.getWriter().write("{\"status\":\"error\",\"message\":\"Invalid X-AES-Header\"}");
                 return;
             }
         }
@@ -102,14 +239,16 @@ public class UploadServlet extends HttpServlet {
         // ------------------------------------------------------
         // 5) Initialize TransferStatusRegistry
         // ------------------------------------------------------
-        if (!isChunkMode || chunkIndex == 0) {
-            TransferStatusRegistry.begin(transferId, safeFileName, totalBytes);
-        }
-        TransferStatusRegistry.setProtocol("HTTP");
-        TransferStatusRegistry.setResumeOffset(resumeOffset);
-        TransferStatusRegistry.setAesEnabled(aesPassword != null);
+        // Stream mode starts a fresh entry; chunks may arrive in any order,
+        // so chunk mode re-uses the entry of whichever chunk came first.
+        TransferStatusRegistry.Entry status = isChunkMode
+                ? TransferStatusRegistry.open(transferId, safeFileName, totalBytes)
+                : TransferStatusRegistry.begin(transferId, safeFileName, totalBytes);
+        status.setProtocol("HTTP");
+        status.setResumeOffset(resumeOffset);
+        status.setAesEnabled(aesEnabled);
         if (!isBlank(checksum)) {
-            TransferStatusRegistry.setChecksum(checksum);
+            status.setChecksum(checksum);
             TransferContext.setExpectedChecksum(checksum);
         }
         TransferContext.setIncomingName(safeFileName);
@@ -132,13 +271,14 @@ public class UploadServlet extends HttpServlet {
                         aesPassword // decrypt if AES enabled
                 );
 
-                TransferStatusRegistry.complete(saved.toAbsolutePath().toString());
+                status.complete(saved.toAbsolutePath().toString());
 
                 String json = "{"
                         + "\"status\":\"ok\","
                         + "\"merged\":true,"
-                        + "\"received\":" + totalBytes + ","
+                        + "\"received\":" + (totalBytes < 0 ? Files.size(saved) : totalBytes) + ","
                         + "\"resumeFrom\":0,"
+                        + (totalBytes < 0 ? "\"sha256\":\"" + escapeJson(status.getChecksum()) + "\"," : "")
                         + "\"transferId\":\"" + escapeJson(transferId) + "\""
                         + "}";
                 resp.setStatus(HttpServletResponse.SC_OK);
@@ -149,60 +289,68 @@ public class UploadServlet extends HttpServlet {
                 // ======================
                 // CHUNK MODE
                 // ======================
-                byte[] body;
-                try (InputStream in = req.getInputStream();
-                     ByteArrayOutputStream bos = new ByteArrayOutputStream()) {
-                    byte[] buf = new byte[8192];
-                    int len;
-                    while ((len = in.read(buf)) != -1) {
-                        bos.write(buf, 0, len);
-                    }
-                    body = bos.toByteArray();
+                if (asyncIo && req.isAsyncSupported()) {
+                    ChunkUploadService.ChunkWriter writer = isOffsetMode
+                            ? ChunkUploadService.openChunkAt(transferId, safeFileName, chunkOffset, chunkLength,
+                                    chunkSize, totalBytes, aes, chunkHash, chunkCrc)
+                            : ChunkUploadService.openChunk(transferId, safeFileName, chunkIndex, chunkSize,
+                                    chunkCount, totalBytes, aes, chunkCrc);
+                    AsyncContext async = req.startAsync();
+                    async.setTimeout(ASYNC_TIMEOUT_MS);
+                    ServletInputStream in = req.getInputStream();
+                    in.setReadListener(new AsyncChunkReader(async, in, writer, status,
+                            transferId, safeFileName, resumeOffset));
+                    return;
                 }
 
-                // AES decrypt if enabled
-                if (aesPassword != null) {
-                    try {
-                        body = AesUtil.decrypt(body, aesPassword);
-                    } catch (Exception e) {
-                        LoggerUtil.error("[AES] Chunk decryption failed", e);
-                        resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-                        resp.getWriter().write("{\"status\":\"error\",\"message\":\"AES decryption failed\"}");
-                        return;
-                    }
+                // The body is streamed straight to its file position (never buffered whole);
+                // AES decrypt (if enabled) happens once, inside ChunkUploadService.
+                String result;
+                try (InputStream in = req.getInputStream()) {
+                    result = isOffsetMode
+                            ? ChunkUploadService.handleChunkAt(transferId, safeFileName, chunkOffset, chunkLength,
+                                    chunkSize, totalBytes, in, aes, chunkHash, chunkCrc)
+                            : ChunkUploadService.handleChunk(
+                            transferId,
+                            safeFileName,
+                            chunkIndex,
+                            chunkSize,
+                            chunkCount,
+                            totalBytes,
+                            in,
+                            aes,
+                            chunkCrc
+                    );
                 }
 
-                String result = ChunkUploadService.handleChunk(
-                        transferId,
-                        safeFileName,
-                        chunkIndex,
-                        totalBytes,
-                        body,
-                        aesPassword
-                );
-
-                TransferStatusRegistry.addBytes(body.length);
+                // Byte accounting for chunks is done by ChunkUploadService.
                 boolean merged = "MERGED".equalsIgnoreCase(result);
                 if (merged) {
-                    TransferStatusRegistry.complete(Path.of("received", safeFileName).toAbsolutePath().toString());
+                    status.complete(Path.of("received", safeFileName).toAbsolutePath().toString());
                 }
 
-                long receivedNow = TransferStatusRegistry.getBytesWritten();
-                String json = "{"
-                        + "\"status\":\"ok\","
-                        + "\"merged\":" + merged + ","
-                        + "\"received\":" + receivedNow + ","
-                        + "\"resumeFrom\":" + resumeOffset + ","
-                        + "\"transferId\":\"" + escapeJson(transferId) + "\""
-                        + "}";
                 resp.setStatus(HttpServletResponse.SC_OK);
-                resp.getWriter().write(json);
+                resp.getWriter().write(chunkResponseJson(merged, status, resumeOffset, transferId));
             }
 
+        } catch (ChunkUploadService.CorruptChunkException ex) {
+            // Only this chunk is bad: the transfer goes on, the sender resends it.
+            resp.setStatus(SC_UNPROCESSABLE_ENTITY);
+            resp.getWriter().write(corruptChunkJson(ex, transferId));
+        } catch (ChunkUploadService.CorruptFileException ex) {
+            // The whole file was bad: the server threw it away, the sender uploads it again.
+            resp.setStatus(HttpServletResponse.SC_CONFLICT);
+            resp.getWriter().write(corruptFileJson(ex, transferId));
         } catch (Exception ex) {
-            LoggerUtil.error("Upload failed", ex);
-            TransferStatusRegistry.fail(ex.getMessage());
             resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            if (isChunkMode) {
+                // One chunk failed (its claimed blocks are free again); the transfer stays resumable.
+                LoggerUtil.warn("[UploadChunk] Chunk failed, waiting for a resend: " + ex.getMessage(), transferId);
+                resp.getWriter().write(chunkFailedJson(transferId));
+                return;
+            }
+            LoggerUtil.error("Upload failed", ex);
+            status.fail(ex.getMessage());
             resp.getWriter().write("{\"status\":\"error\",\"message\":\"Upload failed on server\"}");
         }
     }
@@ -210,6 +358,49 @@ public class UploadServlet extends HttpServlet {
     // ====================
     // Helper methods
     // ====================
+    /** JSON answer for a chunk that failed on the server; only this request failed (shared with AsyncChunkReader). */
+    static String chunkFailedJson(String transferId) {
+        return "{"
+                + "\"status\":\"error\","
+                + "\"retry\":true,"
+                + "\"message\":\"Chunk failed on server; send it again\","
+                + "\"transferId\":\"" + escapeJson(transferId) + "\""
+                + "}";
+    }
+
+    /** JSON answer for a chunk that failed its hash check (shared with AsyncChunkReader). */
+    static String corruptChunkJson(ChunkUploadService.CorruptChunkException ex, String transferId) {
+        return "{"
+                + "\"status\":\"error\","
+                + "\"corrupt\":true,"
+                + "\"message\":\"" + escapeJson(ex.getMessage()) + "\","
+                + "\"transferId\":\"" + escapeJson(transferId) + "\""
+                + "}";
+    }
+
+    /** JSON answer when the finished file failed its whole-file check (shared with AsyncChunkReader). */
+    static String corruptFileJson(ChunkUploadService.CorruptFileException ex, String transferId) {
+        return "{"
+                + "\"status\":\"error\","
+                + "\"corrupt\":true,"
+                + "\"reset\":true,"
+                + "\"message\":\"" + escapeJson(ex.getMessage()) + "\","
+                + "\"transferId\":\"" + escapeJson(transferId) + "\""
+                + "}";
+    }
+
+    /** JSON answer for one stored chunk (shared with AsyncChunkReader). */
+    static String chunkResponseJson(boolean merged, TransferStatusRegistry.Entry status,
+                                    long resumeOffset, String transferId) {
+        return "{"
+                + "\"status\":\"ok\","
+                + "\"merged\":" + merged + ","
+                + "\"received\":" + status.getBytesWritten() + ","
+                + "\"resumeFrom\":" + resumeOffset + ","
+                + "\"transferId\":\"" + escapeJson(transferId) + "\""
+                + "}";
+    }
+
     private static String firstNonBlank(String a, String b) {
         if (a != null && !a.trim().isEmpty()) return a.trim();
         if (b != null && !b.trim().isEmpty()) return b.trim();
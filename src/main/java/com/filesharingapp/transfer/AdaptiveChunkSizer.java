@@ -0,0 +1,106 @@
+package com.filesharingapp.transfer;
+
+import com.filesharingapp.utils.AppConfig;
+import com.filesharingapp.utils.LoggerUtil;
+
+/**
+ * AdaptiveChunkSizer
+ * ------------------
+ * Baby-English:
+ *   ✔ Picks the size of the NEXT chunk from what the link did so far.
+ *   ✔ Every chunk costs about one round trip (RTT) of overhead, then its bytes.
+ *   ✔ We want each chunk to take about TARGET_RTTS round trips:
+ *       ideal = goodput per stream × RTT × TARGET_RTTS
+ *     → WAN (big RTT)  → bigger chunks, fewer wasted round trips.
+ *     → LAN (tiny RTT) → smaller chunks are already cheap.
+ *   ✔ A failed chunk halves the size (lossy link → lose less per retry).
+ *   ✔ Moves at most ×2 or ÷2 per step, stays within [min, max],
+ *     always a whole number of blocks (the server's chunkSize).
+ *
+ * Config (application.properties):
+ *   http.upload.chunk.minBytes     → smallest chunk (also the block size of fresh uploads)
+ *   http.upload.chunk.maxBytes     → largest chunk (memory per stream, resume granularity)
+ *   http.upload.chunk.initialBytes → first chunk size
+ *   http.upload.chunk.targetRtts   → round trips each chunk should take
+ *   http.upload.chunk.adaptive     → false = always initialBytes
+ */
+final class AdaptiveChunkSizer {
+
+    static final int MIN_BYTES = Math.max(4096, AppConfig.getInt("http.upload.chunk.minBytes", 64 * 1024));
+    static final int MAX_BYTES = Math.max(MIN_BYTES, AppConfig.getInt("http.upload.chunk.maxBytes", 4 * 1024 * 1024));
+    static final int INITIAL_BYTES = AppConfig.getInt("http.upload.chunk.initialBytes", 256 * 1024);
+    private static final double TARGET_RTTS = Math.max(1.0, AppConfig.getDouble("http.upload.chunk.targetRtts", 8.0));
+    private static final boolean ADAPTIVE = AppConfig.getBoolean("http.upload.chunk.adaptive", true);
+
+    /** Weight of the newest goodput sample (EWMA). */
+    private static final double ALPHA = 0.3;
+
+    private final int block;
+    private final int min;
+    private final int max;
+    private final String transferId;
+
+    private int size;
+    private long rttNanos = Long.MAX_VALUE; // smallest request time seen: RTT + fixed server cost
+    private double goodput;                 // bytes per second per stream (EWMA)
+
+    AdaptiveChunkSizer(int block, String transferId) {
+        this.block = block;
+        this.min = roundToBlock(Math.max(MIN_BYTES, block));
+        this.max = Math.max(min, roundToBlock(MAX_BYTES));
+        this.size = clamp(roundToBlock(INITIAL_BYTES));
+        this.transferId = transferId;
+    }
+
+    /** Bytes for the next chunk (a whole number of blocks). */
+    synchronized int chunkBytes() {
+        return size;
+    }
+
+    synchronized long rttMillis() {
+        return rttNanos == Long.MAX_VALUE ? -1 : rttNanos / 1_000_000L;
+    }
+
+    /** A small request (e.g. the /status probe) → first RTT estimate. */
+    synchronized void onRtt(long nanos) {
+        if (nanos > 0) rttNanos = Math.min(rttNanos, nanos);
+    }
+
+    /** One chunk of "bytes" took "nanos" from request to response. */
+    synchronized void onChunk(int bytes, long nanos) {
+        if (nanos <= 0 || bytes <= 0) return;
+        rttNanos = Math.min(rttNanos, nanos);
+
+        double transferSeconds = Math.max(nanos - rttNanos, nanos / 10) / 1e9;
+        double sample = bytes / transferSeconds;
+        goodput = (goodput == 0) ? sample : ALPHA * sample + (1 - ALPHA) * goodput;
+
+        if (!ADAPTIVE) return;
+        double ideal = goodput * (rttNanos / 1e9) * TARGET_RTTS;
+        int next = (int) Math.max(size / 2.0, Math.min(size * 2.0, ideal));
+        resize(clamp(roundToBlock(next)), "rtt " + rttNanos / 1_000_000L + " ms, "
+                + (long) (goodput / 1024) + " KiB/s per stream");
+    }
+
+    /** A chunk failed → halve. */
+    synchronized void onError() {
+        if (ADAPTIVE) resize(clamp(roundToBlock(size / 2)), "error");
+    }
+
+    private void resize(int next, String why) {
+        if (next != size) {
+            LoggerUtil.info("📏 [HTTP] Chunk size " + size / 1024 + " → " + next / 1024 + " KiB (" + why + ")",
+                    transferId);
+            size = next;
+        }
+    }
+
+    private int roundToBlock(long bytes) {
+        long blocks = Math.max(1, bytes / block);
+        return (int) Math.min(Integer.MAX_VALUE - block, blocks * block);
+    }
+
+    private int clamp(int bytes) {
+        return Math.max(min, Math.min(max, bytes));
+    }
+}
@@ -1,15 +1,31 @@
 package com.filesharingapp.transfer;
 
-import com.filesharingapp.security.AesUtil;
+import com.filesharingapp.security.CipherSuites;
+import com.filesharingapp.security.CryptoSession;
+import com.filesharingapp.security.SegmentedGcm;
+import com.filesharingapp.utils.AppConfig;
 import com.filesharingapp.utils.HashUtil;
 import com.filesharingapp.utils.LoggerUtil;
 import com.filesharingapp.utils.RetryUtil;
+import com.filesharingapp.utils.TreeHash;
 
 import java.io.*;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.net.URI;
 import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * HttpTransferHandler
@@ -17,27 +33,77 @@ import java.nio.charset.StandardCharsets;
  * Baby-English:
  *   ✔ This class does the "hard work" of sending bytes over HTTP.
  *   ✔ Supports:
- *       - Resume (ask server how many bytes it has)
- *       - Chunked mode (optional)
- *       - AES encryption before upload
+ *       - Chunked upload (one POST per chunk, addressed by byte offset)
+ *       - Chunk size tuned to RTT × goodput (AdaptiveChunkSizer)
+ *       - Parallel streams, AIMD-tuned (ParallelChunkUploader)
+ *       - Resume (ask server which chunks are missing, resend only those)
+ *       - AES-256-GCM or ChaCha20-Poly1305 encryption before upload
+ *         (suite agreed with the receiver, see CipherSuites)
+ *       - HTTP/2 (h2c) multiplexing when the receiver supports it, else HTTP/1.1
  *       - Retry with backoff
- *       - Checksum validation after upload
+ *       - Per-chunk CRC32C (X-Chunk-CRC32C), optional block hashes (X-Chunk-Hash):
+ *         a corrupt chunk is resent alone
+ *       - One-pass streaming upload from a SendPipeline (no temp files)
+ *       - Checksum / Merkle root validation after upload; a mismatch fails the
+ *         attempt and the retry sends the file again
  */
 public final class HttpTransferHandler {
 
-    private static final int CHUNK_SIZE = 256 * 1024; // 256 KB
+    /** Block size of fresh uploads; chunks are whole runs of blocks (see AdaptiveChunkSizer). */
+    private static final int BLOCK_SIZE = AdaptiveChunkSizer.MIN_BYTES;
     private static final int CONNECT_TIMEOUT_MS = 5000;
     private static final int READ_TIMEOUT_MS = 15000;
 
+    /** Send X-Chunk-CRC32C with every chunk: cheap, checked by the server before it keeps the chunk. */
+    private static final boolean CRC_CHUNKS = AppConfig.getBoolean("http.upload.chunk.crc32c", true);
+
+    /**
+     * Also send X-Chunk-Hash (SHA-256 of the chunk's blocks, computed inline).
+     * false → the end-to-end tree hash is built in the background instead, off the send path.
+     */
+    private static final boolean VERIFY_CHUNKS = AppConfig.getBoolean("http.upload.chunk.verify", false);
+
+    /** How long to wait for a receiver that checks the whole file in the background (VERIFYING). */
+    private static final long VERIFY_WAIT_MS = AppConfig.getLong("http.upload.verifyWaitSeconds", 600L) * 1000L;
+    private static final long VERIFY_POLL_MS = 250L;
+
+    /** Shared client: pools connections and negotiates HTTP/2 (h2c) when the receiver offers it. */
+    private static final HttpClient CLIENT = HttpClient.newBuilder()
+            .version(AppConfig.getBoolean("http.client.http2", true)
+                    ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofMillis(CONNECT_TIMEOUT_MS))
+            .build();
+
+    /**
+     * Client for chunk POSTs. Default: HTTP/1.1, so every parallel stream is its own TCP
+     * connection with its own congestion window (the win on long fat networks).
+     * http.upload.multiplex=true → chunks share the HTTP/2 connection instead.
+     */
+    private static final HttpClient UPLOAD_CLIENT = AppConfig.getBoolean("http.upload.multiplex", false)
+            ? CLIENT
+            : HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .connectTimeout(Duration.ofMillis(CONNECT_TIMEOUT_MS))
+                    .build();
+
+    private static volatile boolean loggedHttp2;
+
     private HttpTransferHandler() {}
 
     /**
      * uploadWithResume
      * Baby-English:
-     *   ✔ Ask /status for resume offset.
-     *   ✔ Encrypt file if AES enabled.
-     *   ✔ Send remaining bytes to /upload.
-     *   ✔ Verify checksum after upload.
+     *   ✔ Ask /status which chunks the server is missing.
+     *   ✔ Encrypt each chunk if AES enabled.
+     *   ✔ Send only the missing chunks to /upload, several at once.
+     *   ✔ A failed attempt is retried; the retry asks /status again,
+     *     so a late failure costs a small top-up, not a full resend.
+     *   ✔ Each chunk carries a CRC32C (and, if enabled, the hash of its blocks); a chunk
+     *     damaged on the way is refused (422) and only that chunk is read and sent again.
+     *   ✔ The end-to-end SHA-256 tree is built on spare cores while chunks fly.
+     *   ✔ Verify checksum (or the Merkle root of the block hashes) after upload.
+     *     A mismatch (or a receiver that did not finish) fails the attempt, so the
+     *     retry asks /status again and sends what the receiver is missing.
      *
      * @param file       File to upload
      * @param transferId Unique transfer ID
@@ -60,9 +126,19 @@ public final class HttpTransferHandler {
             throw new IllegalArgumentException("transferId cannot be empty");
         }
 
+        // Key stretched once for the whole transfer (every attempt and every chunk reuses it),
+        // for the cipher suite both sides run fastest.
+        CryptoSession session = null;
+        if (aesPassword != null) {
+            byte suite = CipherSuites.negotiate(receiverCipherSuites(host, port));
+            LoggerUtil.info("🔐 Cipher suite: " + CipherSuites.name(suite), transferId);
+            session = CryptoSession.create(aesPassword, suite);
+        }
+        CryptoSession transferSession = session;
+
         boolean ok = RetryUtil.runWithRetry(() -> {
             try {
-                doUploadOnce(file, transferId, checksum, host, port, aesPassword);
+                doUploadOnce(file, transferId, checksum, host, port, aesPassword, transferSession);
             } catch (Exception e) {
                 throw new RuntimeException(e);
             }
@@ -76,141 +152,552 @@ public final class HttpTransferHandler {
                                      String checksum,
                                      String host,
                                      int port,
-                                     String aesPassword) throws Exception {
+                                     String aesPassword,
+                                     CryptoSession session) throws Exception {
 
         long fileSize = file.length();
-        long resumeFrom = queryResumeOffset(transferId, host, port);
-        if (resumeFrom < 0 || resumeFrom > fileSize) resumeFrom = 0;
+        long probeStart = System.nanoTime();
+        ResumePlan plan = queryMissingChunks(transferId, host, port, fileSize);
+        long probeNanos = System.nanoTime() - probeStart;
 
-        LoggerUtil.info("🌐 [HTTP] File size=" + fileSize + ", resumeFrom=" + resumeFrom);
+        LoggerUtil.info("🌐 [HTTP] File size=" + fileSize + ", chunkSize=" + plan.chunkSize
+                + ", chunks=" + plan.chunkCount + ", to send=" + plan.chunksToSend()
+                + (plan.known ? " (resume)" : " (fresh)"));
+
+        if (plan.chunksToSend() == 0) {
+            LoggerUtil.success("✅ Server already has every chunk of " + file.getName());
+            verifyChecksumAfterUpload(transferId, host, port, checksum, null);
+            return;
+        }
 
         String uploadUrl = "http://" + host + ":" + port + "/upload";
-        HttpURLConnection conn = (HttpURLConnection) new URL(uploadUrl).openConnection();
-        conn.setConnectTimeout(CONNECT_TIMEOUT_MS);
-        conn.setReadTimeout(READ_TIMEOUT_MS);
-        conn.setDoOutput(true);
-        conn.setRequestMethod("POST");
-
-        // Headers
-        conn.setRequestProperty("X-Transfer-Id", transferId);
-        conn.setRequestProperty("X-File-Name", file.getName());
-        conn.setRequestProperty("X-Total-Bytes", String.valueOf(fileSize));
-        conn.setRequestProperty("X-Resume-Offset", String.valueOf(resumeFrom));
-        if (checksum != null && !checksum.isBlank()) conn.setRequestProperty("X-Checksum", checksum);
-        if (aesPassword != null) conn.setRequestProperty("X-AES-Password", "true");
-
-        conn.setChunkedStreamingMode(CHUNK_SIZE);
-
-        long sent = resumeFrom;
-
-        try (FileInputStream fis = new FileInputStream(file);
-             OutputStream rawOut = conn.getOutputStream();
-             BufferedOutputStream out = new BufferedOutputStream(rawOut)) {
-
-            // Skip already uploaded part
-            long skipped = fis.skip(resumeFrom);
-            if (skipped < resumeFrom) {
-                LoggerUtil.warn("⚠️ Could not skip resume offset. Restarting from 0.");
-                fis.getChannel().position(0);
-                sent = 0;
-            }
+        AdaptiveChunkSizer sizer = new AdaptiveChunkSizer(plan.chunkSize, transferId);
+        sizer.onRtt(probeNanos); // the /status round trip seeds the RTT estimate
+        byte[][] blockHashes = new byte[(int) ((fileSize + plan.chunkSize - 1) / plan.chunkSize)][];
+        // A tree-digest checksum is checked against the receiver's root as it is; only plain
+        // SHA-256 needs our own root at the upload's block size.
+        CompletableFuture<TreeHash.Result> tree = (VERIFY_CHUNKS || TreeHash.isTreeDigest(checksum))
+                ? null : TreeHash.hashAsync(file, plan.chunkSize);
+        // One segment per block; the file's last block carries the "last" flag.
+        long lastSegment = Math.max(1L, (fileSize + plan.chunkSize - 1) / plan.chunkSize) - 1;
+        long sent;
 
-            byte[] buffer = new byte[CHUNK_SIZE];
-            int read;
-            long lastLogTime = System.currentTimeMillis();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // Offset-addressed chunks of adaptive size, many in flight; the server accepts any order.
+            // AES: the worker's buffer has one tag of room per block, so chunks are sealed in place.
+            int tagRoom = (session != null) ? SegmentedGcm.TAG_BYTES : 0;
+            sent = ParallelChunkUploader.upload(plan.missing, plan.chunkSize, fileSize, sizer, tagRoom,
+                    (offset, len, buffer) -> {
+                        // Every POST (a resend too) is its own container with the session's next
+                        // nonce prefix, so no nonce is ever used twice; the server opens it by its header.
+                        SegmentedGcm aes = (session != null) ? SegmentedGcm.create(session, plan.chunkSize) : null;
+                        int sendLen = (aes != null) ? aes.sealedLength(len) : len;
+                        int plainAt = sendLen - len; // plain bytes sit after the room for the tags
 
-            while ((read = fis.read(buffer)) != -1) {
-                byte[] toSend = buffer;
-                int len = read;
+                        readFully(channel, ByteBuffer.wrap(buffer, plainAt, len), offset);
 
-                // AES encrypt if enabled
-                if (aesPassword != null) {
-                    byte[] chunk = new byte[read];
-                    System.arraycopy(buffer, 0, chunk, 0, read);
-                    toSend = AesUtil.encryptChunk(chunk, aesPassword); // Implement encryptChunk in AesUtil
-                    len = toSend.length;
-                }
+                        // Hash every block of the plain text; the server checks before it keeps the chunk.
+                        String chunkHash = null;
+                        if (VERIFY_CHUNKS) {
+                            int first = (int) (offset / plan.chunkSize);
+                            int blocks = (len + plan.chunkSize - 1) / plan.chunkSize;
+                            for (int b = 0; b < blocks; b++) {
+                                int off = b * plan.chunkSize;
+                                blockHashes[first + b] = TreeHash.leafHash(buffer, plainAt + off,
+                                        Math.min(plan.chunkSize, len - off));
+                            }
+                            chunkHash = HashUtil.bytesToHex(TreeHash.chunkHash(blockHashes, first, first + blocks));
+                        }
 
-                out.write(toSend, 0, len);
-                sent += read;
+                        // AES encrypt if enabled: block i of the file is sealed as segment i,
+                        // in place at the front of the same buffer (no new array per chunk).
+                        if (aes != null) {
+                            aes.sealSegments(ByteBuffer.wrap(buffer, plainAt, len), offset / plan.chunkSize,
+                                    lastSegment, ByteBuffer.wrap(buffer, 0, sendLen));
+                        }
 
-                long now = System.currentTimeMillis();
-                if (now - lastLogTime > 1000) {
-                    int percent = (int) ((sent * 100) / fileSize);
-                    LoggerUtil.info("📤 [HTTP] Progress: " + percent + "% (" + sent + "/" + fileSize + ")");
-                    lastLogTime = now;
-                }
+                        // CRC32C of the exact wire bytes (runs at memory speed).
+                        Integer crc = CRC_CHUNKS ? HashUtil.crc32c(buffer, 0, sendLen) : null;
+
+                        postChunk(uploadUrl, file.getName(), transferId, checksum, aes,
+                                fileSize, plan, offset, len, chunkHash, crc, buffer, sendLen);
+                        return len;
+                    }, transferId);
+        }
+
+        LoggerUtil.success("✅ Upload finished. Sent " + sent + " bytes (" + plan.chunksToSend() + " blocks).");
+        String ourRoot = rootTagOf(blockHashes, plan.chunkSize);
+        if (ourRoot == null && tree != null) {
+            try {
+                ourRoot = tree.join().tag();
+            } catch (CompletionException e) {
+                LoggerUtil.warn("⚠️ Background tree hash failed: " + e.getCause().getMessage());
             }
-            out.flush();
         }
+        verifyChecksumAfterUpload(transferId, host, port, checksum, ourRoot);
+    }
+
+    /**
+     * postChunk
+     * ---------
+     * Baby-English:
+     *   ✔ One POST per chunk: its byte offset, its plain-text length,
+     *     and the agreed block layout (X-Chunk-Size = block, X-Chunk-Count = blocks).
+     *   ✔ X-Chunk-CRC32C = CRC32C of the body bytes (base64, S3 style).
+     *   ✔ X-Chunk-Hash = TreeHash.chunkHash of its plain-text blocks (if enabled).
+     *   ✔ AES → the body is sealed SegmentedGcm segments; X-AES-Header = the container header.
+     *     X-AES-Password is only the flag "true": the password never goes on the wire, the
+     *     receiver opens the segments with its own copy (its tags prove we hold the same key).
+     *   ✔ 422 → the server saw corrupt bytes; the exception puts just this chunk back in the queue.
+     *   ✔ 409 → the whole file failed the server's check and was thrown away; resending one
+     *     chunk is useless, so the attempt stops and the retry sends the file again.
+     *   ✔ Any non-2xx → exception → RetryUtil asks /status again and only the holes are resent.
+     */
+    private static void postChunk(String uploadUrl,
+                                  String fileName,
+                                  String transferId,
+                                  String checksum,
+                                  SegmentedGcm aes,
+                                  long fileSize,
+                                  ResumePlan plan,
+                                  long chunkOffset,
+                                  int chunkLength,
+                                  String chunkHash,
+                                  Integer crc32c,
+                                  byte[] body,
+                                  int len) throws IOException {
+
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(uploadUrl))
+                .timeout(Duration.ofMillis(READ_TIMEOUT_MS))
+                .header("X-Transfer-Id", transferId)
+                .header("X-File-Name", fileName)
+                .header("X-Total-Bytes", String.valueOf(fileSize))
+                .header("X-Chunk-Offset", String.valueOf(chunkOffset))
+                .header("X-Chunk-Length", String.valueOf(chunkLength))
+                .header("X-Chunk-Size", String.valueOf(plan.chunkSize))
+                .header("X-Chunk-Count", String.valueOf(plan.chunkCount))
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body, 0, len));
+        if (checksum != null && !checksum.isBlank()) request.header("X-Checksum", checksum);
+        if (aes != null) {
+            request.header("X-AES-Password", "true");
+            request.header("X-AES-Header", Base64.getEncoder().encodeToString(aes.header()));
+        }
+        if (chunkHash != null) request.header("X-Chunk-Hash", chunkHash);
+        if (crc32c != null) request.header("X-Chunk-CRC32C", HashUtil.crc32cHeader(crc32c));
 
-        int code = conn.getResponseCode();
-        String responseText;
-        try (InputStream is = (code >= 200 && code < 300) ? conn.getInputStream() : conn.getErrorStream()) {
-            responseText = (is != null) ? new String(is.readAllBytes(), StandardCharsets.UTF_8) : "";
+        HttpResponse<String> response = send(UPLOAD_CLIENT, request.build());
+        int code = response.statusCode();
+        if (code == 422) {
+            LoggerUtil.warn("⚠️ Chunk at " + chunkOffset + " arrived corrupt (CRC/hash check failed); resending it.",
+                    transferId);
+            throw new IOException("Chunk at " + chunkOffset + " failed the server's hash check");
+        }
+        if (code == 409) {
+            LoggerUtil.error("❌ Receiver rejected the whole file → " + response.body(), transferId);
+            // Unchecked: ParallelChunkUploader must not requeue it, the whole attempt starts over.
+            throw new UncheckedIOException(new IOException("Receiver reset the upload: whole-file check failed"));
+        }
+        if (code < 200 || code >= 300) {
+            LoggerUtil.error("❌ Chunk at " + chunkOffset + " failed: HTTP " + code + " → " + response.body());
+            throw new IOException("Chunk at " + chunkOffset + " upload failed with status " + code);
+        }
+    }
+
+    // ============================================================
+    // Streaming upload: one POST fed straight by a SendPipeline
+    // ============================================================
+
+    /**
+     * uploadStream
+     * ------------
+     * Baby-English:
+     *   ✔ One POST in stream mode; the body is read from the pipeline while
+     *     it is still zipping/encrypting (chunked transfer, size unknown → -1).
+     *   ✔ The server hashes what it wrote and answers "sha256";
+     *     it must equal the pipeline's own digest, or the upload failed.
+     *   ✔ No resume: the bytes exist only while they flow. A failure → send again.
+     *
+     * @return the SHA-256 both sides agreed on
+     */
+    public static String uploadStream(SendPipeline pipeline, String transferId, String host, int port)
+            throws IOException {
+        String uploadUrl = "http://" + host + ":" + port + "/upload";
+        HttpRequest request = HttpRequest.newBuilder(URI.create(uploadUrl))
+                .header("X-Transfer-Id", transferId)
+                .header("X-File-Name", pipeline.getOutputName())
+                .header("X-Total-Bytes", "-1")
+                .POST(HttpRequest.BodyPublishers.ofInputStream(pipeline::stream))
+                .build();
+
+        HttpResponse<String> response;
+        try {
+            response = send(UPLOAD_CLIENT, request);
         } finally {
-            conn.disconnect();
+            pipeline.close(); // no-op when every byte was read; stops the stages otherwise
         }
 
-        if (code >= 200 && code < 300) {
-            LoggerUtil.success("✅ Upload finished. Server replied: " + responseText);
-            verifyChecksumAfterUpload(transferId, host, port, checksum);
-        } else {
-            LoggerUtil.error("❌ Upload failed: HTTP " + code + " → " + responseText);
-            throw new IllegalStateException("Upload failed with status " + code);
+        int code = response.statusCode();
+        if (code < 200 || code >= 300) {
+            throw new IOException("Streaming upload failed with status " + code + " → " + response.body());
         }
+        String checksum = pipeline.checksum();
+        if (!response.body().contains("\"sha256\":\"" + checksum + "\"")) {
+            throw new IOException("Checksum mismatch after streaming upload (sent " + checksum + ")");
+        }
+        LoggerUtil.success("🔒 Streamed " + pipeline.getBytesOut() + " bytes; checksum verified by receiver.",
+                transferId);
+        return checksum;
+    }
+
+    /**
+     * send
+     * ----
+     * Baby-English:
+     *   ✔ Every request goes through ONE shared HttpClient.
+     *   ✔ It asks for HTTP/2: the first request on a connection offers "Upgrade: h2c";
+     *     if the receiver agrees, all later chunks and /status polls are multiplexed
+     *     over that one connection. If not, it quietly stays on HTTP/1.1 keep-alive.
+     */
+    private static HttpResponse<String> send(HttpRequest request) throws IOException {
+        return send(CLIENT, request);
     }
 
-    private static long queryResumeOffset(String transferId, String host, int port) {
+    private static HttpResponse<String> send(HttpClient client, HttpRequest request) throws IOException {
         try {
-            String statusUrl = "http://" + host + ":" + port + "/status?transferId=" +
-                    URLEncoder.encode(transferId, StandardCharsets.UTF_8);
-            HttpURLConnection conn = (HttpURLConnection) new URL(statusUrl).openConnection();
-            conn.setConnectTimeout(CONNECT_TIMEOUT_MS);
-            conn.setReadTimeout(READ_TIMEOUT_MS);
-            conn.setRequestMethod("GET");
-
-            if (conn.getResponseCode() != 200) return 0L;
-            String json;
-            try (InputStream is = conn.getInputStream()) {
-                json = new String(is.readAllBytes(), StandardCharsets.UTF_8);
-            } finally {
-                conn.disconnect();
+            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            if (response.version() == HttpClient.Version.HTTP_2 && !loggedHttp2) {
+                loggedHttp2 = true;
+                LoggerUtil.info("🌐 [HTTP] Receiver speaks HTTP/2 (h2c); requests share one connection.");
             }
+            return response;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("HTTP request interrupted");
+        }
+    }
+
+    private static HttpResponse<String> get(String url) throws IOException {
+        return send(HttpRequest.newBuilder(URI.create(url))
+                .timeout(Duration.ofMillis(READ_TIMEOUT_MS))
+                .GET()
+                .build());
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buf, long offset) throws IOException {
+        long pos = offset;
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, pos);
+            if (n < 0) throw new EOFException("File shrank while uploading (offset " + pos + ")");
+            pos += n;
+        }
+    }
+
+    // ============================================================
+    // Download: pull a file from a remote /download (segmented)
+    // ============================================================
+
+    /**
+     * downloadFile
+     * ------------
+     * Baby-English:
+     *   ✔ Probe with "Range: bytes=0-0" → size, ETag and "does it do ranges?".
+     *   ✔ 206 → SegmentedDownloader fetches N ranges in parallel over the shared client.
+     *   ✔ 200 → the server ignores ranges → one plain stream.
+     */
+    public static void downloadFile(String url, Path target, String transferId) throws IOException {
+        HttpResponse<Void> probe;
+        try {
+            probe = CLIENT.send(HttpRequest.newBuilder(URI.create(url))
+                    .timeout(Duration.ofMillis(READ_TIMEOUT_MS))
+                    .header("Range", "bytes=0-0")
+                    .GET()
+                    .build(), HttpResponse.BodyHandlers.discarding());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Download probe interrupted");
+        }
+
+        int code = probe.statusCode();
+        String etag = probe.headers().firstValue("ETag").orElse(null);
+        Duration timeout = Duration.ofMillis(READ_TIMEOUT_MS);
+        SegmentedDownloader.RangeFetcher fetcher = SegmentedDownloader.httpFetcher(CLIENT, url, etag, timeout);
+
+        if (code == 206 || code == 416) {
+            long total = totalFromContentRange(probe.headers().firstValue("Content-Range").orElse(""));
+            if (total < 0) throw new IOException("Bad Content-Range from " + url);
+            LoggerUtil.info("🌐 [HTTP] " + url + " supports ranges (" + total + " bytes)", transferId);
+            SegmentedDownloader.download(fetcher, total, target, transferId);
+        } else if (code == 200) {
+            long total = probe.headers().firstValueAsLong("Content-Length").orElse(-1L);
+            if (total < 0) throw new IOException("No Content-Length from " + url);
+            LoggerUtil.warn("⚠️ [HTTP] No range support; single stream download.", transferId);
+            SegmentedDownloader.downloadSingle(fetcher, total, target, transferId);
+        } else {
+            throw new IOException("Download probe failed: HTTP " + code + " for " + url);
+        }
+    }
+
+    /** "bytes 0-0/12345" (or the 416 star form) → 12345; -1 when unknown. */
+    static long totalFromContentRange(String contentRange) {
+        int slash = contentRange.lastIndexOf('/');
+        if (slash < 0) return -1;
+        try {
+            return Long.parseLong(contentRange.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // ============================================================
+    // Digest negotiation: can the receiver verify a tree hash?
+    // ============================================================
 
-            long result = extractLongField(json, "bytesWritten");
-            if (result < 0) result = extractLongField(json, "receivedBytes");
-            return Math.max(result, 0);
+    /**
+     * receiverSupportsTreeHash
+     * Baby-English:
+     *   ✔ GET /status?digests=true → does the list contain "tree-sha256"?
+     *   ✔ Old receivers (or no answer) → false → we stay on plain SHA-256.
+     */
+    public static boolean receiverSupportsTreeHash(String host, int port) {
+        try {
+            HttpResponse<String> response = get("http://" + host + ":" + port + "/status?digests=true");
+            return response.statusCode() == 200 && response.body().contains("\"tree-sha256\"");
         } catch (Exception e) {
-            LoggerUtil.warn("⚠️ Could not query resume offset: " + e.getMessage());
-            return 0L;
+            LoggerUtil.warn("⚠️ Could not ask receiver for digest support: " + e.getMessage());
+            return false;
         }
     }
 
-    private static void verifyChecksumAfterUpload(String transferId, String host, int port, String expectedChecksum) {
-        if (expectedChecksum == null || expectedChecksum.isBlank()) return;
+    /**
+     * receiverCipherSuites
+     * Baby-English:
+     *   ✔ GET /status?ciphers=true → the receiver's suites and MB/s (JSON), for CipherSuites.negotiate.
+     *   ✔ Old receivers (or no answer) → null → AES-256-GCM, which every receiver opens.
+     */
+    static String receiverCipherSuites(String host, int port) {
         try {
-            String statusUrl = "http://" + host + ":" + port + "/status?transferId=" +
+            HttpResponse<String> response = get("http://" + host + ":" + port + "/status?ciphers=true");
+            return response.statusCode() == 200 ? response.body() : null;
+        } catch (Exception e) {
+            LoggerUtil.warn("⚠️ Could not ask receiver for cipher suites: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // ============================================================
+    // Resume: ask the server which chunks are still missing
+    // ============================================================
+
+    /**
+     * ResumePlan
+     * ----------
+     * Baby-English:
+     *   ✔ The block layout we upload with, plus the [from, to) runs of blocks still to send.
+     */
+    static final class ResumePlan {
+        final int chunkSize;
+        final int chunkCount;
+        final boolean known;
+        final List<int[]> missing;
+
+        ResumePlan(int chunkSize, int chunkCount, boolean known, List<int[]> missing) {
+            this.chunkSize = chunkSize;
+            this.chunkCount = chunkCount;
+            this.known = known;
+            this.missing = missing;
+        }
+
+        /** Nothing known on the server → every chunk is missing. */
+        static ResumePlan fresh(long fileSize, int chunkSize) {
+            int count = chunkCountFor(fileSize, chunkSize);
+            List<int[]> all = new ArrayList<>();
+            all.add(new int[]{0, count});
+            return new ResumePlan(chunkSize, count, false, all);
+        }
+
+        int chunksToSend() {
+            int n = 0;
+            for (int[] r : missing) n += r[1] - r[0];
+            return n;
+        }
+
+        long bytesToSend(long fileSize) {
+            long n = 0L;
+            for (int[] r : missing) {
+                long from = (long) r[0] * chunkSize;
+                long to = Math.min((long) r[1] * chunkSize, fileSize);
+                n += Math.max(to - from, 0L);
+            }
+            return n;
+        }
+    }
+
+    /**
+     * queryMissingChunks
+     * ------------------
+     * Baby-English:
+     *   ✔ GET /status?transferId=X&ranges=true.
+     *   ✔ Server has a chunk map → keep ITS chunk size and send only its "missing" runs.
+     *   ✔ Server is done → nothing to send.
+     *   ✔ Anything else (no answer, no map, layout mismatch) → send everything.
+     */
+    static ResumePlan queryMissingChunks(String transferId, String host, int port, long fileSize) {
+        ResumePlan fresh = ResumePlan.fresh(fileSize, BLOCK_SIZE);
+        try {
+            String statusUrl = "http://" + host + ":" + port + "/status?ranges=true&transferId=" +
                     URLEncoder.encode(transferId, StandardCharsets.UTF_8);
-            HttpURLConnection conn = (HttpURLConnection) new URL(statusUrl).openConnection();
-            conn.setConnectTimeout(CONNECT_TIMEOUT_MS);
-            conn.setReadTimeout(READ_TIMEOUT_MS);
-            conn.setRequestMethod("GET");
-
-            if (conn.getResponseCode() == 200) {
-                String json;
-                try (InputStream is = conn.getInputStream()) {
-                    json = new String(is.readAllBytes(), StandardCharsets.UTF_8);
-                }
-                if (json.contains(expectedChecksum)) {
-                    LoggerUtil.success("🔒 Checksum verified successfully.");
-                } else {
-                    LoggerUtil.error("❌ Checksum mismatch after upload.");
+            HttpResponse<String> response = get(statusUrl);
+            if (response.statusCode() != 200) return fresh;
+            return planFromStatus(response.body(), fileSize, fresh);
+        } catch (Exception e) {
+            LoggerUtil.warn("⚠️ Could not query missing chunks: " + e.getMessage());
+            return fresh;
+        }
+    }
+
+    static ResumePlan planFromStatus(String json, long fileSize, ResumePlan fresh) {
+        if (json == null || !json.contains("\"known\":true")) return fresh;
+
+        if (json.contains("\"state\":\"COMPLETED\"")) {
+            return new ResumePlan(fresh.chunkSize, fresh.chunkCount, true, new ArrayList<>());
+        }
+
+        long serverTotal = extractLongField(json, "totalBytes");
+        long serverChunkSize = extractLongField(json, "chunkSize");
+        long serverChunkCount = extractLongField(json, "chunkCount");
+        if (serverTotal != fileSize || serverChunkSize <= 0 || serverChunkSize > Integer.MAX_VALUE
+                || serverChunkCount != chunkCountFor(fileSize, (int) serverChunkSize)) {
+            LoggerUtil.warn("⚠️ Server chunk map does not match this file. Sending everything.");
+            return fresh;
+        }
+
+        List<int[]> missing = extractRanges(json, "missing");
+        if (missing == null) return fresh;
+        for (int[] r : missing) {
+            if (r[0] < 0 || r[1] > serverChunkCount || r[0] >= r[1]) return fresh;
+        }
+        return new ResumePlan((int) serverChunkSize, (int) serverChunkCount, true, missing);
+    }
+
+    private static int chunkCountFor(long fileSize, int chunkSize) {
+        return (int) Math.max((fileSize + chunkSize - 1) / chunkSize, 1L);
+    }
+
+    /**
+     * verifyChecksumAfterUpload
+     * -------------------------
+     * Baby-English:
+     *   ✔ Read /status and compare whole fields (not "is it somewhere in the text").
+     *   ✔ VERIFYING → the receiver is reading the whole file in the background: ask again
+     *     until it is done (http.upload.verifyWaitSeconds).
+     *   ✔ Server sent "blockRoot" → compare it with whichever of our digests has the same
+     *     block size: our own root (ourRoot) or the tree-digest checksum itself.
+     *   ✔ Otherwise → the server's "checksum" must equal ours.
+     *   ✔ The server must say COMPLETED: it only does after its own whole-file check.
+     *   ✔ Any mismatch → IOException (the caller retries); /status not reachable → only a warning.
+     */
+    private static void verifyChecksumAfterUpload(String transferId, String host, int port,
+                                                  String expectedChecksum, String ourRoot) throws IOException {
+        String statusUrl = "http://" + host + ":" + port + "/status?transferId=" +
+                URLEncoder.encode(transferId, StandardCharsets.UTF_8);
+        long deadline = System.currentTimeMillis() + VERIFY_WAIT_MS;
+        String json;
+        String state;
+        while (true) {
+            try {
+                HttpResponse<String> response = get(statusUrl);
+                if (response.statusCode() != 200) {
+                    LoggerUtil.warn("⚠️ Could not verify checksum: /status answered " + response.statusCode());
+                    return;
                 }
+                json = response.body();
+            } catch (IOException e) {
+                LoggerUtil.warn("⚠️ Could not verify checksum: " + e.getMessage());
+                return;
             }
-        } catch (Exception e) {
-            LoggerUtil.warn("⚠️ Could not verify checksum: " + e.getMessage());
+            state = extractStringField(json, "state");
+            if (!"VERIFYING".equals(state) || System.currentTimeMillis() > deadline) break;
+            try {
+                Thread.sleep(VERIFY_POLL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while the receiver checks the file");
+            }
+        }
+
+        if (!"COMPLETED".equals(state)) {
+            String error = extractStringField(json, "error");
+            throw new IOException("Receiver has not completed the file (state=" + state
+                    + (error != null && !error.isEmpty() ? ", error=" + error : "") + ")");
+        }
+
+        String serverRoot = extractStringField(json, "blockRoot");
+        int rootBlock = TreeHash.blockBytesOf(serverRoot);
+        String ours = (rootBlock > 0 && rootBlock == TreeHash.blockBytesOf(ourRoot)) ? ourRoot
+                : (rootBlock > 0 && rootBlock == TreeHash.blockBytesOf(expectedChecksum)) ? expectedChecksum
+                : null;
+        if (ours != null) {
+            if (!serverRoot.equalsIgnoreCase(ours)) {
+                LoggerUtil.error("❌ Merkle root mismatch after upload: server=" + serverRoot
+                        + " sender=" + ours);
+                throw new IOException("Merkle root mismatch after upload");
+            }
+            LoggerUtil.success("🔒 Merkle root verified: " + ours);
+            return;
+        }
+
+        if (expectedChecksum == null || expectedChecksum.isBlank()) return;
+        if (!expectedChecksum.equalsIgnoreCase(extractStringField(json, "checksum"))) {
+            LoggerUtil.error("❌ Checksum mismatch after upload.");
+            throw new IOException("Checksum mismatch after upload");
+        }
+        LoggerUtil.success("🔒 Checksum verified successfully.");
+    }
+
+    /** Root tag of our own block hashes; null if some block was not hashed in this run (resume). */
+    private static String rootTagOf(byte[][] blockHashes, int blockSize) {
+        if (blockHashes == null) return null;
+        for (byte[] h : blockHashes) {
+            if (h == null) return null;
+        }
+        return TreeHash.tag(blockSize, HashUtil.bytesToHex(TreeHash.root(blockHashes)));
+    }
+
+    /** Reads "field":"text" → text; null if the field is missing. */
+    private static String extractStringField(String json, String fieldName) {
+        if (json == null) return null;
+        String key = "\"" + fieldName + "\":\"";
+        int idx = json.indexOf(key);
+        if (idx < 0) return null;
+        int start = idx + key.length();
+        int end = json.indexOf('"', start);
+        return end < 0 ? null : json.substring(start, end);
+    }
+
+    /** Reads "field":[[a,b],[c,d]] → list of {a, b}; null if the field is missing or broken. */
+    private static List<int[]> extractRanges(String json, String fieldName) {
+        String key = "\"" + fieldName + "\":[";
+        int idx = json.indexOf(key);
+        if (idx < 0) return null;
+        List<int[]> out = new ArrayList<>();
+        int first = idx + key.length();
+        if (first < json.length() && json.charAt(first) == ']') return out; // empty list
+
+        int end = json.indexOf("]]", idx);
+        if (end < 0) return null;
+        String body = json.substring(first, end + 1);
+
+        try {
+            for (String pair : body.split("]")) {
+                String p = pair.replace(",[", "").replace("[", "").trim();
+                if (p.isEmpty()) continue;
+                String[] parts = p.split(",");
+                out.add(new int[]{Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim())});
+            }
+        } catch (RuntimeException e) {
+            return null;
         }
+        return out;
     }
 
     private static long extractLongField(String json, String fieldName) {
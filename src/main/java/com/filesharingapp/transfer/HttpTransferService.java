@@ -2,14 +2,18 @@ package com.filesharingapp.transfer;
 
 import com.filesharingapp.core.TransferContext;
 import com.filesharingapp.security.AesUtil;
+import com.filesharingapp.utils.AppConfig;
 import com.filesharingapp.utils.HashUtil;
 import com.filesharingapp.utils.LoggerUtil;
 import com.filesharingapp.utils.NetworkUtil;
+import com.filesharingapp.utils.TreeHash;
 import com.filesharingapp.utils.ValidationUtil;
 import com.filesharingapp.utils.ZipUtil; // Import ZipUtil
 
 import java.io.File;
 import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 
@@ -18,11 +22,18 @@ import java.nio.file.Path;
  * -------------------
  * Baby-English:
  * ✔ High-level HTTP helper for Sender + Receiver.
+ * ✔ Checksum: tree hash when the receiver supports it, else plain SHA-256;
+ *   the receiver verifies with whichever kind it was given.
+ * ✔ Receiver with http.receive.sourceUrl set → pulls from that server's /download
+ *   as parallel byte ranges; otherwise takes the file from the local "received/".
  */
 public class HttpTransferService implements TransferMethod {
 
     private static final Path RECEIVED_DIR = Path.of("received");
 
+    /** Negotiate a tree hash with receivers that support it (see TreeHash). */
+    private static final boolean TREE_HASH_ENABLED = AppConfig.getBoolean("hash.tree.enabled", true);
+
     // =========================================================================
     // ⬇️ TRANSFERMETHOD IMPLEMENTATION ⬇️
     // =========================================================================
@@ -71,12 +82,13 @@ public class HttpTransferService implements TransferMethod {
 
         LoggerUtil.info("🌐 [HTTP] Preparing upload to " + host + ":" + effectivePort);
 
-        // Compute checksum
-        String checksum = HashUtil.sha256Hex(finalFile);
-        LoggerUtil.info("🧮 [HTTP] SHA-256 checksum: " + checksum);
+        // Compute checksum (tree hash on all cores when the receiver can verify it)
+        String checksum = chooseChecksum(finalFile, host, effectivePort);
+        LoggerUtil.info("🧮 [HTTP] Checksum: " + checksum);
 
         // Build transferId
-        String prefix = checksum.length() >= 12 ? checksum.substring(0, 12) : checksum;
+        String root = TreeHash.rootOf(checksum);
+        String prefix = root.length() >= 12 ? root.substring(0, 12) : root;
         String transferId = "http-" + prefix + "-" + System.currentTimeMillis();
 
         // Update TransferContext
@@ -91,6 +103,58 @@ public class HttpTransferService implements TransferMethod {
         LoggerUtil.success("🎉 [HTTP] Sender finished HTTP transfer for file: " + finalFile.getName());
     }
 
+    /**
+     * chooseChecksum
+     * Baby-English:
+     * ✔ hash.tree.enabled and the receiver lists "tree-sha256" → Merkle tree hash
+     *   (all cores on both sides). Otherwise → plain SHA-256, like before.
+     */
+    private static String chooseChecksum(File file, String host, int port) throws IOException {
+        if (TREE_HASH_ENABLED && HttpTransferHandler.receiverSupportsTreeHash(host, port)) {
+            return HashUtil.treeHash(file);
+        }
+        return HashUtil.sha256Hex(file);
+    }
+
+    @Override
+    public boolean supportsStreamingSend() {
+        return true;
+    }
+
+    /**
+     * sendStream
+     * Baby-English:
+     * ✔ No temp files and no extra hashing pass: the pipeline zips, encrypts and
+     *   hashes while HttpTransferHandler streams its output to /upload.
+     * ✔ Only used with send.pipeline.enabled=true: one POST, so a dropped
+     *   connection means sending the whole file again (no resume, no retry).
+     */
+    @Override
+    public String sendStream(String senderName, SendPipeline pipeline, TargetConfig config) throws Exception {
+        String host = config.getTargetHost();
+        int effectivePort = config.getPort();
+
+        if (ValidationUtil.validateHost(host) != null) {
+            throw new IllegalArgumentException("[HTTP] Invalid host/IP: " + host);
+        }
+        if (ValidationUtil.validatePort(effectivePort) != null) {
+            throw new IllegalArgumentException("[HTTP] Invalid port: " + effectivePort);
+        }
+
+        LoggerUtil.info("🌐 [HTTP] Streaming " + pipeline.getOutputName() + " to " + host + ":" + effectivePort);
+        String transferId = "http-stream-" + System.currentTimeMillis();
+
+        TransferContext.setIncomingName(pipeline.getOutputName());
+        TransferContext.setActiveMethod("HTTP");
+        TransferContext.setEncryptionEnabled(config.getAesPassword() != null);
+
+        String checksum = HttpTransferHandler.uploadStream(pipeline, transferId, host, effectivePort);
+        TransferContext.setExpectedChecksum(checksum);
+
+        LoggerUtil.success("🎉 [HTTP] Sender finished streaming transfer for file: " + pipeline.getOutputName());
+        return checksum;
+    }
+
     @Override
     public void receive(String savePath) throws Exception {
         if (savePath == null || savePath.isBlank()) {
@@ -114,6 +178,17 @@ public class HttpTransferService implements TransferMethod {
         // Final file path for the user
         Path targetFile = Path.of(savePath).resolve(incomingName);
 
+        // Remote sender server configured → pull it over HTTP (parallel byte ranges)
+        String sourceUrl = AppConfig.get("http.receive.sourceUrl", "").trim();
+        if (!sourceUrl.isEmpty()) {
+            String url = sourceUrl.replaceAll("/+$", "") + "/download?name="
+                    + URLEncoder.encode(incomingName, StandardCharsets.UTF_8);
+            LoggerUtil.info("🌐 [HTTP] Downloading " + url + " → " + targetFile);
+            HttpTransferHandler.downloadFile(url, targetFile, "download-" + incomingName);
+            verifyAndDecryptFile(targetFile);
+            return;
+        }
+
         if (!Files.exists(serverFile)) {
             LoggerUtil.warn("⚠️ [HTTP] Expected file not found in 'received/' folder: " + serverFile);
             // This happens if the receiver started the server but the sender hasn't finished uploading.
@@ -138,12 +213,12 @@ public class HttpTransferService implements TransferMethod {
     private void verifyAndDecryptFile(Path targetFile) throws Exception {
 
         // 1. AES decrypt if enabled
-        String aesPassword = TransferContext.getAesKeyFingerprint(); // Assuming AES fingerprint is the password itself
+        String aesPassword = TransferContext.getAesPassword();
         if (TransferContext.isEncryptionEnabled() && aesPassword != null) {
             LoggerUtil.info("🔐 [HTTP] Decrypting file...");
             // Decrypts in place or creates a new file based on AesUtil implementation
             File decryptedFile = new File(targetFile.toString().replace(".enc", ""));
-            AesUtil.decryptFile(targetFile.toFile(), decryptedFile, AesUtil.buildKeyFromPassword(aesPassword));
+            AesUtil.decryptFile(targetFile.toFile(), decryptedFile, aesPassword);
             Files.deleteIfExists(targetFile); // Delete encrypted file
             targetFile = decryptedFile.toPath(); // Use decrypted file for checksum
             LoggerUtil.success("✅ [HTTP] File decrypted: " + targetFile.getFileName());
@@ -152,7 +227,7 @@ public class HttpTransferService implements TransferMethod {
         // 2. Verify checksum
         String expectedChecksum = TransferContext.getExpectedChecksum();
         if (expectedChecksum != null && !expectedChecksum.isBlank()) {
-            String actual = HashUtil.sha256Hex(targetFile.toFile());
+            String actual = HashUtil.digestLike(targetFile.toFile(), expectedChecksum);
             if (expectedChecksum.equalsIgnoreCase(actual)) {
                 LoggerUtil.success("🔒 [HTTP] Checksum OK");
             } else {
@@ -0,0 +1,300 @@
+package com.filesharingapp.transfer;
+
+import com.filesharingapp.utils.AppConfig;
+import com.filesharingapp.utils.LoggerUtil;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ParallelChunkUploader
+ * ---------------------
+ * Baby-English:
+ *   ✔ Sends many chunks at the same time, each on its own stream.
+ *   ✔ Every chunk carries its own byte offset, so the server does not care about order.
+ *   ✔ Chunk SIZE comes from AdaptiveChunkSizer (RTT × goodput); a chunk is always
+ *     a whole run of blocks (the server's chunkSize), taken from the missing ranges.
+ *   ✔ How many at once is decided AIMD-style (like TCP itself):
+ *       - throughput went up over the last round → allow ONE more stream
+ *       - a chunk failed, or throughput fell hard → HALVE the streams
+ *       - otherwise → keep what we have
+ *   ✔ A failed chunk goes back to the front of the queue (up to http.upload.chunkRetries times).
+ *
+ * Config (application.properties):
+ *   http.upload.streams.initial → streams at the start
+ *   http.upload.streams.min     → never fewer than this
+ *   http.upload.streams.max     → never more than this (worker threads)
+ *   http.upload.chunkRetries    → tries per chunk before the whole attempt fails
+ */
+final class ParallelChunkUploader {
+
+    private static final int INITIAL_STREAMS = AppConfig.getInt("http.upload.streams.initial", 2);
+    private static final int MIN_STREAMS = Math.max(1, AppConfig.getInt("http.upload.streams.min", 1));
+    private static final int MAX_STREAMS =
+            Math.max(MIN_STREAMS, AppConfig.getInt("http.upload.streams.max", 16));
+    private static final int CHUNK_RETRIES = Math.max(0, AppConfig.getInt("http.upload.chunkRetries", 3));
+
+    /** Throughput must beat the last round by this much to earn another stream. */
+    private static final double GAIN = 0.05;
+    /** Throughput falling by this much counts as congestion (like a loss). */
+    private static final double DROP = 0.25;
+
+    private ParallelChunkUploader() {
+        // Utility class – no objects.
+    }
+
+    /**
+     * ChunkSender
+     * Baby-English: send "length" file bytes starting at "offset" (scratch is this
+     * worker's own buffer, at least "length" long plus extraPerBlock per block);
+     * return the file bytes sent.
+     */
+    @FunctionalInterface
+    interface ChunkSender {
+        int send(long offset, int length, byte[] scratch) throws IOException;
+    }
+
+    /**
+     * upload
+     * Baby-English: send every block in the [from, to) runs of "missing"; returns file bytes sent.
+     * Throws when a chunk keeps failing, so the caller can ask /status and top up.
+     * extraPerBlock = spare scratch bytes per block (e.g. an AES tag, to seal in place).
+     */
+    static long upload(List<int[]> missing, int blockSize, long fileSize, AdaptiveChunkSizer sizer,
+                       int extraPerBlock, ChunkSender sender, String transferId) throws IOException {
+        BlockQueue queue = new BlockQueue(missing);
+        if (queue.blocks == 0) return 0L;
+
+        int workers = (int) Math.min(MAX_STREAMS, queue.blocks);
+        AimdLimiter limiter = new AimdLimiter(
+                Math.min(Math.max(INITIAL_STREAMS, MIN_STREAMS), workers), Math.min(MIN_STREAMS, workers), workers,
+                transferId);
+        AtomicLong remaining = new AtomicLong(queue.blocks);
+        AtomicBoolean failed = new AtomicBoolean();
+        AtomicLong sent = new AtomicLong();
+        AtomicLong lastLog = new AtomicLong(System.currentTimeMillis());
+
+        ExecutorService pool = Executors.newFixedThreadPool(workers, r -> {
+            Thread t = new Thread(r, "upload-" + transferId);
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int w = 0; w < workers; w++) {
+                futures.add(pool.submit(() -> {
+                    byte[] scratch = new byte[0];
+                    while (!failed.get() && remaining.get() > 0) {
+                        limiter.acquire();
+                        if (failed.get()) {
+                            limiter.releaseIdle();
+                            break;
+                        }
+                        int[] job = queue.take(Math.max(1, sizer.chunkBytes() / blockSize));
+                        if (job == null) {
+                            // Others still own the last chunks; one may come back for a retry.
+                            limiter.releaseIdle();
+                            Thread.sleep(5);
+                            continue;
+                        }
+                        long offset = (long) job[0] * blockSize;
+                        int length = (int) (Math.min((long) job[1] * blockSize, fileSize) - offset);
+                        int need = length + (job[1] - job[0]) * extraPerBlock;
+                        if (scratch.length < need) scratch = new byte[need];
+                        try {
+                            long started = System.nanoTime();
+                            int bytes = sender.send(offset, length, scratch);
+                            sizer.onChunk(bytes, System.nanoTime() - started);
+                            limiter.onSuccess(bytes);
+                            remaining.addAndGet(-(job[1] - job[0]));
+                            logProgress(sent.addAndGet(bytes), lastLog, transferId);
+                        } catch (IOException e) {
+                            limiter.onError();
+                            sizer.onError();
+                            if (++job[2] > CHUNK_RETRIES) {
+                                failed.set(true);
+                                throw new IOException("Chunk at " + offset + " failed " + job[2] + " times", e);
+                            }
+                            LoggerUtil.warn("⚠️ [HTTP] Chunk at " + offset + " failed (" + e.getMessage()
+                                    + "), requeued (" + job[2] + "/" + CHUNK_RETRIES + ")", transferId);
+                            queue.putBack(job);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Parallel upload interrupted");
+        } finally {
+            failed.set(true);
+            pool.shutdownNow();
+        }
+
+        LoggerUtil.info("📈 [HTTP] Streams at finish: " + limiter.limit() + " (peak " + limiter.peak()
+                + "), chunk size " + sizer.chunkBytes() / 1024 + " KiB, rtt " + sizer.rttMillis() + " ms", transferId);
+        return sent.get();
+    }
+
+    private static void logProgress(long sent, AtomicLong lastLog, String transferId) {
+        long now = System.currentTimeMillis();
+        long last = lastLog.get();
+        if (now - last > 1000 && lastLog.compareAndSet(last, now)) {
+            LoggerUtil.info("📤 [HTTP] Sent " + sent + " bytes", transferId);
+        }
+    }
+
+    // ============================================================
+    // Block queue: carve chunks off the missing runs
+    // ============================================================
+
+    /**
+     * BlockQueue
+     * Baby-English:
+     *   ✔ Holds the [from, to) block runs still to send, in file order.
+     *   ✔ take(n) cuts the next chunk of at most n blocks off the front run.
+     *   ✔ A failed chunk is put back at the FRONT, so holes get filled first.
+     */
+    static final class BlockQueue {
+        private final Deque<int[]> runs = new ArrayDeque<>(); // {from, to, attempts}
+        final long blocks;
+
+        BlockQueue(List<int[]> missing) {
+            long n = 0;
+            for (int[] r : missing) {
+                if (r[1] > r[0]) {
+                    runs.add(new int[]{r[0], r[1], 0});
+                    n += r[1] - r[0];
+                }
+            }
+            this.blocks = n;
+        }
+
+        synchronized int[] take(int maxBlocks) {
+            int[] run = runs.pollFirst();
+            if (run == null) return null;
+            if (run[1] - run[0] > maxBlocks) {
+                runs.addFirst(new int[]{run[0] + maxBlocks, run[1], run[2]});
+                return new int[]{run[0], run[0] + maxBlocks, run[2]};
+            }
+            return run;
+        }
+
+        synchronized void putBack(int[] job) {
+            runs.addFirst(job);
+        }
+    }
+
+    // ============================================================
+    // AIMD limiter: how many chunks may be in flight right now
+    // ============================================================
+
+    /**
+     * AimdLimiter
+     * Baby-English:
+     *   ✔ acquire() waits until fewer than "limit" chunks are in flight.
+     *   ✔ One "round" = limit finished chunks; after each round we compare
+     *     bytes/second with the round before and grow, hold or shrink.
+     */
+    static final class AimdLimiter {
+        private final int min;
+        private final int max;
+        private final String transferId;
+
+        private int limit;
+        private int peak;
+        private int inFlight;
+
+        private long roundBytes;
+        private long roundStart = System.nanoTime();
+        private int roundDone;
+        private double lastRate;
+
+        AimdLimiter(int initial, int min, int max, String transferId) {
+            this.min = min;
+            this.max = max;
+            this.limit = Math.max(min, Math.min(max, initial));
+            this.peak = limit;
+            this.transferId = transferId;
+        }
+
+        synchronized void acquire() throws InterruptedException {
+            while (inFlight >= limit) wait();
+            inFlight++;
+        }
+
+        /** Slot taken but nothing to send. */
+        synchronized void releaseIdle() {
+            inFlight--;
+            notifyAll();
+        }
+
+        synchronized void onSuccess(long bytes) {
+            inFlight--;
+            roundBytes += bytes;
+            if (++roundDone >= limit) endRound();
+            notifyAll();
+        }
+
+        /** A failed chunk is the "loss" signal: halve right away. */
+        synchronized void onError() {
+            inFlight--;
+            setLimit(Math.max(min, limit / 2), "error");
+            lastRate = 0;
+            resetRound();
+            notifyAll();
+        }
+
+        synchronized int limit() {
+            return limit;
+        }
+
+        synchronized int peak() {
+            return peak;
+        }
+
+        private void endRound() {
+            double seconds = Math.max(1e-6, (System.nanoTime() - roundStart) / 1e9);
+            double rate = roundBytes / seconds;
+            if (lastRate == 0 || rate >= lastRate * (1 + GAIN)) {
+                setLimit(Math.min(max, limit + 1), "gain");
+            } else if (rate < lastRate * (1 - DROP)) {
+                setLimit(Math.max(min, limit / 2), "drop");
+            }
+            lastRate = rate;
+            resetRound();
+        }
+
+        private void resetRound() {
+            roundBytes = 0;
+            roundDone = 0;
+            roundStart = System.nanoTime();
+        }
+
+        private void setLimit(int next, String why) {
+            if (next != limit) {
+                LoggerUtil.info("🎚️ [HTTP] Streams " + limit + " → " + next + " (" + why + ")", transferId);
+            }
+            limit = next;
+            peak = Math.max(peak, limit);
+        }
+    }
+}
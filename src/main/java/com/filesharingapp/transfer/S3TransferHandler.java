@@ -3,6 +3,7 @@ package com.filesharingapp.transfer;
 import com.filesharingapp.core.PromptManager;
 import com.filesharingapp.core.TransferContext;
 import com.filesharingapp.security.AesUtil;
+import com.filesharingapp.utils.AppConfig;
 import com.filesharingapp.utils.HashUtil;
 import com.filesharingapp.utils.LoggerUtil;
 import com.filesharingapp.utils.ValidationUtil;
@@ -32,6 +33,9 @@ public class S3TransferHandler {
 
     private static final int BUFFER_SIZE = 8192;
 
+    /** Stream a CRC32C with every upload; S3 checks it and refuses damaged bytes. */
+    private static final boolean UPLOAD_CRC32C = AppConfig.getBoolean("aws.s3.upload.crc32c", true);
+
     // ============================
     // SENDER SIDE: Upload to S3
     // ============================
@@ -74,20 +78,20 @@ public class S3TransferHandler {
                 LoggerUtil.info("🔐 Encrypting file before upload...");
                 // FIX: Use correct AesUtil signature (requires SecretKey)
                 File encryptedFile = new File(file.getAbsolutePath() + ".enc");
-                AesUtil.encryptFile(file, encryptedFile, AesUtil.buildKeyFromPassword(TransferContext.getAesPassword()));
+                AesUtil.encryptFile(file, encryptedFile, TransferContext.getAesPassword());
                 finalFile = encryptedFile;
             }
 
             // Upload with metadata
-            PutObjectRequest putReq = PutObjectRequest.builder()
+            PutObjectRequest.Builder putReq = PutObjectRequest.builder()
                     .bucket(bucket)
                     .key(key)
                     .metadata(java.util.Map.of(
                             "sha256", checksum,
-                            "encrypted", String.valueOf(TransferContext.isEncryptionEnabled())))
-                    .build();
+                            "encrypted", String.valueOf(TransferContext.isEncryptionEnabled())));
+            if (UPLOAD_CRC32C) putReq.checksumAlgorithm(ChecksumAlgorithm.CRC32_C);
 
-            s3.putObject(putReq, RequestBody.fromFile(finalFile));
+            s3.putObject(putReq.build(), RequestBody.fromFile(finalFile));
             LoggerUtil.success("✅ Uploaded to s3://" + bucket + "/" + key);
 
             // Generate presigned URL
@@ -157,30 +161,11 @@ public class S3TransferHandler {
             LoggerUtil.info("ℹ️ Remote checksum: " + remoteSha);
 
             Path localFile = Path.of(saveFolder, key);
-            long localSize = Files.exists(localFile) ? localFile.toFile().length() : 0;
-            boolean resume = localSize > 0 && localSize < remoteSize;
-
-            LoggerUtil.info(resume ? "🔁 Resuming download from " + localSize : "⬇️ Starting fresh download");
-
-            GetObjectRequest.Builder getReqBuilder = GetObjectRequest.builder()
-                    .bucket(bucket)
-                    .key(key);
-            if (resume) getReqBuilder.range("bytes=" + localSize + "-");
-
-            try (ResponseInputStream<GetObjectResponse> s3Stream = s3.getObject(getReqBuilder.build());
-                 FileOutputStream fos = new FileOutputStream(localFile.toFile(), resume)) {
-
-                byte[] buffer = new byte[BUFFER_SIZE];
-                int read;
-                long downloaded = localSize;
-
-                while ((read = s3Stream.read(buffer)) != -1) {
-                    fos.write(buffer, 0, read);
-                    downloaded += read;
-
-                    int percent = (int) ((downloaded * 100) / remoteSize);
-                    if (percent % 10 == 0) LoggerUtil.info("📥 Download progress: " + percent + "%");
-                }
+            if (SegmentedDownloader.shouldSegment(remoteSize)) {
+                SegmentedDownloader.download(SegmentedDownloader.s3Fetcher(s3, bucket, key),
+                        remoteSize, localFile, "s3-" + key);
+            } else {
+                downloadSingleStream(s3, bucket, key, localFile, remoteSize);
             }
 
             LoggerUtil.success("✅ Download complete: " + localFile);
@@ -197,7 +182,7 @@ public class S3TransferHandler {
                 AesUtil.decryptFile(
                         finalFile, // inputFile (encrypted)
                         decryptedFile, // outputFile (decrypted)
-                        AesUtil.buildKeyFromPassword(TransferContext.getAesPassword()) // Key
+                        TransferContext.getAesPassword() // Password
                 );
 
                 // 3. Update 'finalFile' to point to the newly created decrypted file
@@ -207,7 +192,7 @@ public class S3TransferHandler {
             }
 
             if (remoteSha != null) {
-                String localSha = HashUtil.sha256Hex(finalFile);
+                String localSha = HashUtil.sha256HexUncached(finalFile);
                 if (remoteSha.equalsIgnoreCase(localSha)) {
                     LoggerUtil.success("🔒 Checksum OK!");
                 } else {
@@ -220,6 +205,36 @@ public class S3TransferHandler {
     // ============================
     // HELPER METHODS
     // ============================
+    /** Single GetObject stream; appends to a partial local file (resume by size). */
+    private static void downloadSingleStream(S3Client s3, String bucket, String key,
+                                             Path localFile, long remoteSize) throws Exception {
+        long localSize = Files.exists(localFile) ? localFile.toFile().length() : 0;
+        boolean resume = localSize > 0 && localSize < remoteSize;
+
+        LoggerUtil.info(resume ? "🔁 Resuming download from " + localSize : "⬇️ Starting fresh download");
+
+        GetObjectRequest.Builder getReqBuilder = GetObjectRequest.builder()
+                .bucket(bucket)
+                .key(key);
+        if (resume) getReqBuilder.range("bytes=" + localSize + "-");
+
+        try (ResponseInputStream<GetObjectResponse> s3Stream = s3.getObject(getReqBuilder.build());
+             FileOutputStream fos = new FileOutputStream(localFile.toFile(), resume)) {
+
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            long downloaded = localSize;
+
+            while ((read = s3Stream.read(buffer)) != -1) {
+                fos.write(buffer, 0, read);
+                downloaded += read;
+
+                int percent = (int) ((downloaded * 100) / remoteSize);
+                if (percent % 10 == 0) LoggerUtil.info("📥 Download progress: " + percent + "%");
+            }
+        }
+    }
+
     private static String sanitizeBucket(String bucket) {
         return bucket.trim().replace(" ", "").toLowerCase();
     }
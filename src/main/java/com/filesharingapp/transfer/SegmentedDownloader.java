@@ -0,0 +1,417 @@
+package com.filesharingapp.transfer;
+
+import com.filesharingapp.core.TransferContext;
+import com.filesharingapp.utils.AppConfig;
+import com.filesharingapp.utils.LoggerUtil;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SegmentedDownloader
+ * -------------------
+ * Baby-English:
+ *   ✔ Pulls ONE remote file as N byte ranges at the same time.
+ *   ✔ Each range is written straight into place (positional writes) in "<name>.part".
+ *   ✔ A failed range is retried on its own, from the byte where it stopped.
+ *   ✔ Work stealing: a worker that finishes early splits the biggest unfinished
+ *     range in half and takes the back half, so one slow range cannot hold up the end.
+ *   ✔ When everything is there, "<name>.part" is moved onto the real name.
+ *   ✔ Small files, download.segments=1, or a source without ranges → one plain stream.
+ *
+ * The source is any RangeFetcher: HTTP (/download with Range) and S3 (GetObject with range).
+ *
+ * Config (application.properties):
+ *   download.segments               → parallel ranges (1 = single stream)
+ *   download.segment.minBytes       → never start a range smaller than this
+ *   download.segment.minStealBytes  → stolen halves are at least this big
+ *   download.segment.retries        → retries per range before giving up
+ *   download.segment.retryBackoffMs → wait before retry N is N × this
+ */
+public final class SegmentedDownloader {
+
+    private static final int SEGMENTS = Math.max(1, AppConfig.getInt("download.segments", 4));
+    private static final long MIN_SEGMENT =
+            Math.max(64 * 1024, AppConfig.getLong("download.segment.minBytes", 4L * 1024 * 1024));
+    private static final long MIN_STEAL =
+            Math.max(64 * 1024, AppConfig.getLong("download.segment.minStealBytes", 1024L * 1024));
+    private static final int MAX_RETRIES = Math.max(0, AppConfig.getInt("download.segment.retries", 3));
+    private static final long RETRY_BACKOFF_MS = AppConfig.getLong("download.segment.retryBackoffMs", 500L);
+    private static final int READ_BUFFER = 64 * 1024;
+
+    private SegmentedDownloader() {
+        // Utility class – no objects.
+    }
+
+    /**
+     * RangeFetcher
+     * Baby-English: "give me a stream of exactly bytes [start, end) of the remote file".
+     * Closing the stream early must be allowed (stolen tails are dropped).
+     */
+    @FunctionalInterface
+    public interface RangeFetcher {
+        InputStream open(long start, long end) throws IOException;
+    }
+
+    /** True when the file is big enough to be worth splitting. */
+    public static boolean shouldSegment(long totalSize) {
+        return SEGMENTS > 1 && totalSize >= 2 * MIN_SEGMENT;
+    }
+
+    // ============================================================
+    // 1️⃣ Entry points
+    // ============================================================
+
+    /** Segmented when worthwhile, else a single stream. */
+    public static void download(RangeFetcher fetcher, long totalSize, Path target, String transferId)
+            throws IOException {
+        run(fetcher, totalSize, target, transferId, shouldSegment(totalSize));
+    }
+
+    /** Single-stream fallback (source without range support, or forced). */
+    public static void downloadSingle(RangeFetcher fetcher, long totalSize, Path target, String transferId)
+            throws IOException {
+        run(fetcher, totalSize, target, transferId, false);
+    }
+
+    private static void run(RangeFetcher fetcher, long totalSize, Path target,
+                            String transferId, boolean segmented) throws IOException {
+        Path part = target.resolveSibling(target.getFileName() + ".part");
+        TransferContext.getOrCreateProgress(transferId, totalSize);
+        long t0 = System.nanoTime();
+
+        try (FileChannel out = FileChannel.open(part, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Job job = new Job(fetcher, out, totalSize, transferId);
+            if (segmented) {
+                job.runSegmented();
+            } else {
+                LoggerUtil.info("⬇️ [Segments] Single stream for " + totalSize + " bytes", transferId);
+                job.fetch(new Segment(0, 0, totalSize));
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(part);
+            throw e;
+        }
+
+        try {
+            Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(part, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        long ms = Math.max(1, (System.nanoTime() - t0) / 1_000_000L);
+        LoggerUtil.success("✅ [Segments] " + totalSize + " bytes in " + ms + " ms → " + target, transferId);
+    }
+
+    // ============================================================
+    // 2️⃣ One download job: segments, workers, stealing, retries
+    // ============================================================
+
+    private static final class Job {
+        private final RangeFetcher fetcher;
+        private final FileChannel out;
+        private final long totalSize;
+        private final String transferId;
+
+        private final ConcurrentLinkedQueue<Segment> pending = new ConcurrentLinkedQueue<>();
+        private final List<Segment> all = new ArrayList<>();
+        private final AtomicInteger nextId = new AtomicInteger();
+        private final AtomicBoolean failed = new AtomicBoolean();
+        private final AtomicLong written = new AtomicLong();
+        private final AtomicLong nextLog;
+
+        Job(RangeFetcher fetcher, FileChannel out, long totalSize, String transferId) {
+            this.fetcher = fetcher;
+            this.out = out;
+            this.totalSize = totalSize;
+            this.transferId = transferId;
+            this.nextLog = new AtomicLong(totalSize / 10);
+        }
+
+        void runSegmented() throws IOException {
+            int workers = (int) Math.min(SEGMENTS, totalSize / MIN_SEGMENT);
+            long size = totalSize / workers;
+            for (int i = 0; i < workers; i++) {
+                long start = i * size;
+                long end = (i == workers - 1) ? totalSize : start + size;
+                Segment s = new Segment(nextId.getAndIncrement(), start, end);
+                pending.add(s);
+                all.add(s);
+            }
+            LoggerUtil.info("⬇️ [Segments] " + workers + " parallel ranges for " + totalSize + " bytes", transferId);
+
+            ExecutorService pool = Executors.newFixedThreadPool(workers, r -> {
+                Thread t = new Thread(r, "segment-" + transferId);
+                t.setDaemon(true);
+                return t;
+            });
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (int i = 0; i < workers; i++) {
+                    futures.add(pool.submit(() -> {
+                        Segment s;
+                        while (!failed.get() && (s = next()) != null) {
+                            fetch(s);
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> f : futures) {
+                    f.get();
+                }
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) throw (IOException) cause;
+                if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                throw new IOException(cause);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Segmented download interrupted");
+            } finally {
+                failed.set(true);
+                pool.shutdownNow();
+            }
+
+            if (written.get() != totalSize) {
+                throw new IOException("Segmented download wrote " + written.get() + " of " + totalSize + " bytes");
+            }
+        }
+
+        /** Next range to work on: a queued one, else steal the back half of the biggest. */
+        private Segment next() {
+            Segment s = pending.poll();
+            if (s != null) return s;
+
+            synchronized (all) {
+                Segment victim = null;
+                for (Segment candidate : all) {
+                    if (victim == null || candidate.remaining() > victim.remaining()) victim = candidate;
+                }
+                if (victim == null) return null;
+                Segment stolen = victim.split(MIN_STEAL, nextId.getAndIncrement());
+                if (stolen == null) return null;
+                all.add(stolen);
+                LoggerUtil.info("🔀 [Segments] Stole " + stolen + " from segment " + victim.id, transferId);
+                return stolen;
+            }
+        }
+
+        /** Fetch one range until it is done, retrying from where it stopped. */
+        void fetch(Segment seg) throws IOException {
+            byte[] buf = new byte[READ_BUFFER];
+            int failures = 0;
+
+            while (true) {
+                long pos = seg.position();
+                long end = seg.end();
+                if (pos >= end) return;
+
+                try (InputStream in = fetcher.open(pos, end)) {
+                    int n;
+                    while ((n = in.read(buf)) != -1) {
+                        int take = seg.claim(n);
+                        if (take > 0) {
+                            writeAt(buf, take, pos);
+                            pos += take;
+                            progress(take);
+                            failures = 0;
+                        }
+                        if (take < n || seg.remaining() == 0) break; // tail was stolen: drop the rest
+                    }
+                    if (seg.remaining() > 0) {
+                        throw new IOException("Range " + seg + " ended early at byte " + pos);
+                    }
+                } catch (IOException e) {
+                    if (failed.get()) return;
+                    if (++failures > MAX_RETRIES) {
+                        failed.set(true);
+                        throw new IOException("Range " + seg + " failed after " + MAX_RETRIES + " retries", e);
+                    }
+                    LoggerUtil.warn("⚠️ [Segments] Range " + seg + " failed (" + e.getMessage()
+                            + "), retry " + failures + "/" + MAX_RETRIES, transferId);
+                    sleep(RETRY_BACKOFF_MS * failures);
+                }
+            }
+        }
+
+        private void writeAt(byte[] buf, int len, long position) throws IOException {
+            ByteBuffer bb = ByteBuffer.wrap(buf, 0, len);
+            while (bb.hasRemaining()) {
+                position += out.write(bb, position);
+            }
+        }
+
+        private void progress(int n) {
+            long done = written.addAndGet(n);
+            TransferContext.addReceivedBytes(transferId, n);
+            long mark = nextLog.get();
+            if (done >= mark && nextLog.compareAndSet(mark, mark + Math.max(1, totalSize / 10))) {
+                LoggerUtil.info("📥 [Segments] Progress: " + (done * 100 / Math.max(1, totalSize)) + "%", transferId);
+            }
+        }
+
+        private void sleep(long ms) throws InterruptedIOException {
+            try {
+                Thread.sleep(ms);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Retry wait interrupted");
+            }
+        }
+    }
+
+    /**
+     * Segment
+     * Baby-English: bytes [next, end) still to fetch. Only the owner moves "next";
+     * a thief may lower "end" (never below "next").
+     */
+    private static final class Segment {
+        final int id;
+        private long next;
+        private long end;
+
+        Segment(int id, long start, long end) {
+            this.id = id;
+            this.next = start;
+            this.end = end;
+        }
+
+        synchronized long position() {
+            return next;
+        }
+
+        synchronized long end() {
+            return end;
+        }
+
+        synchronized long remaining() {
+            return end - next;
+        }
+
+        /** Reserve up to n bytes at "next"; returns how many may be written. */
+        synchronized int claim(int n) {
+            int take = (int) Math.min(n, end - next);
+            next += take;
+            return take;
+        }
+
+        /** Hand the back half to a new segment, if both halves stay >= minPiece. */
+        synchronized Segment split(long minPiece, int newId) {
+            long left = end - next;
+            if (left < 2 * minPiece) return null;
+            long mid = next + left / 2;
+            Segment tail = new Segment(newId, mid, end);
+            end = mid;
+            return tail;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "#" + id + " [" + next + "-" + end + ")";
+        }
+    }
+
+    // ============================================================
+    // 3️⃣ Fetchers: HTTP (/download with Range) and S3 (GetObject range)
+    // ============================================================
+
+    /**
+     * httpFetcher
+     * Baby-English: GET url with "Range: bytes=a-b" and If-Range (so a changed file
+     * comes back as 200 and is refused instead of mixing two versions).
+     */
+    public static RangeFetcher httpFetcher(HttpClient client, String url, String etag, Duration timeout) {
+        return (start, end) -> {
+            HttpRequest.Builder req = HttpRequest.newBuilder(URI.create(url))
+                    .timeout(timeout)
+                    .header("Range", "bytes=" + start + "-" + (end - 1))
+                    .GET();
+            if (etag != null) req.header("If-Range", etag);
+            HttpResponse<InputStream> resp;
+            try {
+                resp = client.send(req.build(), HttpResponse.BodyHandlers.ofInputStream());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Range request interrupted");
+            }
+            boolean whole = start == 0 && resp.statusCode() == 200;
+            if (resp.statusCode() != 206 && !whole) {
+                resp.body().close();
+                throw new IOException("Range " + start + "-" + (end - 1) + " → HTTP " + resp.statusCode());
+            }
+            return resp.body();
+        };
+    }
+
+    /**
+     * s3Fetcher
+     * Baby-English: GetObject with a byte range. A stream closed before its end is
+     * aborted (not drained), so stolen tails do not download for nothing.
+     */
+    public static RangeFetcher s3Fetcher(S3Client s3, String bucket, String key) {
+        return (start, end) -> {
+            ResponseInputStream<GetObjectResponse> body;
+            try {
+                body = s3.getObject(GetObjectRequest.builder()
+                        .bucket(bucket)
+                        .key(key)
+                        .range("bytes=" + start + "-" + (end - 1))
+                        .build());
+            } catch (SdkException e) {
+                throw new IOException("S3 range " + start + "-" + (end - 1) + " failed: " + e.getMessage(), e);
+            }
+            return new FilterInputStream(body) {
+                private long left = end - start;
+
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) left--;
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = super.read(b, off, len);
+                    if (n > 0) left -= n;
+                    return n;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    if (left > 0) body.abort();
+                    super.close();
+                }
+            };
+        };
+    }
+}
@@ -0,0 +1,383 @@
+package com.filesharingapp.transfer;
+
+import com.filesharingapp.security.SegmentedGcm;
+import com.filesharingapp.utils.AppConfig;
+import com.filesharingapp.utils.HashUtil;
+import com.filesharingapp.utils.LoggerUtil;
+import com.filesharingapp.utils.ZipUtil;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * SendPipeline
+ * ------------
+ * Baby-English:
+ *   ✔ Turns one file into the bytes we put on the wire, in ONE pass:
+ *       read → zip → encrypt → SHA-256 → transport
+ *   ✔ Every arrow is a small bounded queue; every stage is its own thread.
+ *     → all stages work at the same time, on different pieces of the file.
+ *     → the first bytes reach the network right away (no temp ".zip" / ".enc").
+ *     → a slow network simply makes the queues fill up and the reader wait.
+ *   ✔ Output has the same format ZipUtil.zipIfNeeded + AesUtil.encryptFile would
+ *     have written, so the receiver decrypts and unzips it exactly as before.
+ *   ✔ The checksum is ready when the transport has read the last byte.
+ *
+ * Config (application.properties):
+ *   send.pipeline.pieceBytes → bytes per piece moved between stages
+ *   send.pipeline.queueDepth → pieces each queue may hold (memory = stages × depth × piece)
+ */
+public final class SendPipeline implements Closeable {
+
+    private static final int PIECE_BYTES = Math.max(4096, AppConfig.getInt("send.pipeline.pieceBytes", 256 * 1024));
+    private static final int QUEUE_DEPTH = Math.max(1, AppConfig.getInt("send.pipeline.queueDepth", 8));
+
+    /** End-of-stream marker (compared by identity). */
+    private static final byte[] EOF = new byte[0];
+
+    private final File source;
+    private final String outputName;
+    private final String transferId;
+    private final long startedNanos = System.nanoTime();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final List<Thread> threads = new CopyOnWriteArrayList<>();
+
+    private volatile BlockingQueue<byte[]> output;
+    private volatile String checksum;
+    private volatile long bytesOut;
+
+    private SendPipeline(File source, String outputName, String transferId) {
+        this.source = source;
+        this.outputName = outputName;
+        this.transferId = transferId;
+    }
+
+    /**
+     * start
+     * -----
+     * Baby-English:
+     *   ✔ Build the stages and start their threads.
+     *   ✔ ".zip" files are not zipped again; a blank password → no encrypt stage.
+     */
+    public static SendPipeline start(File source, String aesPassword, String transferId) throws IOException {
+        if (source == null || !source.isFile()) throw new IOException("File missing or invalid: " + source);
+
+        boolean zip = needsZip(source);
+        boolean encrypt = aesPassword != null && !aesPassword.isBlank();
+        SendPipeline p = new SendPipeline(source, outputName(source, aesPassword), transferId);
+
+        BlockingQueue<byte[]> q = p.stage("read", null, new Reader(source));
+        if (zip) q = p.stage("zip", q, new Zipper(ZipUtil.sanitizeName(source.getName())));
+        if (encrypt) q = p.stage("encrypt", q, new Encryptor(aesPassword));
+        q = p.stage("sha256", q, p.new Digester());
+        p.output = q;
+
+        LoggerUtil.info("🧵 [Pipeline] " + source.getName() + " → " + p.outputName + " (read"
+                + (zip ? " → zip" : "") + (encrypt ? " → encrypt" : "") + " → sha256 → send)", transferId);
+        return p;
+    }
+
+    /** Name the receiver will see: same rules as the old temp files (".zip", then ".enc"). */
+    public static String outputName(File source, String aesPassword) {
+        String name = needsZip(source) ? ZipUtil.sanitizeName(source.getName()) + ".zip" : source.getName();
+        return (aesPassword != null && !aesPassword.isBlank()) ? name + ".enc" : name;
+    }
+
+    private static boolean needsZip(File source) {
+        return !source.getName().toLowerCase().endsWith(".zip");
+    }
+
+    public String getOutputName() {
+        return outputName;
+    }
+
+    public File getSource() {
+        return source;
+    }
+
+    /** Bytes handed to the transport so far (the final size once the stream hit EOF). */
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    /** SHA-256 (hex) of everything sent; only known after the transport read EOF. */
+    public String checksum() {
+        if (checksum == null) throw new IllegalStateException("Pipeline not finished yet");
+        return checksum;
+    }
+
+    /**
+     * stream
+     * ------
+     * Baby-English:
+     *   ✔ The transport reads the finished bytes here. Read it only once.
+     *   ✔ A failure in ANY stage shows up here as an IOException.
+     */
+    public InputStream stream() {
+        return new InputStream() {
+            private byte[] piece = new byte[0];
+            private int pos;
+            private boolean done;
+            private boolean first = true;
+
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                int n = read(one, 0, 1);
+                return n < 0 ? -1 : (one[0] & 0xff);
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) return 0;
+                while (!done && pos >= piece.length) {
+                    piece = take(output);
+                    pos = 0;
+                    if (piece == EOF) done = true;
+                    else if (first) {
+                        first = false;
+                        LoggerUtil.info("⏱️ [Pipeline] First byte ready after "
+                                + (System.nanoTime() - startedNanos) / 1_000_000L + " ms", transferId);
+                    }
+                }
+                if (done) return -1;
+                int n = Math.min(len, piece.length - pos);
+                System.arraycopy(piece, pos, b, off, n);
+                pos += n;
+                bytesOut += n;
+                return n;
+            }
+
+            @Override
+            public void close() {
+                if (!done) SendPipeline.this.close();
+            }
+        };
+    }
+
+    /** Stop every stage (e.g. the transport gave up). */
+    @Override
+    public void close() {
+        failure.compareAndSet(null, new IOException("Pipeline closed"));
+        for (Thread t : threads) t.interrupt();
+    }
+
+    // ============================================================
+    // Stage plumbing
+    // ============================================================
+
+    /** One step of the pipeline: gets pieces, writes its result to "out". */
+    private interface Stage {
+        void accept(byte[] piece, OutputStream out) throws Exception;
+
+        default void finish(OutputStream out) throws Exception {
+        }
+    }
+
+    private BlockingQueue<byte[]> stage(String name, BlockingQueue<byte[]> in, Stage stage) {
+        BlockingQueue<byte[]> out = new ArrayBlockingQueue<>(QUEUE_DEPTH);
+        Thread t = new Thread(() -> {
+            try (PieceOutputStream sink = new PieceOutputStream(out)) {
+                if (in == null) {
+                    stage.accept(null, sink);
+                } else {
+                    for (byte[] piece = take(in); piece != EOF; piece = take(in)) {
+                        stage.accept(piece, sink);
+                    }
+                }
+                stage.finish(sink);
+                sink.flush();
+                put(out, EOF);
+            } catch (Throwable e) {
+                if (failure.compareAndSet(null, e)) {
+                    LoggerUtil.error("❌ [Pipeline] Stage '" + name + "' failed", e, transferId);
+                }
+                for (Thread other : threads) other.interrupt();
+            }
+        }, "pipeline-" + name + "-" + transferId);
+        t.setDaemon(true);
+        threads.add(t);
+        t.start();
+        return out;
+    }
+
+    private byte[] take(BlockingQueue<byte[]> q) throws IOException {
+        try {
+            checkFailure();
+            return q.take();
+        } catch (InterruptedException e) {
+            checkFailure();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Pipeline interrupted");
+        }
+    }
+
+    private void put(BlockingQueue<byte[]> q, byte[] piece) throws IOException {
+        try {
+            checkFailure();
+            q.put(piece);
+        } catch (InterruptedException e) {
+            checkFailure();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Pipeline interrupted");
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable t = failure.get();
+        if (t == null) return;
+        if (t instanceof IOException) throw new IOException(t.getMessage(), t);
+        throw new IOException("Pipeline stage failed: " + t, t);
+    }
+
+    /**
+     * PieceOutputStream
+     * Baby-English: collects whatever a stage writes into PIECE_BYTES pieces
+     * and hands each full piece to the next queue (the next stage owns it then).
+     */
+    private final class PieceOutputStream extends OutputStream {
+        private final BlockingQueue<byte[]> out;
+        private byte[] buf = new byte[PIECE_BYTES];
+        private int len;
+
+        PieceOutputStream(BlockingQueue<byte[]> out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int n) throws IOException {
+            while (n > 0) {
+                int take = Math.min(n, buf.length - len);
+                System.arraycopy(b, off, buf, len, take);
+                len += take;
+                off += take;
+                n -= take;
+                if (len == buf.length) flush();
+            }
+        }
+
+        /** Pass a piece the stage already owns without copying it (flushes pending bytes first). */
+        void handOff(byte[] piece) throws IOException {
+            flush();
+            if (piece.length > 0) put(out, piece);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (len == 0) return;
+            byte[] full = (len == buf.length) ? buf : Arrays.copyOf(buf, len);
+            put(out, full);
+            buf = new byte[PIECE_BYTES];
+            len = 0;
+        }
+    }
+
+    // ============================================================
+    // The stages
+    // ============================================================
+
+    /** 1) Read the file into fresh pieces. */
+    private static final class Reader implements Stage {
+        private final File file;
+
+        Reader(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public void accept(byte[] ignored, OutputStream out) throws IOException {
+            PieceOutputStream sink = (PieceOutputStream) out;
+            try (InputStream in = new FileInputStream(file)) {
+                while (true) {
+                    byte[] piece = in.readNBytes(PIECE_BYTES);
+                    if (piece.length == 0) break;
+                    sink.handOff(piece);
+                }
+            }
+        }
+    }
+
+    /** 2) Deflate into a one-entry ZIP (same layout as ZipUtil.zipIfNeeded). */
+    private static final class Zipper implements Stage {
+        private final String entryName;
+        private ZipOutputStream zip;
+
+        Zipper(String entryName) {
+            this.entryName = entryName;
+        }
+
+        @Override
+        public void accept(byte[] piece, OutputStream out) throws IOException {
+            open(out).write(piece);
+        }
+
+        @Override
+        public void finish(OutputStream out) throws IOException {
+            ZipOutputStream z = open(out);
+            z.closeEntry();
+            z.finish(); // writes the central directory; "out" stays open for the stage
+        }
+
+        private ZipOutputStream open(OutputStream out) throws IOException {
+            if (zip == null) {
+                zip = new ZipOutputStream(out);
+                zip.putNextEntry(new ZipEntry(entryName));
+            }
+            return zip;
+        }
+    }
+
+    /** 3) Sealed segments (our preferred suite): same FSG1 container as AesUtil.encryptFile (see SegmentedGcm). */
+    private static final class Encryptor implements Stage {
+        private final SegmentedGcm.Sealer sealer;
+
+        Encryptor(String password) {
+            sealer = SegmentedGcm.create(password, SegmentedGcm.DEFAULT_SEGMENT_BYTES).sealer();
+        }
+
+        @Override
+        public void accept(byte[] piece, OutputStream out) throws IOException {
+            sealer.update(piece, 0, piece.length, out);
+        }
+
+        @Override
+        public void finish(OutputStream out) throws IOException {
+            sealer.finish(out);
+        }
+    }
+
+    /** 4) SHA-256 over the final bytes; pieces pass through untouched. */
+    private final class Digester implements Stage {
+        private final MessageDigest sha = HashUtil.sha256Digest();
+
+        @Override
+        public void accept(byte[] piece, OutputStream out) throws IOException {
+            sha.update(piece);
+            ((PieceOutputStream) out).handOff(piece);
+        }
+
+        @Override
+        public void finish(OutputStream out) {
+            checksum = HashUtil.bytesToHex(sha.digest());
+        }
+    }
+}
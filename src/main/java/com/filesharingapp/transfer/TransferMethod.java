@@ -13,6 +13,7 @@ import java.io.File;
  * 3) handshake()  → Exchange small info before big transfer.
  * 4) getResumeOffset() → Ask where to resume if interrupted.
  * 5) computeChecksum() → Make SHA-256 for integrity check.
+ * 6) sendStream(...) → optional: send straight from a SendPipeline (no temp files).
  *
  * Why?
  * ✔ So console flows, web flows, and future GUIs can share the same contract.
@@ -81,4 +82,34 @@ public interface TransferMethod {
      * @throws Exception if file cannot be read.
      */
     String computeChecksum(File file) throws Exception;
-}
\ No newline at end of file
+
+    /**
+     * supportsStreamingSend
+     * ---------------------
+     * Baby-English:
+     * ✔ True → this method can take bytes straight from a SendPipeline.
+     * ✔ False (default) → Sender zips/encrypts to temp files and calls send(...).
+     */
+    default boolean supportsStreamingSend() {
+        return false;
+    }
+
+    /**
+     * sendStream
+     * ----------
+     * Baby-English:
+     * ✔ Sender side, one pass: read → zip → encrypt → hash → wire, all at once.
+     *
+     * @param senderName   Who is sending (for logs/audit only).
+     * @param pipeline     Running pipeline; its stream() is read exactly once.
+     * @param targetConfig Encapsulates target details (host, port, mode, AES key).
+     * @return SHA-256 of the bytes sent.
+     *
+     * @throws Exception if something serious goes wrong.
+     */
+    default String sendStream(String senderName,
+                              SendPipeline pipeline,
+                              TargetConfig targetConfig) throws Exception {
+        throw new UnsupportedOperationException("Streaming send is not supported by " + getClass().getSimpleName());
+    }
+}
@@ -160,7 +160,7 @@ public class ZeroTierTransferService implements TransferMethod {
             LoggerUtil.info("🔐 [ZeroTier] Decrypting file...");
             File decryptedFile = new File(targetFile.toString().replace(".enc", ""));
             // FIX: Use correct AesUtil signature (requires SecretKey)
-            AesUtil.decryptFile(targetFile.toFile(), decryptedFile, AesUtil.buildKeyFromPassword(aesPassword));
+            AesUtil.decryptFile(targetFile.toFile(), decryptedFile, aesPassword);
             Files.deleteIfExists(targetFile);
             targetFile = decryptedFile.toPath();
             LoggerUtil.success("✅ [ZeroTier] File decrypted: " + targetFile.getFileName());
@@ -169,7 +169,7 @@ public class ZeroTierTransferService implements TransferMethod {
         // 2. Verify checksum
         String expectedChecksum = TransferContext.getExpectedChecksum();
         if (expectedChecksum != null && !expectedChecksum.isBlank()) {
-            String actual = HashUtil.sha256Hex(targetFile.toFile());
+            String actual = HashUtil.digestLike(targetFile.toFile(), expectedChecksum);
             if (expectedChecksum.equalsIgnoreCase(actual)) {
                 LoggerUtil.success("🔒 [ZeroTier] Checksum OK");
             } else {
@@ -0,0 +1,103 @@
+package com.filesharingapp.utils;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * BufferPool
+ * ----------
+ * Baby English:
+ * - A shelf of ready-made I/O buffers, all the same size.
+ * - acquire() → take one (or make one if the shelf is empty).
+ * - release() → put it back for the next request.
+ * - Direct buffers by default: the OS reads/writes them with no extra copy.
+ * - acquire(bytes) → a bigger buffer (e.g. one sealed AES segment), from a shelf
+ *   of its own size (rounded up to 4 KiB). Each shelf keeps about as many bytes
+ *   as the default shelf (poolSize × size).
+ *
+ * Why:
+ * - One buffer per in-flight request, whatever the chunk size.
+ * - No new byte[] per chunk → far less garbage under load.
+ *
+ * Config (application.properties):
+ * - io.buffer.size     → bytes per buffer (default 64 KiB)
+ * - io.buffer.poolSize → most buffers kept on the shelf (default 256)
+ * - io.buffer.direct   → true = direct (off-heap) buffers
+ */
+public final class BufferPool {
+
+    private static final int BUFFER_SIZE = Math.max(4096, AppConfig.getInt("io.buffer.size", 64 * 1024));
+    private static final int MAX_POOLED = Math.max(0, AppConfig.getInt("io.buffer.poolSize", 256));
+    private static final boolean DIRECT = AppConfig.getBoolean("io.buffer.direct", true);
+
+    /** Sizes above BUFFER_SIZE are rounded up to this step (fewer shelves). */
+    private static final int SIZE_STEP = 4096;
+
+    private static final ConcurrentHashMap<Integer, Shelf> SHELVES = new ConcurrentHashMap<>();
+
+    private BufferPool() {
+        // Utility class – no objects.
+    }
+
+    /** Free buffers of one capacity. */
+    private static final class Shelf {
+        final int capacity;
+        final int maxPooled;
+        final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+        final AtomicInteger count = new AtomicInteger();
+
+        Shelf(int capacity) {
+            this.capacity = capacity;
+            this.maxPooled = (MAX_POOLED == 0) ? 0
+                    : (int) Math.max(1L, (long) MAX_POOLED * BUFFER_SIZE / capacity);
+        }
+    }
+
+    /** Take a cleared buffer of bufferSize() bytes. Always pair with release(). */
+    public static ByteBuffer acquire() {
+        return acquire(BUFFER_SIZE);
+    }
+
+    /**
+     * Take a cleared buffer of at least "bytes" bytes (capacity may be a bit more;
+     * the limit is set to "bytes"). Always pair with release().
+     */
+    public static ByteBuffer acquire(int bytes) {
+        Shelf shelf = shelfFor(capacityFor(bytes));
+        ByteBuffer buf = shelf.free.poll();
+        if (buf != null) {
+            shelf.count.decrementAndGet();
+        } else {
+            buf = DIRECT ? ByteBuffer.allocateDirect(shelf.capacity) : ByteBuffer.allocate(shelf.capacity);
+        }
+        buf.clear().limit(bytes);
+        return buf;
+    }
+
+    /** Give a buffer back. Extra buffers (shelf full) are left to the GC. */
+    public static void release(ByteBuffer buf) {
+        if (buf == null || buf.capacity() != capacityFor(buf.capacity())) return;
+        Shelf shelf = shelfFor(buf.capacity());
+        if (shelf.count.incrementAndGet() > shelf.maxPooled) {
+            shelf.count.decrementAndGet();
+            return;
+        }
+        buf.clear();
+        shelf.free.offer(buf);
+    }
+
+    private static int capacityFor(int bytes) {
+        if (bytes <= BUFFER_SIZE) return BUFFER_SIZE;
+        return (int) Math.min(Integer.MAX_VALUE, ((long) bytes + SIZE_STEP - 1) / SIZE_STEP * SIZE_STEP);
+    }
+
+    private static Shelf shelfFor(int capacity) {
+        return SHELVES.computeIfAbsent(capacity, Shelf::new);
+    }
+
+    public static int bufferSize() {
+        return BUFFER_SIZE;
+    }
+}
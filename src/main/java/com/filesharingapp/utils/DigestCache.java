@@ -0,0 +1,234 @@
+package com.filesharingapp.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DigestCache
+ * -----------
+ * Baby-English:
+ * ✔ Remembers the SHA-256 of files we already hashed
+ *   (and other 32-byte digests such as tree roots, under their own "variant").
+ * ✔ Key = canonical path. The answer is only trusted if the file still has the
+ *   same size, the same last-modified time and the same file key (inode),
+ *   so an edited or replaced file is always hashed again.
+ * ✔ A file whose mtime is not older than the moment we started hashing is NOT
+ *   remembered: it could change again inside the same mtime tick and look untouched.
+ *   (Whole-second mtimes, e.g. FAT, get a 2-second safety margin.)
+ * ✔ Least-recently-used entries fall out when the cache is full.
+ * ✔ Kept on disk in a small binary index, so a restart still remembers.
+ *
+ * Config (application.properties):
+ * - hash.cache.enabled    → false = always hash
+ * - hash.cache.file       → where the index lives
+ * - hash.cache.maxEntries → LRU size
+ */
+public final class DigestCache {
+
+    private static final boolean ENABLED = AppConfig.getBoolean("hash.cache.enabled", true);
+    private static final Path INDEX_FILE = Path.of(AppConfig.get("hash.cache.file", "cache/digests.idx"));
+    private static final int MAX_ENTRIES = Math.max(1, AppConfig.getInt("hash.cache.maxEntries", 10_000));
+
+    /** Safety margin for file systems that only keep whole-second mtimes. */
+    private static final long COARSE_MTIME_WINDOW_MS = 2000;
+
+    private static final int MAGIC = 0x44474331; // "DGC1"
+
+    /** Access-ordered → iteration starts at the least recently used entry. */
+    private static final LinkedHashMap<String, Entry> ENTRIES = new LinkedHashMap<>(256, 0.75f, true);
+    private static boolean loaded;
+
+    private DigestCache() {
+        // Utility class – no objects.
+    }
+
+    /** What we knew about one file when we hashed it. */
+    private static final class Entry {
+        final long size;
+        final long mtimeNanos;
+        final String fileKey;
+        final String sha256;
+
+        Entry(long size, long mtimeNanos, String fileKey, String sha256) {
+            this.size = size;
+            this.mtimeNanos = mtimeNanos;
+            this.fileKey = fileKey;
+            this.sha256 = sha256;
+        }
+
+        boolean matches(BasicFileAttributes attrs) {
+            return size == attrs.size()
+                    && mtimeNanos == attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS)
+                    && fileKey.equals(keyOf(attrs));
+        }
+    }
+
+    /**
+     * Function that really hashes a file (HashUtil hands in its own).
+     */
+    @FunctionalInterface
+    public interface Hasher {
+        String hash(File file) throws IOException;
+    }
+
+    /**
+     * sha256Hex
+     * ---------
+     * Baby-English:
+     * ✔ Same file, untouched since last time → answer from the cache, no reading.
+     * ✔ Otherwise → hash it with "hasher" and remember the result.
+     */
+    public static String sha256Hex(File file, Hasher hasher) throws IOException {
+        return digestHex(file, "", hasher);
+    }
+
+    /**
+     * digestHex
+     * ---------
+     * Baby-English:
+     * ✔ Same as sha256Hex, for another kind of 32-byte digest ("variant", e.g. a tree
+     *   hash with its block size). Each variant is remembered separately.
+     */
+    public static String digestHex(File file, String variant, Hasher hasher) throws IOException {
+        if (!ENABLED) return hasher.hash(file);
+
+        Path path = file.toPath().toRealPath();
+        String key = variant.isEmpty() ? path.toString() : variant + "|" + path;
+        BasicFileAttributes before = Files.readAttributes(path, BasicFileAttributes.class);
+
+        synchronized (ENTRIES) {
+            loadOnce();
+            Entry hit = ENTRIES.get(key);
+            if (hit != null && hit.matches(before)) {
+                LoggerUtil.info("[Hash] Cache hit for " + file.getName() + " (skipped " + before.size() + " bytes)");
+                return hit.sha256;
+            }
+        }
+
+        long hashStartMs = System.currentTimeMillis();
+        String sha = hasher.hash(file);
+
+        // Only remember it if the file did not change while we read it, and is not "racily" fresh.
+        BasicFileAttributes after = Files.readAttributes(path, BasicFileAttributes.class);
+        long mtimeNanos = after.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        long window = (mtimeNanos % 1_000_000_000L == 0) ? COARSE_MTIME_WINDOW_MS : 0L;
+        boolean stable = new Entry(before.size(), before.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+                keyOf(before), sha).matches(after);
+        if (stable && after.lastModifiedTime().toMillis() + window < hashStartMs) {
+            synchronized (ENTRIES) {
+                ENTRIES.put(key, new Entry(after.size(), after.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+                        keyOf(after), sha));
+                trim();
+                save();
+            }
+        }
+        return sha;
+    }
+
+    /** Forget everything (memory and disk). */
+    public static void clear() {
+        synchronized (ENTRIES) {
+            ENTRIES.clear();
+            loaded = true;
+            try {
+                Files.deleteIfExists(INDEX_FILE);
+            } catch (IOException e) {
+                LoggerUtil.warn("[Hash] Could not delete digest index: " + e.getMessage());
+            }
+        }
+    }
+
+    private static String keyOf(BasicFileAttributes attrs) {
+        Object k = attrs.fileKey();
+        return k == null ? "" : k.toString();
+    }
+
+    private static void trim() {
+        Iterator<String> it = ENTRIES.keySet().iterator();
+        while (ENTRIES.size() > MAX_ENTRIES && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    // ============================
+    // ✅ On-disk index
+    // ============================
+    // Layout: MAGIC, count, then per entry (oldest first):
+    //   UTF path, long size, long mtimeNanos, UTF fileKey, 32 raw digest bytes.
+
+    private static void loadOnce() {
+        if (loaded) return;
+        loaded = true;
+        if (!Files.exists(INDEX_FILE)) return;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(INDEX_FILE)))) {
+            if (in.readInt() != MAGIC) throw new IOException("not a digest index");
+            int count = in.readInt();
+            byte[] digest = new byte[32];
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                long size = in.readLong();
+                long mtime = in.readLong();
+                String fileKey = in.readUTF();
+                in.readFully(digest);
+                ENTRIES.put(path, new Entry(size, mtime, fileKey, HashUtil.bytesToHex(digest)));
+            }
+            trim();
+            LoggerUtil.info("[Hash] Loaded " + ENTRIES.size() + " cached digests from " + INDEX_FILE);
+        } catch (IOException e) {
+            LoggerUtil.warn("[Hash] Ignoring unreadable digest index " + INDEX_FILE + ": " + e.getMessage());
+            ENTRIES.clear();
+        }
+    }
+
+    /** Write to a temp file, then rename: a crash never leaves half an index. */
+    private static void save() {
+        try {
+            Path dir = INDEX_FILE.toAbsolutePath().getParent();
+            if (dir != null) Files.createDirectories(dir);
+            Path tmp = INDEX_FILE.resolveSibling(INDEX_FILE.getFileName() + ".tmp");
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(ENTRIES.size());
+                for (Map.Entry<String, Entry> e : ENTRIES.entrySet()) {
+                    Entry v = e.getValue();
+                    out.writeUTF(e.getKey());
+                    out.writeLong(v.size);
+                    out.writeLong(v.mtimeNanos);
+                    out.writeUTF(v.fileKey);
+                    out.write(hexToBytes(v.sha256));
+                }
+            }
+            try {
+                Files.move(tmp, INDEX_FILE, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, INDEX_FILE, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            LoggerUtil.warn("[Hash] Could not save digest index: " + e.getMessage());
+        }
+    }
+
+    private static byte[] hexToBytes(String hex) {
+        byte[] out = new byte[hex.length() / 2];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return out;
+    }
+}
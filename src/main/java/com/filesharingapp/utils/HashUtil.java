@@ -6,6 +6,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.zip.CRC32C;
 
 /**
  * HashUtil
@@ -13,6 +15,12 @@ import java.security.NoSuchAlgorithmException;
  * Baby-English:
  * ✔ We make digital fingerprints (SHA-256) for strings and files.
  * ✔ Used to check file integrity after transfer.
+ * ✔ sha256Hex(File) goes through DigestCache: an untouched file is not read again.
+ * ✔ sha256HexUncached(File) always reads every byte (use it to verify received data).
+ * ✔ treeHash(File) → Merkle root over fixed blocks, hashed on all cores (see TreeHash).
+ * ✔ digestLike(File, expected) → computes whichever kind "expected" is, so the
+ *   receiver verifies with the same algorithm the sender picked.
+ * ✔ crc32c(...) → cheap per-chunk check on the wire (CPU CRC instructions, far faster than SHA-256).
  */
 public class HashUtil {
 
@@ -20,12 +28,23 @@ public class HashUtil {
 
     /**
      * Generates a SHA-256 hash for the given file.
-     * This is the core method for integrity checks.
+     * Answers from DigestCache when the file (path, size, mtime, file key) is unchanged.
      *
      * @param file The File object to hash.
      * @return SHA-256 hash in hexadecimal format.
      */
     public static String sha256Hex(File file) throws IOException {
+        return DigestCache.sha256Hex(file, HashUtil::sha256HexUncached);
+    }
+
+    /**
+     * Generates a SHA-256 hash for the given file by reading all of it.
+     * This is the core method for integrity checks.
+     *
+     * @param file The File object to hash.
+     * @return SHA-256 hash in hexadecimal format.
+     */
+    public static String sha256HexUncached(File file) throws IOException {
         try (InputStream is = new FileInputStream(file)) {
             MessageDigest digest = MessageDigest.getInstance("SHA-256");
             byte[] buffer = new byte[8192];
@@ -40,6 +59,29 @@ public class HashUtil {
         }
     }
 
+    /**
+     * Tree digest ("tree-sha256:&lt;blockBytes&gt;:&lt;root&gt;") of a file, hashed on every core.
+     * Answers from DigestCache when the file is unchanged.
+     */
+    public static String treeHash(File file) throws IOException {
+        int block = TreeHash.DEFAULT_BLOCK_BYTES;
+        String root = DigestCache.digestHex(file, TreeHash.tag(block, ""),
+                f -> TreeHash.hash(f, block).rootHex());
+        return TreeHash.tag(block, root);
+    }
+
+    /**
+     * Same kind of digest as "expected" (plain SHA-256 or tree hash with its block size),
+     * always computed from the bytes on disk. Used to verify received files.
+     */
+    public static String digestLike(File file, String expected) throws IOException {
+        int block = TreeHash.blockBytesOf(expected);
+        if (block > 0) {
+            return TreeHash.hash(file, block).tag();
+        }
+        return sha256HexUncached(file);
+    }
+
     /**
      * Generates a hash for the given input string.
      *
@@ -64,10 +106,51 @@ public class HashUtil {
         return generateHash(input, "SHA-256");
     }
 
+    /**
+     * A fresh SHA-256 digest (for callers that hash while streaming).
+     */
+    public static MessageDigest sha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 algorithm not found.", e);
+        }
+    }
+
+    /**
+     * CRC32C (Castagnoli) of a byte range.
+     * java.util.zip.CRC32C is a JIT intrinsic (SSE4.2 / ARMv8 CRC), so it keeps up with the network.
+     */
+    public static int crc32c(byte[] data, int off, int len) {
+        CRC32C crc = new CRC32C();
+        crc.update(data, off, len);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Header text of a CRC32C: base64 of its 4 big-endian bytes
+     * (same form as S3's x-amz-checksum-crc32c).
+     */
+    public static String crc32cHeader(int crc) {
+        byte[] b = {(byte) (crc >>> 24), (byte) (crc >>> 16), (byte) (crc >>> 8), (byte) crc};
+        return Base64.getEncoder().encodeToString(b);
+    }
+
+    /**
+     * Reads crc32cHeader text back.
+     *
+     * @throws IllegalArgumentException when it is not 4 bytes of base64
+     */
+    public static int parseCrc32cHeader(String header) {
+        byte[] b = Base64.getDecoder().decode(header.trim());
+        if (b.length != 4) throw new IllegalArgumentException("CRC32C must be 4 bytes, got " + b.length);
+        return ((b[0] & 0xff) << 24) | ((b[1] & 0xff) << 16) | ((b[2] & 0xff) << 8) | (b[3] & 0xff);
+    }
+
     /**
      * Converts a byte array to a hexadecimal string.
      */
-    private static String bytesToHex(byte[] bytes) {
+    public static String bytesToHex(byte[] bytes) {
         StringBuilder hexString = new StringBuilder();
         for (byte b : bytes) {
             String hex = Integer.toHexString(0xff & b);
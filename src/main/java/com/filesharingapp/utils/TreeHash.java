@@ -0,0 +1,268 @@
+package com.filesharingapp.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * TreeHash
+ * --------
+ * Baby-English:
+ * ✔ Plain SHA-256 must read a file front to back on ONE core.
+ * ✔ Tree hash cuts the file into fixed blocks (hash.tree.blockBytes) and hashes
+ *   every block on its own core, then hashes the block hashes together in pairs
+ *   until one "root" is left (a Merkle tree).
+ * ✔ Same shape as RFC 6962 (Certificate Transparency):
+ *     leaf  = SHA-256(0x00 || block bytes)
+ *     node  = SHA-256(0x01 || left || right)
+ *     split = largest power of two below the block count
+ *     empty file → SHA-256 of nothing
+ * ✔ Blocks are read through memory maps, so no copy into a Java buffer first.
+ * ✔ We keep every block hash too: later we can check (or resend) single blocks.
+ * ✔ Chunk uploads send chunkHash(...) of their blocks; the server checks each chunk
+ *   as it lands and builds the same root from the block hashes it kept (root(...)).
+ *
+ * Text form of a tree digest: "tree-sha256:&lt;blockBytes&gt;:&lt;root hex&gt;".
+ * A plain 64-char hex string is still plain SHA-256.
+ *
+ * Config (application.properties):
+ * - hash.tree.blockBytes  → block size (default 4 MiB)
+ * - hash.tree.parallelism → threads (0 = one per core)
+ */
+public final class TreeHash {
+
+    public static final String PREFIX = "tree-sha256:";
+
+    public static final int DEFAULT_BLOCK_BYTES =
+            Math.max(64 * 1024, AppConfig.getInt("hash.tree.blockBytes", 4 * 1024 * 1024));
+
+    private static final int PARALLELISM = AppConfig.getInt("hash.tree.parallelism", 0);
+
+    private static final byte LEAF = 0x00;
+    private static final byte NODE = 0x01;
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(
+            PARALLELISM > 0 ? PARALLELISM : Runtime.getRuntime().availableProcessors());
+
+    private TreeHash() {
+        // Utility class – no objects.
+    }
+
+    /** Root plus every block hash of one file. */
+    public static final class Result {
+        private final int blockBytes;
+        private final byte[] root;
+        private final byte[][] blockHashes;
+
+        Result(int blockBytes, byte[] root, byte[][] blockHashes) {
+            this.blockBytes = blockBytes;
+            this.root = root;
+            this.blockHashes = blockHashes;
+        }
+
+        public int blockBytes()          { return blockBytes; }
+        public int blockCount()          { return blockHashes.length; }
+        public String rootHex()          { return HashUtil.bytesToHex(root); }
+        public byte[] blockHash(int i)   { return blockHashes[i].clone(); }
+        public String blockHashHex(int i) { return HashUtil.bytesToHex(blockHashes[i]); }
+
+        /** "tree-sha256:&lt;blockBytes&gt;:&lt;root&gt;" */
+        public String tag() {
+            return TreeHash.tag(blockBytes, rootHex());
+        }
+    }
+
+    public static String tag(int blockBytes, String rootHex) {
+        return PREFIX + blockBytes + ":" + rootHex;
+    }
+
+    /** True when this checksum text is a tree digest (not plain SHA-256). */
+    public static boolean isTreeDigest(String checksum) {
+        return checksum != null && checksum.startsWith(PREFIX);
+    }
+
+    /** Block size written inside a tree digest; -1 if the text is not one. */
+    public static int blockBytesOf(String checksum) {
+        if (!isTreeDigest(checksum)) return -1;
+        int colon = checksum.indexOf(':', PREFIX.length());
+        if (colon < 0) return -1;
+        try {
+            int n = Integer.parseInt(checksum.substring(PREFIX.length(), colon));
+            return n > 0 ? n : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /** Root hex inside a tree digest (or the text itself for plain SHA-256). */
+    public static String rootOf(String checksum) {
+        if (checksum == null) return null;
+        return checksum.substring(checksum.lastIndexOf(':') + 1);
+    }
+
+    public static Result hash(File file) throws IOException {
+        return hash(file, DEFAULT_BLOCK_BYTES);
+    }
+
+    /**
+     * hash
+     * ----
+     * Baby-English:
+     * ✔ One task per block range; big ranges split in two until one block is left.
+     * ✔ The ForkJoin pool keeps every core busy (idle threads steal work).
+     */
+    public static Result hash(File file, int blockBytes) throws IOException {
+        if (blockBytes <= 0) throw new IllegalArgumentException("blockBytes must be > 0");
+
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = ch.size();
+            long count = (size + blockBytes - 1) / blockBytes;
+            if (count > Integer.MAX_VALUE) throw new IOException("Too many blocks: " + count);
+            byte[][] leaves = new byte[(int) count][];
+
+            byte[] root;
+            if (count == 0) {
+                root = sha256().digest();
+            } else {
+                try {
+                    root = POOL.invoke(new Node(ch, size, blockBytes, leaves, 0, (int) count));
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+            }
+            return new Result(blockBytes, root, leaves);
+        }
+    }
+
+    /**
+     * hashAsync
+     * ---------
+     * Baby-English:
+     * ✔ Same as hash(file, blockBytes), started on a helper thread and returned at once,
+     *   so the caller can keep sending while the digest is built on the spare cores.
+     */
+    public static CompletableFuture<Result> hashAsync(File file, int blockBytes) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return hash(file, blockBytes);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /** Hash of blocks [from, to); fills "leaves" on the way down. */
+    private static final class Node extends RecursiveTask<byte[]> {
+        private final FileChannel ch;
+        private final long size;
+        private final int blockBytes;
+        private final byte[][] leaves;
+        private final int from;
+        private final int to;
+
+        Node(FileChannel ch, long size, int blockBytes, byte[][] leaves, int from, int to) {
+            this.ch = ch;
+            this.size = size;
+            this.blockBytes = blockBytes;
+            this.leaves = leaves;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected byte[] compute() {
+            int n = to - from;
+            if (n == 1) {
+                leaves[from] = leaf(from);
+                return leaves[from];
+            }
+            int k = Integer.highestOneBit(n - 1); // largest power of two < n
+            Node left = new Node(ch, size, blockBytes, leaves, from, from + k);
+            Node right = new Node(ch, size, blockBytes, leaves, from + k, to);
+            left.fork();
+            byte[] r = right.compute();
+            byte[] l = left.join();
+            return node(l, r);
+        }
+
+        private byte[] leaf(int index) {
+            long pos = (long) index * blockBytes;
+            long len = Math.min(blockBytes, size - pos);
+            try {
+                MappedByteBuffer block = ch.map(FileChannel.MapMode.READ_ONLY, pos, len);
+                MessageDigest md = sha256();
+                md.update(LEAF);
+                md.update(block);
+                return md.digest();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /** Hash of one in-memory block (same leaf rule as files). */
+    public static byte[] leafHash(byte[] data, int off, int len) {
+        MessageDigest md = sha256();
+        md.update(LEAF);
+        md.update(data, off, len);
+        return md.digest();
+    }
+
+    /** Digest that already holds the leaf prefix: feed one block, then digest(). */
+    public static MessageDigest newLeafDigest() {
+        MessageDigest md = sha256();
+        md.update(LEAF);
+        return md;
+    }
+
+    /**
+     * chunkHash
+     * ---------
+     * Baby-English:
+     * ✔ SHA-256 over the block hashes [from, to), one after the other.
+     * ✔ One short text per upload chunk, whatever its size; no blocks → SHA-256 of nothing.
+     */
+    public static byte[] chunkHash(byte[][] leaves, int from, int to) {
+        MessageDigest md = sha256();
+        for (int i = from; i < to; i++) md.update(leaves[i]);
+        return md.digest();
+    }
+
+    /**
+     * root
+     * ----
+     * Baby-English:
+     * ✔ Same root as hash(File), but from block hashes we already have (no file reading).
+     * ✔ No blocks (empty file) → SHA-256 of nothing.
+     */
+    public static byte[] root(byte[][] leaves) {
+        if (leaves.length == 0) return sha256().digest();
+        return subtree(leaves, 0, leaves.length);
+    }
+
+    private static byte[] subtree(byte[][] leaves, int from, int to) {
+        int n = to - from;
+        if (n == 1) return leaves[from];
+        int k = Integer.highestOneBit(n - 1);
+        return node(subtree(leaves, from, from + k), subtree(leaves, from + k, to));
+    }
+
+    static byte[] node(byte[] left, byte[] right) {
+        MessageDigest md = sha256();
+        md.update(NODE);
+        md.update(left);
+        md.update(right);
+        return md.digest();
+    }
+
+    private static MessageDigest sha256() {
+        return HashUtil.sha256Digest();
+    }
+}
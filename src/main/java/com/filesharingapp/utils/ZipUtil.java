@@ -93,7 +93,7 @@ public final class ZipUtil {
     // ============================
     // ✅ Sanitize File Name
     // ============================
-    private static String sanitizeName(String name) {
+    public static String sanitizeName(String name) {
         // Baby English: Remove bad characters
         return name.replaceAll("[^A-Za-z0-9._-]", "_");
     }
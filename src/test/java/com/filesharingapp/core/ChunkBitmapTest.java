@@ -0,0 +1,72 @@
+package com.filesharingapp.core;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * ChunkBitmapTest
+ * ---------------
+ * Baby-English:
+ * - Checks the one-bit-per-chunk state in TransferContext.
+ * - Each test uses its own transferId, so tests can run in parallel.
+ */
+public class ChunkBitmapTest {
+
+    @Test(description = "A chunk is counted once; duplicates and out-of-range indexes are ignored")
+    public void markIsIdempotentAndBounded() {
+        String id = "bitmap-mark";
+        TransferContext.initChunkState(id, 3, 1024);
+        try {
+            Assert.assertTrue(TransferContext.markChunkReceived(id, 1));
+            Assert.assertFalse(TransferContext.markChunkReceived(id, 1), "Duplicate must return false");
+            Assert.assertFalse(TransferContext.markChunkReceived(id, -1));
+            Assert.assertFalse(TransferContext.markChunkReceived(id, 3));
+
+            Assert.assertTrue(TransferContext.isChunkReceived(id, 1));
+            Assert.assertFalse(TransferContext.isChunkReceived(id, 0));
+            Assert.assertFalse(TransferContext.areAllChunksReceived(id));
+
+            TransferContext.markChunkReceived(id, 0);
+            TransferContext.markChunkReceived(id, 2);
+            Assert.assertTrue(TransferContext.areAllChunksReceived(id));
+        } finally {
+            TransferContext.clearTransfer(id);
+        }
+    }
+
+    @Test(description = "Received and missing runs are right across 64-chunk word edges")
+    public void rangesCrossWordEdges() {
+        String id = "bitmap-ranges";
+        TransferContext.initChunkState(id, 200, 1024);
+        try {
+            for (int i = 60; i < 130; i++) TransferContext.markChunkReceived(id, i);
+            TransferContext.markChunkReceived(id, 199);
+
+            Assert.assertEquals(TransferContext.getReceivedChunkRanges(id).toString(), "[60-130, 199-200]");
+            Assert.assertEquals(TransferContext.getMissingChunkRanges(id).toString(), "[0-60, 130-199]");
+        } finally {
+            TransferContext.clearTransfer(id);
+        }
+    }
+
+    @Test(description = "The unused bits of the last word never show up as missing chunks")
+    public void lastWordTailIsIgnored() {
+        String id = "bitmap-tail";
+        TransferContext.initChunkState(id, 65, 1024);
+        try {
+            for (int i = 0; i < 65; i++) TransferContext.markChunkReceived(id, i);
+            Assert.assertTrue(TransferContext.areAllChunksReceived(id));
+            Assert.assertTrue(TransferContext.getMissingChunkRanges(id).isEmpty());
+            Assert.assertEquals(TransferContext.getReceivedChunkRanges(id).toString(), "[0-65]");
+        } finally {
+            TransferContext.clearTransfer(id);
+        }
+    }
+
+    @Test(description = "Unknown transfers report nothing instead of failing")
+    public void unknownTransferIsEmpty() {
+        Assert.assertEquals(TransferContext.getChunkCount("bitmap-unknown"), 0);
+        Assert.assertFalse(TransferContext.areAllChunksReceived("bitmap-unknown"));
+        Assert.assertTrue(TransferContext.getMissingChunkRanges("bitmap-unknown").isEmpty());
+    }
+}
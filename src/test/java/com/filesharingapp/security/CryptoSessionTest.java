@@ -0,0 +1,62 @@
+package com.filesharingapp.security;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+
+/**
+ * CryptoSessionTest
+ * -----------------
+ * Baby-English:
+ * - Headers arrive unauthenticated: the kdf, cost and suite they ask for are
+ *   checked BEFORE any key stretching, and never above our own crypto.kdf.cost.
+ * - Same salt + password → the cached session, no second stretching.
+ */
+public class CryptoSessionTest {
+
+    private static final String PASSWORD = "kdf-cap-test";
+    private static final CryptoSession OURS = CryptoSession.create(PASSWORD, CipherSuites.AES_256_GCM);
+
+    @Test(description = "A header asking for more rounds than crypto.kdf.cost is refused")
+    public void costAboveOursIsRefused() {
+        IOException e = Assert.expectThrows(IOException.class, () -> CryptoSession.forHeader(PASSWORD,
+                OURS.suite(), CryptoSession.KDF_PBKDF2_SHA256, OURS.cost() + 1, OURS.salt()));
+        Assert.assertTrue(e.getMessage().contains("crypto.kdf.cost"), e.getMessage());
+
+        Assert.assertThrows(IOException.class, () -> CryptoSession.forHeader(PASSWORD,
+                OURS.suite(), CryptoSession.KDF_PBKDF2_SHA256, 255, OURS.salt()));
+    }
+
+    @Test(description = "A header asking for too few rounds is refused too")
+    public void costBelowMinimumIsRefused() {
+        Assert.assertThrows(IOException.class, () -> CryptoSession.forHeader(PASSWORD,
+                OURS.suite(), CryptoSession.KDF_PBKDF2_SHA256, 9, OURS.salt()));
+        Assert.assertThrows(IOException.class, () -> CryptoSession.forHeader(PASSWORD,
+                OURS.suite(), CryptoSession.KDF_PBKDF2_SHA256, 0, OURS.salt()));
+    }
+
+    @Test(description = "Unknown kdf, an HKDF header with a cost, or an unknown suite are refused")
+    public void unknownParametersAreRefused() {
+        Assert.assertThrows(IOException.class, () -> CryptoSession.forHeader(PASSWORD,
+                OURS.suite(), (byte) 7, OURS.cost(), OURS.salt()));
+        Assert.assertThrows(IOException.class, () -> CryptoSession.forHeader(PASSWORD,
+                OURS.suite(), CryptoSession.KDF_HKDF_SHA256, 1, OURS.salt()));
+        Assert.assertThrows(IOException.class, () -> CryptoSession.forHeader(PASSWORD,
+                (byte) 9, CryptoSession.KDF_PBKDF2_SHA256, OURS.cost(), OURS.salt()));
+    }
+
+    @Test(description = "The cap also holds through SegmentedGcm.open on a received header")
+    public void containerHeaderCostIsCapped() {
+        byte[] header = SegmentedGcm.create(OURS, 1024).header();
+        header[7] = (byte) (OURS.cost() + 1);
+        Assert.assertThrows(IOException.class, () -> SegmentedGcm.open(PASSWORD, header));
+    }
+
+    @Test(description = "Our own cost is accepted, and the same salt + password reuses the session")
+    public void ownCostIsAcceptedAndCached() throws IOException {
+        CryptoSession again = CryptoSession.forHeader(PASSWORD, OURS.suite(),
+                CryptoSession.KDF_PBKDF2_SHA256, OURS.cost(), OURS.salt());
+        Assert.assertSame(again, OURS);
+    }
+}
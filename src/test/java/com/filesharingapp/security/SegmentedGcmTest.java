@@ -0,0 +1,126 @@
+package com.filesharingapp.security;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * SegmentedGcmTest
+ * ----------------
+ * Baby-English:
+ * - FSG1 containers must give back exactly what went in.
+ * - A flipped byte, a changed header, a wrong password, or segments cut off the
+ *   end must be caught, never handed out as plain bytes.
+ * - One session for the whole class, so the key is stretched only once.
+ */
+public class SegmentedGcmTest {
+
+    private static final String PASSWORD = "correct horse battery staple";
+    private static final int SEGMENT = 1024;
+    private static final CryptoSession SESSION = CryptoSession.create(PASSWORD);
+
+    @Test(description = "Sealer → openingStream gives back the same bytes, for every size around a segment edge")
+    public void streamRoundTrip() throws IOException {
+        for (int size : new int[]{0, 1, SEGMENT - 1, SEGMENT, SEGMENT + 1, 5 * SEGMENT, 5 * SEGMENT + 77}) {
+            byte[] plain = randomBytes(size);
+            byte[] sealed = seal(plain);
+            SegmentedGcm gcm = SegmentedGcm.create(SESSION, SEGMENT);
+            Assert.assertEquals(sealed.length, gcm.cipherSize(size), "size " + size);
+            Assert.assertEquals(gcm.plainSize(sealed.length), size, "size " + size);
+            Assert.assertEquals(open(sealed, PASSWORD), plain, "size " + size);
+        }
+    }
+
+    @Test(description = "encryptFile → decryptFile round trip on all cores")
+    public void fileRoundTrip() throws IOException {
+        byte[] plain = randomBytes(3 * SegmentedGcm.DEFAULT_SEGMENT_BYTES + 12_345);
+        Path dir = Files.createTempDirectory("fsg1");
+        File in = dir.resolve("in.bin").toFile();
+        File enc = dir.resolve("in.bin.enc").toFile();
+        File out = dir.resolve("out.bin").toFile();
+        Files.write(in.toPath(), plain);
+
+        SegmentedGcm.encryptFile(in, enc, PASSWORD);
+        Assert.assertTrue(SegmentedGcm.isContainer(enc));
+        Assert.assertFalse(SegmentedGcm.isContainer(in));
+        SegmentedGcm.decryptFile(enc, out, PASSWORD);
+        Assert.assertEquals(Files.readAllBytes(out.toPath()), plain);
+    }
+
+    @Test(description = "One flipped byte in any segment fails that segment")
+    public void tamperedSegmentIsCaught() throws IOException {
+        byte[] sealed = seal(randomBytes(3 * SEGMENT));
+        SegmentedGcm gcm = SegmentedGcm.create(SESSION, SEGMENT);
+        for (long seg = 0; seg < 3; seg++) {
+            byte[] bad = sealed.clone();
+            bad[(int) gcm.cipherOffsetOf(seg) + 5] ^= 1;
+            Assert.assertThrows(SegmentedGcm.BadSegmentException.class, () -> open(bad, PASSWORD));
+        }
+    }
+
+    @Test(description = "The header is authenticated: changing its nonce prefix fails the segments")
+    public void tamperedHeaderIsCaught() throws IOException {
+        byte[] bad = seal(randomBytes(SEGMENT));
+        bad[SegmentedGcm.HEADER_BYTES - 2] ^= 1;
+        Assert.assertThrows(SegmentedGcm.BadSegmentException.class, () -> open(bad, PASSWORD));
+    }
+
+    @Test(description = "Whole segments cut off the end are caught (the new end has no \"last\" flag)")
+    public void truncationIsCaught() throws IOException {
+        byte[] sealed = seal(randomBytes(3 * SEGMENT + 10));
+        SegmentedGcm gcm = SegmentedGcm.create(SESSION, SEGMENT);
+
+        byte[] lastGone = Arrays.copyOf(sealed, (int) gcm.cipherOffsetOf(3));
+        Assert.assertThrows(SegmentedGcm.BadSegmentException.class, () -> open(lastGone, PASSWORD));
+
+        byte[] bodyGone = Arrays.copyOf(sealed, SegmentedGcm.HEADER_BYTES);
+        Assert.assertThrows(IOException.class, () -> open(bodyGone, PASSWORD));
+
+        byte[] headerCut = Arrays.copyOf(sealed, SegmentedGcm.HEADER_BYTES - 1);
+        Assert.assertThrows(IOException.class, () -> open(headerCut, PASSWORD));
+    }
+
+    @Test(description = "A container cut inside a tag is refused by plainSize before any segment is read")
+    public void plainSizeRejectsCutTags() throws IOException {
+        SegmentedGcm gcm = SegmentedGcm.create(SESSION, SEGMENT);
+        Assert.assertEquals(gcm.plainSize(gcm.cipherSize(2L * SEGMENT)), 2L * SEGMENT);
+        Assert.assertThrows(IOException.class,
+                () -> gcm.plainSize(gcm.cipherOffsetOf(1) + SegmentedGcm.TAG_BYTES - 1));
+        Assert.assertThrows(IOException.class, () -> gcm.plainSize(SegmentedGcm.HEADER_BYTES));
+    }
+
+    @Test(description = "A wrong password opens nothing")
+    public void wrongPasswordIsCaught() throws IOException {
+        byte[] sealed = seal(randomBytes(SEGMENT));
+        Assert.assertThrows(SegmentedGcm.BadSegmentException.class, () -> open(sealed, "wrong password"));
+    }
+
+    private static byte[] seal(byte[] plain) throws IOException {
+        SegmentedGcm.Sealer sealer = SegmentedGcm.create(SESSION, SEGMENT).sealer();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        sealer.update(plain, 0, plain.length, out);
+        sealer.finish(out);
+        return out.toByteArray();
+    }
+
+    private static byte[] open(byte[] sealed, String password) throws IOException {
+        try (InputStream in = SegmentedGcm.openingStream(new ByteArrayInputStream(sealed), password)) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static byte[] randomBytes(int n) {
+        byte[] b = new byte[n];
+        new Random(n).nextBytes(b);
+        return b;
+    }
+}
@@ -0,0 +1,137 @@
+package com.filesharingapp.server;
+
+import com.filesharingapp.utils.TreeHash;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * PositionalUploadTest
+ * --------------------
+ * Baby-English:
+ * - Checks how a ".part" file is split into blocks, who may write a block,
+ *   who may finish the file, and the root built from the kept hashes.
+ * - Each test works in its own temp folder.
+ */
+public class PositionalUploadTest {
+
+    private static final int CHUNK = 1024;
+
+    @Test(description = "Whole-block chunks map to {first, end}; the last chunk may be short")
+    public void blocksForWholeBlocks() throws IOException {
+        try (PositionalUpload up = open(Files.createTempDirectory("pos-blocks"), 3 * CHUNK + 100)) {
+            Assert.assertEquals(up.chunkCount, 4);
+            Assert.assertEquals(up.blocksFor(0, CHUNK), new int[]{0, 1});
+            Assert.assertEquals(up.blocksFor(CHUNK, 2L * CHUNK), new int[]{1, 3});
+            Assert.assertEquals(up.blocksFor(3L * CHUNK, 100), new int[]{3, 4});
+            Assert.assertEquals(up.blocksFor(0, 3L * CHUNK + 100), new int[]{0, 4});
+        }
+    }
+
+    @Test(description = "Chunks off a block boundary, not whole blocks, or past the end are rejected")
+    public void blocksForRejectsBadChunks() throws IOException {
+        try (PositionalUpload up = open(Files.createTempDirectory("pos-bad"), 3 * CHUNK + 100)) {
+            Assert.assertThrows(IOException.class, () -> up.blocksFor(10, CHUNK));
+            Assert.assertThrows(IOException.class, () -> up.blocksFor(0, CHUNK + 1));
+            Assert.assertThrows(IOException.class, () -> up.blocksFor(3L * CHUNK, 101));
+            Assert.assertThrows(IOException.class, () -> up.blocksFor(-CHUNK, CHUNK));
+        }
+    }
+
+    @Test(description = "An empty file still has one, empty chunk")
+    public void emptyFileHasOneChunk() throws IOException {
+        try (PositionalUpload up = open(Files.createTempDirectory("pos-empty"), 0)) {
+            Assert.assertEquals(up.chunkCount, 1);
+            Assert.assertEquals(up.blocksFor(0, 0), new int[]{0, 1});
+        }
+    }
+
+    @Test(description = "A block has one writer until it is released")
+    public void claimIsExclusiveUntilRelease() throws IOException {
+        try (PositionalUpload up = open(Files.createTempDirectory("pos-claim"), 2 * CHUNK)) {
+            Assert.assertTrue(up.claim(0));
+            Assert.assertFalse(up.claim(0), "Second writer must be turned away");
+            Assert.assertTrue(up.claim(1), "Other blocks stay free");
+
+            up.release(0);
+            Assert.assertTrue(up.claim(0), "Released block can be claimed again");
+        }
+    }
+
+    @Test(description = "Only one request finishes the file; a failed finisher hands it back")
+    public void claimFinishPicksOneFinisher() throws IOException {
+        Path dir = Files.createTempDirectory("pos-finish");
+        PositionalUpload up = open(dir, CHUNK);
+        up.writeAt(ByteBuffer.wrap(new byte[CHUNK]), 0);
+
+        Assert.assertTrue(up.claimFinish());
+        Assert.assertFalse(up.claimFinish());
+        up.unclaimFinish();
+        Assert.assertTrue(up.claimFinish());
+
+        up.finish();
+        Assert.assertFalse(Files.exists(up.partFile));
+        Assert.assertEquals(Files.size(up.finalFile), CHUNK);
+    }
+
+    @Test(description = "Root from block hashes equals the root read back from the file")
+    public void blockRootMatchesFileHash() throws IOException {
+        Path dir = Files.createTempDirectory("pos-root");
+        byte[] data = randomBytes(5 * CHUNK + 300);
+        PositionalUpload up = open(dir, data.length);
+        up.writeAt(ByteBuffer.wrap(data), 0);
+        up.hashBlocksLater(0, up.chunkCount);
+        up.awaitBlockHashes();
+
+        Assert.assertEquals(up.rootBlockBytes(), CHUNK);
+        String tag = up.blockRootTag();
+        up.finish();
+        Assert.assertEquals(tag, TreeHash.hash(up.finalFile.toFile(), CHUNK).tag());
+    }
+
+    @Test(description = "Kept tree leaves give the sender's bigger-block root without reading the file at the end")
+    public void treeLeavesMatchFileHash() throws IOException {
+        Path dir = Files.createTempDirectory("pos-tree");
+        int treeBlock = 4 * CHUNK;
+        byte[] data = randomBytes(9 * CHUNK + 300);
+        PositionalUpload up = open(dir, data.length);
+        up.keepTreeLeaves(treeBlock);
+        Assert.assertTrue(up.keepsTreeLeaves());
+
+        up.writeAt(ByteBuffer.wrap(data), 0);
+        Assert.assertNull(up.blockRootTag(), "No root before every tree block is hashed");
+        for (int b = up.chunkCount - 1; b >= 0; b--) up.blockReceived(b);
+        up.awaitBlockHashes();
+
+        Assert.assertEquals(up.rootBlockBytes(), treeBlock);
+        String tag = up.blockRootTag();
+        up.finish();
+        Assert.assertEquals(tag, TreeHash.hash(up.finalFile.toFile(), treeBlock).tag());
+    }
+
+    @Test(description = "Tree blocks that are not a whole multiple of the chunk size are not kept")
+    public void treeLeavesNeedWholeMultiple() throws IOException {
+        try (PositionalUpload up = open(Files.createTempDirectory("pos-nokeep"), 4 * CHUNK)) {
+            up.keepTreeLeaves(CHUNK + CHUNK / 2);
+            Assert.assertFalse(up.keepsTreeLeaves());
+            up.keepTreeLeaves(CHUNK);
+            Assert.assertFalse(up.keepsTreeLeaves());
+        }
+    }
+
+    private static PositionalUpload open(Path dir, long totalBytes) throws IOException {
+        return PositionalUpload.open("pos-test", "file.bin", totalBytes, CHUNK,
+                dir.resolve("file.bin.part"), dir.resolve("file.bin"));
+    }
+
+    private static byte[] randomBytes(int n) {
+        byte[] b = new byte[n];
+        new Random(n).nextBytes(b);
+        return b;
+    }
+}
@@ -0,0 +1,82 @@
+package com.filesharingapp.server;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+/**
+ * RangeParsingTest
+ * ----------------
+ * Baby-English:
+ * - Checks DownloadService.parseRanges / parseRange / ifRangeMatches.
+ * - null = send the whole file (200), empty = nothing satisfiable (416), else = 206.
+ */
+public class RangeParsingTest {
+
+    private static final long SIZE = 1000;
+
+    @Test(description = "Bounded, open and suffix ranges")
+    public void singleRangeForms() {
+        Assert.assertEquals(parse("bytes=100-199"), "[100-199]");
+        Assert.assertEquals(parse("bytes=900-"), "[900-999]");
+        Assert.assertEquals(parse("bytes=-100"), "[900-999]");
+        Assert.assertEquals(parse("bytes=-5000"), "[0-999]", "Suffix longer than the file → whole file");
+        Assert.assertEquals(parse("bytes=500-5000"), "[500-999]", "Last byte past the end is clipped");
+        Assert.assertEquals(parse("BYTES= 0-0 "), "[0-0]");
+    }
+
+    @Test(description = "Several ranges are sorted, and overlapping or touching ones are merged")
+    public void multipleRangesCoalesce() {
+        Assert.assertEquals(parse("bytes=500-599,0-99"), "[0-99, 500-599]");
+        Assert.assertEquals(parse("bytes=0-99,100-199,150-300"), "[0-300]");
+        Assert.assertEquals(parse("bytes=0-9,,20-29"), "[0-9, 20-29]");
+    }
+
+    @Test(description = "Ranges that start past the end are dropped; none left → 416")
+    public void unsatisfiableRanges() {
+        Assert.assertEquals(parse("bytes=1000-"), "[]");
+        Assert.assertEquals(parse("bytes=2000-2100,0-9"), "[0-9]");
+        Assert.assertEquals(parse("bytes=-0"), "[]");
+        Assert.assertEquals(DownloadService.parseRanges("bytes=-10", 0).toString(), "[]");
+    }
+
+    @Test(description = "Headers we do not understand are ignored → whole file")
+    public void malformedHeadersAreIgnored() {
+        Assert.assertNull(DownloadService.parseRanges(null, SIZE));
+        Assert.assertNull(DownloadService.parseRanges("items=0-9", SIZE));
+        Assert.assertNull(DownloadService.parseRanges("bytes=", SIZE));
+        Assert.assertNull(DownloadService.parseRanges("bytes=10", SIZE));
+        Assert.assertNull(DownloadService.parseRanges("bytes=20-10", SIZE));
+        Assert.assertNull(DownloadService.parseRanges("bytes=a-b", SIZE));
+        Assert.assertNull(DownloadService.parseRanges("bytes=+1-2", SIZE));
+        Assert.assertNull(DownloadService.parseRanges("bytes=99999999999999999999-", SIZE));
+    }
+
+    @Test(description = "Resume offset is the start of a single range, else 0")
+    public void parseRangeGivesResumeOffset() {
+        Assert.assertEquals(DownloadService.parseRange("bytes=250-", SIZE), 250L);
+        Assert.assertEquals(DownloadService.parseRange("bytes=0-9,500-", SIZE), 0L);
+        Assert.assertEquals(DownloadService.parseRange(null, SIZE), 0L);
+    }
+
+    @Test(description = "If-Range: only our strong ETag or our exact Last-Modified second keeps the range")
+    public void ifRange() {
+        long modified = 1_700_000_000_123L;
+        String etag = DownloadService.etagOf(SIZE, modified);
+
+        Assert.assertTrue(DownloadService.ifRangeMatches(null, etag, modified));
+        Assert.assertTrue(DownloadService.ifRangeMatches(etag, etag, modified));
+        Assert.assertFalse(DownloadService.ifRangeMatches("W/" + etag, etag, modified));
+        Assert.assertFalse(DownloadService.ifRangeMatches("\"other\"", etag, modified));
+        Assert.assertTrue(DownloadService.ifRangeMatches("Tue, 14 Nov 2023 22:13:20 GMT", etag, modified));
+        Assert.assertFalse(DownloadService.ifRangeMatches("Tue, 14 Nov 2023 22:13:21 GMT", etag, modified));
+        Assert.assertFalse(DownloadService.ifRangeMatches("not a date", etag, modified));
+    }
+
+    private static String parse(String header) {
+        List<DownloadService.ByteRange> ranges = DownloadService.parseRanges(header, SIZE);
+        Assert.assertNotNull(ranges, header);
+        return ranges.toString();
+    }
+}
@@ -0,0 +1,112 @@
+package com.filesharingapp.server;
+
+import com.filesharingapp.core.TransferContext;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * UploadJournalTest
+ * -----------------
+ * Baby-English:
+ * - Writes a journal, reads it back, and restarts a half-done upload from it.
+ * - The recovery test uses tmp/uploads and received/ like the server does,
+ *   with its own transferId and file name.
+ */
+public class UploadJournalTest {
+
+    private static final int CHUNK = 1024;
+    private static final Path TMP_DIR = Path.of("tmp", "uploads");
+
+    @Test(description = "Header and marked chunks come back unchanged after a reload")
+    public void createThenLoad() throws IOException {
+        Path file = Files.createTempDirectory("journal").resolve("jt-load" + UploadJournal.SUFFIX);
+        try (UploadJournal j = UploadJournal.create(file, "jt-load", "a b.bin", 100L * CHUNK, CHUNK, 100,
+                false, "tree-sha256:1024:abcd", false)) {
+            j.mark(0);
+            j.mark(70);
+        }
+
+        try (UploadJournal j = UploadJournal.load(file, false)) {
+            Assert.assertNotNull(j);
+            Assert.assertEquals(j.transferId, "jt-load");
+            Assert.assertEquals(j.fileName, "a b.bin");
+            Assert.assertEquals(j.totalBytes, 100L * CHUNK);
+            Assert.assertEquals(j.chunkSize, CHUNK);
+            Assert.assertEquals(j.chunkCount, 100);
+            Assert.assertFalse(j.staged);
+            Assert.assertEquals(j.checksum, "tree-sha256:1024:abcd");
+            Assert.assertTrue(j.isMarked(0));
+            Assert.assertTrue(j.isMarked(70));
+            Assert.assertFalse(j.isMarked(1));
+            Assert.assertFalse(j.isMarked(99));
+        }
+    }
+
+    @Test(description = "A journal whose header was never finished (no magic) is not loaded")
+    public void halfWrittenJournalIsIgnored() throws IOException {
+        Path file = Files.createTempDirectory("journal").resolve("jt-half" + UploadJournal.SUFFIX);
+        Files.write(file, new byte[8192]);
+        Assert.assertNull(UploadJournal.load(file, false));
+
+        Path tiny = file.resolveSibling("jt-tiny" + UploadJournal.SUFFIX);
+        Files.write(tiny, new byte[16]);
+        Assert.assertNull(UploadJournal.load(tiny, false));
+    }
+
+    @Test(description = "After a restart only the unmarked chunks are missing, and sending them finishes the file")
+    public void recoverThenResume() throws IOException {
+        String id = "jt-recover";
+        String name = "jt-recover.bin";
+        long total = 4L * CHUNK;
+        Files.createDirectories(TMP_DIR);
+        Path part = TMP_DIR.resolve(id + ".part");
+        Path journalFile = UploadJournal.fileFor(TMP_DIR, id);
+        Path received = ChunkUploadService.getReceivedFile(name);
+
+        try {
+            // What a crashed server leaves behind: chunks 0 and 2 on disk and marked.
+            try (FileChannel ch = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                ch.write(ByteBuffer.wrap(filled(CHUNK, 'a')), 0);
+                ch.write(ByteBuffer.wrap(filled(CHUNK, 'c')), 2L * CHUNK);
+            }
+            try (UploadJournal j = UploadJournal.create(journalFile, id, name, total, CHUNK, 4,
+                    false, null, false)) {
+                j.mark(0);
+                j.mark(2);
+            }
+
+            Assert.assertTrue(ChunkUploadService.recoverFromJournals() >= 1);
+            Assert.assertEquals(TransferContext.getMissingChunkRanges(id).toString(), "[1-2, 3-4]");
+            Assert.assertEquals(TransferStatusRegistry.get(id).getBytesWritten(), 2L * CHUNK);
+
+            ChunkUploadService.handleChunk(id, name, 1, CHUNK, 4, total, filled(CHUNK, 'b'), null);
+            String last = ChunkUploadService.handleChunk(id, name, 3, CHUNK, 4, total, filled(CHUNK, 'd'), null);
+
+            Assert.assertEquals(last, "MERGED");
+            byte[] out = Files.readAllBytes(received);
+            Assert.assertEquals(out.length, (int) total);
+            for (int i = 0; i < 4; i++) Assert.assertEquals(out[i * CHUNK], (byte) ('a' + i));
+            Assert.assertFalse(Files.exists(journalFile), "Journal is removed once the file is done");
+        } finally {
+            TransferContext.clearTransfer(id);
+            TransferStatusRegistry.remove(id);
+            Files.deleteIfExists(part);
+            Files.deleteIfExists(journalFile);
+            Files.deleteIfExists(received);
+        }
+    }
+
+    private static byte[] filled(int n, char c) {
+        byte[] b = new byte[n];
+        Arrays.fill(b, (byte) c);
+        return b;
+    }
+}
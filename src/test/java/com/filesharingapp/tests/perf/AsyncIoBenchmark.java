@@ -0,0 +1,234 @@
+package com.filesharingapp.tests.perf;
+
+import com.filesharingapp.server.ChunkUploadService;
+import com.filesharingapp.server.UploadServlet;
+import com.filesharingapp.utils.LoggerUtil;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.testng.Assert;
+import org.testng.SkipException;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * AsyncIoBenchmark
+ * ----------------
+ * Compares the blocking and the async (ReadListener) chunk upload path with
+ * 100, 1,000 and 5,000 concurrent slow clients against the same small Jetty
+ * thread pool.
+ *
+ * Every client opens its own connection and drip-feeds one chunk in
+ * SLICES pieces, DRIP_MS apart. Blocking mode pins a pool thread for the
+ * whole drip; async mode only uses a thread while a slice is being read.
+ * The run logs completed uploads, wall time, p99 latency and peak busy
+ * pool threads for both modes.
+ *
+ * Not part of the default surefire run (name does not end in "Test").
+ * Run it with:  mvn test -Dsurefire.suiteXmlFiles=perfTestNG.xml
+ * 5,000 clients need about 12,000 open files (ulimit -n).
+ */
+public class AsyncIoBenchmark {
+
+    private static final int MAX_THREADS = 48;
+    private static final int BODY_BYTES = 16 * 1024;
+    private static final int SLICES = 8;
+    private static final long DRIP_MS = 50;
+    private static final long DEADLINE_MS = 120_000;
+
+    private final Map<String, String> results = new TreeMap<>();
+
+    @DataProvider(name = "connections")
+    public Object[][] connections() {
+        return new Object[][]{{100}, {1_000}, {5_000}};
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void printTable() {
+        LoggerUtil.info("[Bench] mode/connections → completed, wall ms, p99 ms, peak busy threads");
+        results.forEach((k, v) -> LoggerUtil.info("[Bench] " + k + " → " + v));
+    }
+
+    @Test(groups = "perf", dataProvider = "connections",
+            description = "Async uploads finish every slow client with a small pool; compared to blocking")
+    public void asyncVersusBlocking(int connections) throws Exception {
+        Run blocking = run(false, connections);
+        Run async = run(true, connections);
+
+        results.put(String.format("%-8s %5d", "blocking", connections), blocking.toString());
+        results.put(String.format("%-8s %5d", "async", connections), async.toString());
+
+        Assert.assertEquals(async.completed, connections, "Async mode must finish every upload");
+        Assert.assertTrue(async.completed >= blocking.completed,
+                "Async completed " + async.completed + " < blocking " + blocking.completed);
+    }
+
+    // ============================================================
+    // One run: start Jetty, drive N slow clients, stop Jetty
+    // ============================================================
+
+    private Run run(boolean asyncIo, int connections) throws Exception {
+        QueuedThreadPool pool = new QueuedThreadPool(MAX_THREADS, 8);
+        Server server = new Server(pool);
+        ServerConnector connector = new ServerConnector(server);
+        connector.setPort(0);
+        connector.setAcceptQueueSize(connections);
+        connector.setIdleTimeout(DEADLINE_MS);
+        server.addConnector(connector);
+
+        ServletContextHandler context = new ServletContextHandler(ServletContextHandler.NO_SESSIONS);
+        context.setContextPath("/");
+        ServletHolder holder = new ServletHolder(new UploadServlet(asyncIo));
+        holder.setAsyncSupported(asyncIo);
+        context.addServlet(holder, "/upload");
+        server.setHandler(context);
+        server.start();
+
+        String prefix = "bench-io-" + (asyncIo ? "async" : "blocking") + "-" + connections + "-";
+        List<Client> clients = new ArrayList<>(connections);
+        try {
+            for (int i = 0; i < connections; i++) {
+                clients.add(new Client(connector.getLocalPort(), prefix + i));
+            }
+        } catch (IOException e) {
+            for (Client c : clients) c.close();
+            server.stop();
+            throw new SkipException("Could not open " + connections + " sockets (raise ulimit -n): " + e.getMessage());
+        }
+
+        Run result = drive(clients, pool);
+
+        server.stop();
+        for (int i = 0; i < connections; i++) {
+            Files.deleteIfExists(ChunkUploadService.getReceivedFile(prefix + i + ".bin"));
+        }
+        return result;
+    }
+
+    private Run drive(List<Client> clients, QueuedThreadPool pool) throws Exception {
+        long t0 = System.nanoTime();
+        long deadline = t0 + DEADLINE_MS * 1_000_000L;
+        int peakBusy = 0;
+        int open = clients.size();
+
+        for (int round = 0; open > 0 && System.nanoTime() < deadline; round++) {
+            for (Client c : clients) {
+                if (c.done) continue;
+                c.release(round);
+                c.pump();
+                if (c.done) open--;
+            }
+            peakBusy = Math.max(peakBusy, pool.getBusyThreads());
+            Thread.sleep(DRIP_MS);
+        }
+
+        int completed = 0;
+        long[] latencies = new long[clients.size()];
+        for (Client c : clients) {
+            if (c.ok) latencies[completed++] = c.doneNanos - t0;
+            c.close();
+        }
+        long[] sorted = Arrays.copyOf(latencies, completed);
+        Arrays.sort(sorted);
+        long p99 = (completed == 0) ? -1 : sorted[Math.min(completed - 1, (int) (completed * 0.99))] / 1_000_000L;
+        return new Run(completed, (System.nanoTime() - t0) / 1_000_000L, p99, peakBusy);
+    }
+
+    private static final class Run {
+        final int completed;
+        final long wallMs;
+        final long p99Ms;
+        final int peakBusy;
+
+        Run(int completed, long wallMs, long p99Ms, int peakBusy) {
+            this.completed = completed;
+            this.wallMs = wallMs;
+            this.p99Ms = p99Ms;
+            this.peakBusy = peakBusy;
+        }
+
+        @Override
+        public String toString() {
+            return completed + ", " + wallMs + " ms, p99 " + p99Ms + " ms, " + peakBusy + " threads";
+        }
+    }
+
+    // ============================================================
+    // A slow client on a non-blocking socket
+    // ============================================================
+
+    private static final class Client {
+        private final SocketChannel ch;
+        private final ByteBuffer out;
+        private final int headerBytes;
+        private final ByteBuffer in = ByteBuffer.allocate(1024);
+        boolean done;
+        boolean ok;
+        long doneNanos;
+
+        Client(int port, String transferId) throws IOException {
+            ch = SocketChannel.open(new InetSocketAddress("localhost", port));
+            ch.configureBlocking(false);
+
+            String head = "POST /upload?transferId=" + transferId + "&fileName=" + transferId + ".bin"
+                    + "&totalBytes=" + BODY_BYTES + "&chunkIndex=0&chunkSize=" + BODY_BYTES + "&chunkCount=1"
+                    + " HTTP/1.1\r\n"
+                    + "Host: localhost\r\n"
+                    + "Content-Type: application/octet-stream\r\n"
+                    + "Content-Length: " + BODY_BYTES + "\r\n"
+                    + "Connection: close\r\n\r\n";
+            byte[] h = head.getBytes(StandardCharsets.US_ASCII);
+            headerBytes = h.length;
+            out = ByteBuffer.allocate(h.length + BODY_BYTES);
+            out.put(h);
+            out.flip();
+        }
+
+        /** Round r allows headers plus r+1 slices of the body onto the wire. */
+        void release(int round) {
+            int slices = Math.min(round + 1, SLICES);
+            out.limit(headerBytes + (int) ((long) BODY_BYTES * slices / SLICES));
+        }
+
+        void pump() throws IOException {
+            if (out.hasRemaining()) ch.write(out);
+
+            int n = ch.read(in);
+            String text = new String(in.array(), 0, in.position(), StandardCharsets.US_ASCII);
+            if (text.startsWith("HTTP/1.1 ") && text.contains("\r\n\r\n")) {
+                ok = text.startsWith("HTTP/1.1 200");
+                finish();
+            } else if (n < 0) {
+                finish();
+            }
+        }
+
+        private void finish() {
+            done = true;
+            doneNanos = System.nanoTime();
+        }
+
+        void close() {
+            try {
+                ch.close();
+            } catch (IOException ignored) {
+                // best effort
+            }
+        }
+    }
+}
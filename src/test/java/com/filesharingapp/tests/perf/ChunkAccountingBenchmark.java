@@ -0,0 +1,95 @@
+package com.filesharingapp.tests.perf;
+
+import com.filesharingapp.server.ChunkUploadService;
+import com.filesharingapp.utils.LoggerUtil;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * ChunkAccountingBenchmark
+ * ------------------------
+ * Shows that the per-chunk cost of ChunkUploadService stays flat as a
+ * transfer grows to 10k+ chunks, even with other transfers' chunk files
+ * lying in tmp/uploads.
+ *
+ * Not part of the default surefire run (name does not end in "Test").
+ * Run it with:  mvn test -Dsurefire.suiteXmlFiles=perfTestNG.xml
+ */
+public class ChunkAccountingBenchmark {
+
+    private static final int CHUNKS = 12_000;
+    private static final int CHUNK_SIZE = 1024;
+    private static final int WINDOW = 1_000;
+    private static final int NOISE_FILES = 2_000;
+
+    private static final Path TMP_DIR = Path.of("tmp", "uploads");
+    private static final String NOISE_ID = "bench-noise";
+
+    @BeforeClass
+    public void stageOtherTransfers() throws IOException {
+        Files.createDirectories(TMP_DIR);
+        byte[] one = new byte[CHUNK_SIZE];
+        for (int i = 0; i < NOISE_FILES; i++) {
+            Files.write(TMP_DIR.resolve(NOISE_ID + "." + i + ".chunk"), one);
+        }
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void cleanUp() throws IOException {
+        for (int i = 0; i < NOISE_FILES; i++) {
+            Files.deleteIfExists(TMP_DIR.resolve(NOISE_ID + "." + i + ".chunk"));
+        }
+        Files.deleteIfExists(ChunkUploadService.getReceivedFile("bench-staged.bin"));
+        Files.deleteIfExists(ChunkUploadService.getReceivedFile("bench-positional.bin"));
+    }
+
+    @Test(groups = "perf", description = "Staged chunk files: per-chunk latency must not grow with chunk count")
+    public void stagedChunkLatencyIsFlat() throws IOException {
+        // chunkSize = 0 → server cannot place chunks, so it uses the staged path.
+        runAndAssertFlat("bench-staged", "bench-staged.bin", 0);
+    }
+
+    @Test(groups = "perf", description = "Positional placement: per-chunk latency must not grow with chunk count")
+    public void positionalChunkLatencyIsFlat() throws IOException {
+        runAndAssertFlat("bench-positional", "bench-positional.bin", CHUNK_SIZE);
+    }
+
+    private void runAndAssertFlat(String transferId, String fileName, int declaredChunkSize) throws IOException {
+        long totalBytes = (long) CHUNKS * CHUNK_SIZE;
+        byte[] body = new byte[CHUNK_SIZE];
+        long[] windowMedians = new long[CHUNKS / WINDOW];
+        long[] samples = new long[WINDOW];
+        String last = null;
+
+        for (int i = 0; i < CHUNKS; i++) {
+            long t0 = System.nanoTime();
+            last = ChunkUploadService.handleChunk(transferId, fileName, i, declaredChunkSize, 0, totalBytes, body, null);
+            samples[i % WINDOW] = System.nanoTime() - t0;
+
+            if ((i + 1) % WINDOW == 0) {
+                long[] sorted = samples.clone();
+                Arrays.sort(sorted);
+                windowMedians[i / WINDOW] = sorted[WINDOW / 2];
+            }
+        }
+
+        LoggerUtil.info("[Bench] " + transferId + " median ns/chunk per " + WINDOW + "-chunk window: "
+                + Arrays.toString(windowMedians));
+
+        Assert.assertEquals(last, "MERGED", "Last chunk should complete the file");
+        Assert.assertEquals(Files.size(ChunkUploadService.getReceivedFile(fileName)), totalBytes);
+
+        // Window 0 includes JIT warm-up, so compare the last window with window 1.
+        long early = Math.max(windowMedians[1], 1L);
+        long late = windowMedians[windowMedians.length - 1];
+        Assert.assertTrue(late <= early * 3,
+                "Per-chunk latency grew from " + early + " ns to " + late + " ns");
+    }
+}
@@ -0,0 +1,45 @@
+package com.filesharingapp.utils;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Crc32cHeaderTest
+ * ----------------
+ * Baby-English:
+ * - Checks the per-chunk CRC32C and its header text (base64 of 4 big-endian bytes,
+ *   the same form as S3's x-amz-checksum-crc32c).
+ */
+public class Crc32cHeaderTest {
+
+    @Test(description = "CRC32C of the standard check string is 0xE3069283")
+    public void knownValue() {
+        byte[] data = "123456789".getBytes(StandardCharsets.US_ASCII);
+        Assert.assertEquals(HashUtil.crc32c(data, 0, data.length), 0xE3069283);
+        Assert.assertEquals(HashUtil.crc32cHeader(0xE3069283), "4waSgw==");
+    }
+
+    @Test(description = "Header text reads back to the same int, sign bit included")
+    public void roundTrip() {
+        for (int crc : new int[]{0, 1, -1, Integer.MIN_VALUE, 0x7FFFFFFF, 0xE3069283}) {
+            Assert.assertEquals(HashUtil.parseCrc32cHeader(HashUtil.crc32cHeader(crc)), crc);
+        }
+        Assert.assertEquals(HashUtil.parseCrc32cHeader(" 4waSgw== "), 0xE3069283, "Spaces around it are fine");
+    }
+
+    @Test(description = "Only a byte range is hashed")
+    public void rangeOnly() {
+        byte[] data = "xx123456789yy".getBytes(StandardCharsets.US_ASCII);
+        Assert.assertEquals(HashUtil.crc32c(data, 2, 9), 0xE3069283);
+    }
+
+    @Test(description = "Not base64, or not exactly 4 bytes → IllegalArgumentException")
+    public void badHeadersAreRejected() {
+        Assert.assertThrows(IllegalArgumentException.class, () -> HashUtil.parseCrc32cHeader("AAAA"));
+        Assert.assertThrows(IllegalArgumentException.class, () -> HashUtil.parseCrc32cHeader("AAAAAAA="));
+        Assert.assertThrows(IllegalArgumentException.class, () -> HashUtil.parseCrc32cHeader("not base64!"));
+        Assert.assertThrows(IllegalArgumentException.class, () -> HashUtil.parseCrc32cHeader(""));
+    }
+}
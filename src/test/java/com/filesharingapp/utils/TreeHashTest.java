@@ -0,0 +1,108 @@
+package com.filesharingapp.utils;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+
+/**
+ * TreeHashTest
+ * ------------
+ * Baby-English:
+ * - The root built from kept block hashes (root(...)) must equal the root read
+ *   from the file (hash(...)), for every block count.
+ * - Both must have the RFC 6962 shape, worked out here by hand for small trees.
+ */
+public class TreeHashTest {
+
+    private static final int BLOCK = 1024;
+    private static final String EMPTY_SHA256 = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+
+    @DataProvider(name = "sizes")
+    public Object[][] sizes() {
+        return new Object[][]{{1}, {BLOCK}, {BLOCK + 1}, {2 * BLOCK}, {3 * BLOCK - 7}, {5 * BLOCK}, {8 * BLOCK}, {9 * BLOCK + 3}};
+    }
+
+    @Test(dataProvider = "sizes", description = "root(block hashes) equals hash(file) and its own block hashes")
+    public void rootFromLeavesMatchesFile(int size) throws IOException {
+        byte[] data = randomBytes(size);
+        File file = write(data);
+
+        TreeHash.Result r = TreeHash.hash(file, BLOCK);
+        byte[][] leaves = new byte[r.blockCount()][];
+        for (int i = 0; i < leaves.length; i++) {
+            int off = i * BLOCK;
+            leaves[i] = TreeHash.leafHash(data, off, Math.min(BLOCK, size - off));
+            Assert.assertEquals(HashUtil.bytesToHex(leaves[i]), r.blockHashHex(i), "block " + i);
+        }
+        Assert.assertEquals(HashUtil.bytesToHex(TreeHash.root(leaves)), r.rootHex());
+    }
+
+    @Test(description = "Small trees have the RFC 6962 shape: split at the largest power of two below n")
+    public void rfc6962Shape() throws Exception {
+        byte[][] l = new byte[5][];
+        for (int i = 0; i < l.length; i++) l[i] = TreeHash.leafHash(new byte[]{(byte) i}, 0, 1);
+
+        Assert.assertEquals(TreeHash.root(new byte[][]{l[0]}), l[0]);
+        Assert.assertEquals(TreeHash.root(new byte[][]{l[0], l[1], l[2]}),
+                node(node(l[0], l[1]), l[2]));
+        Assert.assertEquals(TreeHash.root(l),
+                node(node(node(l[0], l[1]), node(l[2], l[3])), l[4]));
+        Assert.assertEquals(TreeHash.leafHash(new byte[]{7}, 0, 1), sha256((byte) 0x00, (byte) 7));
+    }
+
+    @Test(description = "An empty file hashes to SHA-256 of nothing, from the file and from no leaves")
+    public void emptyFile() throws IOException {
+        TreeHash.Result r = TreeHash.hash(write(new byte[0]), BLOCK);
+        Assert.assertEquals(r.blockCount(), 0);
+        Assert.assertEquals(r.rootHex(), EMPTY_SHA256);
+        Assert.assertEquals(HashUtil.bytesToHex(TreeHash.root(new byte[0][])), EMPTY_SHA256);
+    }
+
+    @Test(description = "Tag text carries block size and root; plain SHA-256 is not a tree digest")
+    public void tagParsing() {
+        String tag = TreeHash.tag(4_194_304, "abcd");
+        Assert.assertEquals(tag, "tree-sha256:4194304:abcd");
+        Assert.assertTrue(TreeHash.isTreeDigest(tag));
+        Assert.assertEquals(TreeHash.blockBytesOf(tag), 4_194_304);
+        Assert.assertEquals(TreeHash.rootOf(tag), "abcd");
+
+        Assert.assertFalse(TreeHash.isTreeDigest(EMPTY_SHA256));
+        Assert.assertEquals(TreeHash.blockBytesOf(EMPTY_SHA256), -1);
+        Assert.assertEquals(TreeHash.rootOf(EMPTY_SHA256), EMPTY_SHA256);
+        Assert.assertEquals(TreeHash.blockBytesOf("tree-sha256:0:abcd"), -1);
+        Assert.assertEquals(TreeHash.blockBytesOf("tree-sha256:x:abcd"), -1);
+    }
+
+    private static byte[] node(byte[] left, byte[] right) throws NoSuchAlgorithmException {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        md.update((byte) 0x01);
+        md.update(left);
+        md.update(right);
+        return md.digest();
+    }
+
+    private static byte[] sha256(byte... bytes) throws NoSuchAlgorithmException {
+        return MessageDigest.getInstance("SHA-256").digest(bytes);
+    }
+
+    private static File write(byte[] data) throws IOException {
+        Path p = Files.createTempFile("treehash", ".bin");
+        Files.write(p, data);
+        p.toFile().deleteOnExit();
+        return p.toFile();
+    }
+
+    private static byte[] randomBytes(int n) {
+        byte[] b = new byte[n];
+        new Random(n).nextBytes(b);
+        return b;
+    }
+}